@@ -0,0 +1,147 @@
+// DrawBenchmark.java
+
+package hexgui.benchmark;
+
+import hexgui.gui.BoardDrawerBase;
+import hexgui.gui.BoardDrawerDiamond;
+import hexgui.gui.BoardDrawerFlat;
+import hexgui.gui.BoardDrawerFlat2;
+import hexgui.gui.BoardDrawerGo;
+import hexgui.gui.GuiField;
+import hexgui.hex.HexColor;
+import hexgui.hex.HexPoint;
+import hexgui.util.Pair;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Drawing a full board into an offscreen image, as done on every repaint. The board has stones
+ * on about half of the cells, and colors, labels and arrows as shown by analyze commands.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(jvmArgsAppend = "-Djava.awt.headless=true")
+public class DrawBenchmark {
+  @Param({"Diamond", "Flat", "Flat2", "Go"})
+  public String drawer;
+
+  @Param({"800"})
+  public int width;
+
+  /** Whether the board is shown from the other side, as with the negative orientation. */
+  @Param({"false", "true"})
+  public boolean transposed;
+
+  private BoardDrawerBase m_drawer;
+
+  private GuiField m_field[];
+
+  private int m_move;
+
+  private Point m_mouse = new Point();
+
+  private Vector<Pair<HexPoint, HexPoint>> m_arrows;
+
+  private BufferedImage m_image;
+
+  private Graphics2D m_graphics;
+
+  @Setup
+  public void setup() {
+    if (drawer.equals("Flat")) m_drawer = new BoardDrawerFlat();
+    else if (drawer.equals("Flat2")) m_drawer = new BoardDrawerFlat2();
+    else if (drawer.equals("Go")) m_drawer = new BoardDrawerGo();
+    else m_drawer = new BoardDrawerDiamond();
+    m_drawer.setTransposed(transposed);
+
+    int size = Fixtures.SIZE;
+    Random random = new Random(7);
+    m_field = new GuiField[size * size + 4];
+    for (int i = 0; i < size * size; i++) {
+      m_field[i] = new GuiField(HexPoint.get(i % size, i / size));
+      m_field[i].setAttributes(GuiField.DRAW_CELL_OUTLINE);
+      int r = random.nextInt(8);
+      if (r < 2) m_field[i].setColor(HexColor.BLACK);
+      else if (r < 4) m_field[i].setColor(HexColor.WHITE);
+      else if (r == 4) m_field[i].setAlphaColor(Color.green);
+      else if (r == 5) m_field[i].setText(Integer.toString(random.nextInt(1000)));
+    }
+    m_field[size * size + 0] = new GuiField(HexPoint.NORTH);
+    m_field[size * size + 1] = new GuiField(HexPoint.SOUTH);
+    m_field[size * size + 2] = new GuiField(HexPoint.WEST);
+    m_field[size * size + 3] = new GuiField(HexPoint.EAST);
+
+    m_arrows = new Vector<Pair<HexPoint, HexPoint>>();
+    for (int i = 0; i < 5; i++) {
+      HexPoint from = HexPoint.get(random.nextInt(size), random.nextInt(size));
+      HexPoint to = HexPoint.get(random.nextInt(size), random.nextInt(size));
+      m_arrows.add(new Pair<HexPoint, HexPoint>(from, to));
+    }
+
+    int height = width * 2 / 3;
+    m_image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    m_graphics = m_image.createGraphics();
+    draw();
+  }
+
+  @TearDown
+  public void tearDown() {
+    m_graphics.dispose();
+  }
+
+  /** Repaint with nothing changed. */
+  @Benchmark
+  public BufferedImage draw() {
+    int size = Fixtures.SIZE;
+    m_drawer.draw(
+        m_graphics,
+        m_image.getWidth(),
+        m_image.getHeight(),
+        size,
+        size,
+        !transposed,
+        m_field,
+        m_arrows);
+    return m_image;
+  }
+
+  /** Finding the field under the mouse, across the whole region. */
+  @Benchmark
+  public GuiField getFieldContaining() {
+    m_mouse.x = (m_mouse.x + 37) % m_image.getWidth();
+    m_mouse.y = (m_mouse.y + 23) % m_image.getHeight();
+    return m_drawer.getFieldContaining(m_mouse, m_field);
+  }
+
+  /** Repaint after a stone was played or taken back. */
+  @Benchmark
+  public BufferedImage drawAfterMove() {
+    GuiField field = m_field[m_move];
+    field.setColor(field.getColor() == HexColor.EMPTY ? HexColor.BLACK : HexColor.EMPTY);
+    m_move = (m_move + 1) % (Fixtures.SIZE * Fixtures.SIZE);
+    return draw();
+  }
+
+  /** Repaint after the window was resized. */
+  @Benchmark
+  public BufferedImage drawAfterResize() {
+    m_drawer.invalidateLayers();
+    return draw();
+  }
+}
@@ -0,0 +1,147 @@
+// Fixtures.java
+
+package hexgui.benchmark;
+
+import hexgui.game.GameInfo;
+import hexgui.game.Node;
+import hexgui.hex.HexColor;
+import hexgui.hex.HexPoint;
+import hexgui.hex.Move;
+import hexgui.sgf.SgfWriter;
+import java.awt.Dimension;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.Vector;
+
+/**
+ * Generators of realistic input for the benchmarks. All generators are deterministic for a given
+ * seed, so that runs can be compared.
+ */
+public final class Fixtures {
+  /** Board size used by the fixtures. */
+  public static final int SIZE = 11;
+
+  /** Returns the names of all cells of the board, in row order. */
+  public static String[] cellNames() {
+    String names[] = new String[SIZE * SIZE];
+    for (int y = 0; y < SIZE; y++) {
+      for (int x = 0; x < SIZE; x++) names[y * SIZE + x] = HexPoint.get(x, y).toString();
+    }
+    return names;
+  }
+
+  /** Returns the cell names in random order, as they come in program responses. */
+  public static String[] shuffledCellNames(long seed) {
+    String names[] = cellNames();
+    Random random = new Random(seed);
+    for (int i = names.length - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      String tmp = names[i];
+      names[i] = names[j];
+      names[j] = tmp;
+    }
+    return names;
+  }
+
+  /**
+   * Returns an opening book like tree of about <code>nodes</code> nodes. Lines are played from a
+   * node chosen among the most recent ones, so the tree has a long main line with variations of
+   * decreasing frequency, and one node in twenty has a comment.
+   */
+  public static Node gameTree(int nodes, long seed) {
+    Random random = new Random(seed);
+    Node root = new Node();
+    root.setSgfProperty("FF", "4");
+    Vector<Node> recent = new Vector<Node>();
+    recent.add(root);
+    int count = 1;
+    while (count < nodes) {
+      Node node = recent.get(recent.size() - 1 - random.nextInt(Math.min(recent.size(), 64)));
+      int depth = node.getDepth();
+      if (depth >= SIZE * SIZE) {
+        // The board is full; branch off anywhere in the tree.
+        node = recent.get(random.nextInt(recent.size()));
+        depth = node.getDepth();
+      }
+      int length = 1 + random.nextInt(40);
+      for (int i = 0; i < length && count < nodes && depth < SIZE * SIZE; i++, depth++) {
+        HexColor color = (depth % 2 == 0) ? HexColor.BLACK : HexColor.WHITE;
+        HexPoint point = HexPoint.get(random.nextInt(SIZE), random.nextInt(SIZE));
+        Node child = new Node(new Move(point, color));
+        if (random.nextInt(20) == 0) child.setComment("Variation " + count);
+        node.addChild(child);
+        node = child;
+        recent.add(node);
+        count++;
+      }
+    }
+    return root;
+  }
+
+  public static GameInfo gameInfo() {
+    GameInfo info = new GameInfo();
+    info.setBoardSize(new Dimension(SIZE, SIZE));
+    return info;
+  }
+
+  /** Returns the SGF text of <code>root</code>. */
+  public static byte[] toSgf(Node root) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new SgfWriter(out, root, gameInfo());
+    return out.toByteArray();
+  }
+
+  /** Returns the deepest node of the main line. */
+  public static Node mainLineEnd(Node root) {
+    Node node = root;
+    while (node.hasChild()) node = node.getChild();
+    return node;
+  }
+
+  /**
+   * Returns a response to <code>vc-between-cells</code>: <code>count</code> connections with
+   * carriers of up to 12 cells, one in four of them semi-connections with a key.
+   */
+  public static String vcList(int count, long seed) {
+    Random random = new Random(seed);
+    String cells[] = cellNames();
+    StringBuilder str = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      boolean semi = random.nextInt(4) == 0;
+      str.append(random.nextBoolean() ? "black " : "white ");
+      str.append(cells[random.nextInt(cells.length)]).append(' ');
+      str.append(cells[random.nextInt(cells.length)]).append(' ');
+      str.append(semi ? "semi" : "full").append(" and [");
+      int carrier = 1 + random.nextInt(12);
+      for (int j = 0; j < carrier; j++) str.append(' ').append(cells[random.nextInt(cells.length)]);
+      str.append(" ] [");
+      int stones = random.nextInt(3);
+      for (int j = 0; j < stones; j++) str.append(' ').append(cells[random.nextInt(cells.length)]);
+      str.append(" ]");
+      if (semi) str.append(' ').append(cells[random.nextInt(cells.length)]);
+      str.append('\n');
+    }
+    return str.toString();
+  }
+
+  /**
+   * Returns a point/value list like the response to <code>compute-inferior</code>, with one entry
+   * for each of <code>count</code> cells.
+   */
+  public static String inferiorCells(int count, long seed) {
+    Random random = new Random(seed);
+    String cells[] = shuffledCellNames(seed);
+    String values[] = {"fdb", "fpw", "fcb", "x"};
+    StringBuilder str = new StringBuilder();
+    for (int i = 0; i < count && i < cells.length; i++) {
+      str.append(cells[i]).append(' ');
+      if (random.nextInt(5) == 0) {
+        str.append("iv[").append(cells[random.nextInt(cells.length)]).append(']');
+      } else {
+        str.append(values[random.nextInt(values.length)]);
+      }
+      str.append(' ');
+    }
+    return str.toString();
+  }
+}
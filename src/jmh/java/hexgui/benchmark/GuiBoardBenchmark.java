@@ -0,0 +1,51 @@
+// GuiBoardBenchmark.java
+
+package hexgui.benchmark;
+
+import hexgui.gui.GuiBoard;
+import hexgui.gui.GuiPreferences;
+import hexgui.hex.HexPoint;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Field lookups of the GUI board, done for every stone and mark that is set. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(jvmArgsAppend = "-Djava.awt.headless=true")
+public class GuiBoardBenchmark {
+  private GuiBoard m_board;
+
+  private HexPoint m_points[];
+
+  @Setup
+  public void setup() {
+    GuiBoard.Listener listener =
+        new GuiBoard.Listener() {
+          public void panelClicked() {}
+
+          public void fieldClicked(HexPoint point, boolean ctrl, boolean shift) {}
+
+          public void fieldDoubleClicked(HexPoint point, boolean ctrl, boolean shift) {}
+        };
+    m_board = new GuiBoard(listener, new GuiPreferences(GuiBoard.class));
+    m_board.initSize(Fixtures.SIZE, Fixtures.SIZE);
+    String names[] = Fixtures.shuffledCellNames(6);
+    m_points = new HexPoint[names.length];
+    for (int i = 0; i < names.length; i++) m_points[i] = HexPoint.get(names[i]);
+  }
+
+  /** Every cell of the board. */
+  @Benchmark
+  public void getField(Blackhole hole) {
+    for (int i = 0; i < m_points.length; i++) hole.consume(m_board.getField(m_points[i]));
+  }
+}
@@ -0,0 +1,42 @@
+// HexPointBenchmark.java
+
+package hexgui.benchmark;
+
+import hexgui.hex.HexPoint;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Looking up points by name, as done for every point in every program response. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HexPointBenchmark {
+  private String m_names[];
+
+  private String m_special[];
+
+  @Setup
+  public void setup() {
+    m_names = Fixtures.shuffledCellNames(1);
+    m_special = new String[] {"swap-pieces", "swap-sides", "resign", "pass", "forfeit"};
+  }
+
+  /** All cells of the board. */
+  @Benchmark
+  public void getCells(Blackhole hole) {
+    for (int i = 0; i < m_names.length; i++) hole.consume(HexPoint.get(m_names[i]));
+  }
+
+  /** The special moves, which are looked up after the cells. */
+  @Benchmark
+  public void getSpecial(Blackhole hole) {
+    for (int i = 0; i < m_special.length; i++) hole.consume(HexPoint.get(m_special[i]));
+  }
+}
@@ -0,0 +1,63 @@
+// NodeBenchmark.java
+
+package hexgui.benchmark;
+
+import hexgui.game.Node;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Navigating a game tree, as done when stepping through a game and drawing the tree. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class NodeBenchmark {
+  private Node m_root;
+
+  private Node m_deep;
+
+  /** The node with the most children. */
+  private Node m_wide;
+
+  @Setup
+  public void setup() {
+    m_root = Fixtures.gameTree(100000, 5);
+    m_deep = Fixtures.mainLineEnd(m_root);
+    m_wide = m_root;
+    for (Node node = m_root; node != null; node = node.getChild()) {
+      if (node.numChildren() > m_wide.numChildren()) m_wide = node;
+    }
+  }
+
+  /** Every child of the widest node by index. */
+  @Benchmark
+  public void getChild(Blackhole hole) {
+    int num = m_wide.numChildren();
+    for (int i = 0; i < num; i++) hole.consume(m_wide.getChild(i));
+  }
+
+  @Benchmark
+  public int numChildren() {
+    return m_wide.numChildren();
+  }
+
+  /** Depth of the end of the main line. */
+  @Benchmark
+  public int getDepth() {
+    return m_deep.getDepth();
+  }
+
+  /** Walks the main line from the root to its end. */
+  @Benchmark
+  public Node walkMainLine() {
+    Node node = m_root;
+    while (node.hasChild()) node = node.getChild();
+    return node;
+  }
+}
@@ -0,0 +1,63 @@
+// SgfBenchmark.java
+
+package hexgui.benchmark;
+
+import hexgui.game.CompactGameTree;
+import hexgui.game.Node;
+import hexgui.sgf.SgfReader;
+import hexgui.sgf.SgfWriter;
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Reading and writing generated opening book trees. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SgfBenchmark {
+  @Param({"10000", "200000"})
+  public int nodes;
+
+  private Node m_root;
+
+  private byte m_sgf[];
+
+  @Setup
+  public void setup() {
+    m_root = Fixtures.gameTree(nodes, 4);
+    m_sgf = Fixtures.toSgf(m_root);
+  }
+
+  /** Reads the whole tree into <code>Node</code>s. */
+  @Benchmark
+  public Node read() throws Exception {
+    return new SgfReader(new ByteArrayInputStream(m_sgf)).getGameTree();
+  }
+
+  /** Reads the tree with its nodes parsed on demand; only the root is parsed. */
+  @Benchmark
+  public Node readLazy() throws Exception {
+    return new SgfReader(ByteBuffer.wrap(m_sgf), new CompactGameTree(), true).getGameTree();
+  }
+
+  @Benchmark
+  public CompactGameTree readCompact() throws Exception {
+    CompactGameTree tree = new CompactGameTree();
+    new SgfReader(ByteBuffer.wrap(m_sgf), tree);
+    return tree;
+  }
+
+  @Benchmark
+  public void write() {
+    new SgfWriter(OutputStream.nullOutputStream(), m_root, Fixtures.gameInfo());
+  }
+}
@@ -0,0 +1,47 @@
+// StringUtilsBenchmark.java
+
+package hexgui.benchmark;
+
+import hexgui.hex.VC;
+import hexgui.util.Pair;
+import hexgui.util.StringUtils;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Parsing the responses of analyze commands. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StringUtilsBenchmark {
+  /** Number of connections in the VC list. */
+  @Param({"100", "2000"})
+  public int vcs;
+
+  private String m_vcList;
+
+  private String m_pairList;
+
+  @Setup
+  public void setup() {
+    m_vcList = Fixtures.vcList(vcs, 2);
+    m_pairList = Fixtures.inferiorCells(Fixtures.SIZE * Fixtures.SIZE, 3);
+  }
+
+  @Benchmark
+  public Vector<VC> parseVCList() {
+    return StringUtils.parseVCList(m_vcList);
+  }
+
+  @Benchmark
+  public Vector<Pair<String, String>> parseStringPairList() {
+    return StringUtils.parseStringPairList(m_pairList);
+  }
+}
@@ -0,0 +1,296 @@
+// ----------------------------------------------------------------------------
+// $Id$
+// ----------------------------------------------------------------------------
+
+package hexgui;
+
+import hexgui.game.Node;
+import hexgui.gui.BoardRenderer;
+import hexgui.hex.HexColor;
+import hexgui.hex.HexPoint;
+import hexgui.hex.Position;
+import hexgui.sgf.SgfCollection;
+import hexgui.sgf.SgfReader;
+import hexgui.util.Options;
+import hexgui.version.Version;
+import java.awt.Dimension;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+
+// ----------------------------------------------------------------------------
+
+/**
+ * Renders board diagrams of the positions in SGF collections without the GUI.
+ *
+ * <p>The game trees are walked in the main thread, and each position is rendered and written by a
+ * pool of <code>-threads</code> threads, each with its own <code>BoardRenderer</code>. Images are
+ * named after the file, the game number and the node number in the order of the SGF file, or the
+ * move number with <code>-mainline</code>.
+ */
+public final class Diagrams {
+  public static void main(String[] args) throws Exception {
+    // Must be set before anything starts the AWT toolkit; the board drawers load images.
+    System.setProperty("java.awt.headless", "true");
+    try {
+      String options[] = {
+        "config:", "format:", "height:", "help", "mainline", "negative", "output:", "threads:",
+        "type:", "version", "width:"
+      };
+      Options opt = Options.parse(args, options);
+      if (opt.contains("help")) {
+        String helpText =
+            "Usage: java -cp hexgui.jar hexgui.Diagrams [options] file.sgf...\n"
+                + "Render board diagrams of the positions in SGF files.\n"
+                + "\n"
+                + "-config file   Read command line arguments from file\n"
+                + "-format        png or svg (default png)\n"
+                + "-height        Height of the diagrams in pixels (default 500)\n"
+                + "-help          Display this help and exit\n"
+                + "-mainline      Only render the positions of the main lines\n"
+                + "-negative      White and numbers on top\n"
+                + "-output dir    Directory of the diagrams (default .)\n"
+                + "-threads       Number of diagrams rendered at the same time\n"
+                + "               (default number of processors)\n"
+                + "-type          Diamond, Flat, Flat2, Go or Y (default Flat)\n"
+                + "-version       Print version and exit\n"
+                + "-width         Width of the diagrams in pixels (default 750)\n";
+        System.out.print(helpText);
+        return;
+      }
+      if (opt.contains("version")) {
+        System.out.println("HexGui " + Version.id + " " + Version.date);
+        return;
+      }
+      ArrayList<String> files = opt.getArguments();
+      if (files.isEmpty()) throw new Exception("No SGF files given");
+      String format = opt.get("format", "png");
+      if (!format.equals("png") && !format.equals("svg"))
+        throw new Exception("Unknown format '" + format + "'");
+      String type = opt.get("type", "Flat");
+      // Fails early on unknown types.
+      new BoardRenderer(type, 1, 1);
+
+      Diagrams diagrams =
+          new Diagrams(
+              type,
+              opt.getInteger("width", 750, 1),
+              opt.getInteger("height", 500, 1),
+              !opt.contains("negative"),
+              format,
+              new File(opt.get("output", ".")));
+      int threads = opt.getInteger("threads", Runtime.getRuntime().availableProcessors(), 1);
+      diagrams.run(files, opt.contains("mainline"), threads);
+    } catch (Exception e) {
+      System.err.println(e.getMessage());
+      System.exit(1);
+    }
+    System.exit(0);
+  }
+
+  // ------------------------------------------------------------
+
+  private Diagrams(
+      String type, int width, int height, boolean positive, String format, File output) {
+    m_type = type;
+    m_width = width;
+    m_height = height;
+    m_positive = positive;
+    m_format = format;
+    m_output = output;
+    m_rendered = new AtomicInteger();
+    m_failed = new AtomicInteger();
+    m_renderer =
+        new ThreadLocal<BoardRenderer>() {
+          protected BoardRenderer initialValue() {
+            BoardRenderer renderer = new BoardRenderer(m_type, m_width, m_height);
+            renderer.setOrientation(m_positive);
+            return renderer;
+          }
+        };
+  }
+
+  /**
+   * Renders the positions of all files with <code>threads</code> threads, and waits for them.
+   *
+   * @throws Exception if a diagram could not be rendered or written
+   */
+  private void run(ArrayList<String> files, boolean mainLine, int threads) throws Exception {
+    long start = System.nanoTime();
+    // A full queue makes the main thread render too, which bounds the positions in memory.
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            0,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(4 * threads),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+    try {
+      for (int i = 0; i < files.size(); i++) {
+        File file = new File(files.get(i));
+        String name = file.getName().replaceFirst("\\.[^.]*$", "");
+        SgfCollection collection = new SgfCollection(file);
+        for (int game = 0; game < collection.getNumGames(); game++) {
+          SgfReader reader = collection.getGame(game);
+          Dimension size = reader.getGameInfo().getBoardSize();
+          int mode = m_type.equals("Y") ? Position.YBOARD : Position.HEXBOARD;
+          Position empty = new Position(mode, size.width, size.height);
+          String prefix = name + "-" + (game + 1) + "-";
+          walk(reader.getGameTree(), empty, prefix, mainLine, executor);
+        }
+      }
+    } finally {
+      executor.shutdown();
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.println(
+        "Rendered "
+            + m_rendered.get()
+            + " diagrams in "
+            + format(seconds)
+            + " s ("
+            + format(m_rendered.get() / seconds)
+            + " diagrams/s)");
+    if (m_failed.get() > 0) throw new Exception(m_failed.get() + " diagrams failed");
+  }
+
+  /**
+   * Submits the positions of the tree below <code>root</code> in preorder, without recursion. Each
+   * position is a new copy, which the rendering task owns.
+   */
+  private void walk(
+      Node root, Position empty, String prefix, boolean mainLine, ThreadPoolExecutor executor) {
+    ArrayDeque<Node> nodes = new ArrayDeque<Node>();
+    ArrayDeque<Position> parents = new ArrayDeque<Position>();
+    nodes.push(root);
+    parents.push(empty);
+    int number = 0;
+    while (!nodes.isEmpty()) {
+      Node node = nodes.pop();
+      Position parent = parents.pop();
+      Position position = new Position(parent);
+      play(node, position);
+      String name = prefix + (mainLine ? node.getDepth() : number);
+      executor.execute(new Task(node, position, name));
+      number++;
+
+      if (!mainLine && node.getNext() != null) {
+        nodes.push(node.getNext());
+        parents.push(parent);
+      }
+      if (node.hasChild()) {
+        nodes.push(node.getChild());
+        parents.push(position);
+      }
+    }
+  }
+
+  /** Plays the move and setup stones of <code>node</code>, as HexGui does. */
+  private static void play(Node node, Position position) {
+    if (node.hasMove()) {
+      HexPoint point = node.getMove().getPoint();
+      if (point == HexPoint.SWAP_PIECES) {
+        if (position.isYBoard()) position.swapColors();
+        else position.swapPieces();
+      } else if (position.isCell(point)) {
+        position.setColor(point, node.getMove().getColor());
+      }
+    }
+    if (node.hasSetup()) {
+      HexColor colors[] = {HexColor.BLACK, HexColor.WHITE, HexColor.EMPTY};
+      for (int i = 0; i < colors.length; i++) {
+        Vector<HexPoint> points = node.getSetup(colors[i]);
+        for (int j = 0; j < points.size(); j++) {
+          if (position.isCell(points.get(j))) position.setColor(points.get(j), colors[i]);
+        }
+      }
+    }
+  }
+
+  /** Renders and writes one position. */
+  private class Task implements Runnable {
+    public Task(Node node, Position position, String name) {
+      m_node = node;
+      m_position = position;
+      m_name = name;
+    }
+
+    public void run() {
+      File file = new File(m_output, m_name + "." + m_format);
+      // A failed diagram must not stop the others, nor the main
+      // thread when it runs a task itself.
+      try {
+        render(file);
+      } catch (IOException e) {
+        m_failed.incrementAndGet();
+        System.err.println("Error writing " + file + ": " + e.getMessage());
+      } catch (RuntimeException e) {
+        m_failed.incrementAndGet();
+        System.err.println("Error rendering " + file + ": " + e);
+      }
+    }
+
+    private void render(File file) throws IOException {
+      BoardRenderer renderer = m_renderer.get();
+      renderer.setPosition(m_position);
+      if (m_node.hasMove()) renderer.markLastPlayed(m_node.getMove().getPoint());
+      if (m_node.hasLabel()) {
+        Vector<String> labels = m_node.getLabels();
+        for (int i = 0; i < labels.size(); i++) {
+          String strs[] = labels.get(i).split(":");
+          if (strs.length != 2) continue;
+          HexPoint point = HexPoint.find(strs[0].trim());
+          if (point != null && m_position.isCell(point)) renderer.setText(point, strs[1].trim());
+        }
+      }
+      if (m_format.equals("svg")) {
+        Writer out =
+            new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+        try {
+          renderer.writeSvg(out);
+        } finally {
+          out.close();
+        }
+      } else {
+        ImageIO.write(renderer.render(), "png", file);
+      }
+      m_rendered.incrementAndGet();
+    }
+
+    private final Node m_node;
+    private final Position m_position;
+    private final String m_name;
+  }
+
+  private static String format(double value) {
+    return String.format(Locale.ENGLISH, "%.1f", value);
+  }
+
+  private final String m_type;
+  private final int m_width;
+  private final int m_height;
+  private final boolean m_positive;
+  private final String m_format;
+  private final File m_output;
+  private final AtomicInteger m_rendered;
+  private final AtomicInteger m_failed;
+  private final ThreadLocal<BoardRenderer> m_renderer;
+}
+
+// ----------------------------------------------------------------------------
@@ -0,0 +1,372 @@
+// ----------------------------------------------------------------------------
+// $Id$
+// ----------------------------------------------------------------------------
+
+package hexgui;
+
+import hexgui.game.GameInfo;
+import hexgui.game.Node;
+import hexgui.gui.Program;
+import hexgui.hex.HexColor;
+import hexgui.hex.HexPoint;
+import hexgui.hex.Move;
+import hexgui.hex.Position;
+import hexgui.hex.WinDetector;
+import hexgui.htp.HtpController;
+import hexgui.htp.HtpError;
+import hexgui.sgf.SgfWriter;
+import hexgui.util.Log;
+import hexgui.util.Options;
+import hexgui.util.StreamCopy;
+import hexgui.util.StreamDiscard;
+import hexgui.version.Version;
+import java.awt.Dimension;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// ----------------------------------------------------------------------------
+
+/**
+ * Plays a match between two HTP programs without the GUI.
+ *
+ * <p>Games are played <code>-threads</code> at a time, each by its own pair of program processes.
+ * The first program plays black in even games and white in odd games. Every finished game is
+ * appended to the <code>-sgf</code> collection file, and the running score is printed with the
+ * Elo difference of the first program and its 95% confidence interval.
+ */
+public final class Match {
+  public static void main(String[] args) throws Exception {
+    try {
+      String options[] = {
+        "black:", "config:", "games:", "help", "sgf:", "size:", "swap", "threads:", "verbose",
+        "version", "white:"
+      };
+      Options opt = Options.parse(args, options);
+      if (opt.contains("help")) {
+        String helpText =
+            "Usage: java -cp hexgui.jar hexgui.Match [options]\n"
+                + "Play games between two Hex programs using the Hex Text Protocol.\n"
+                + "\n"
+                + "-black         First program, playing black in even games\n"
+                + "-config file   Read command line arguments from file\n"
+                + "-games         Number of games (default 100)\n"
+                + "-help          Display this help and exit\n"
+                + "-sgf file      Append finished games to file\n"
+                + "-size          Board size (default 11)\n"
+                + "-swap          Allow the swap-pieces move as second move\n"
+                + "-threads       Number of games played at the same time\n"
+                + "               (default number of processors)\n"
+                + "-verbose       Print the HTP traffic\n"
+                + "-version       Print version and exit\n"
+                + "-white         Second program, playing white in even games\n"
+                + "\n"
+                + "Programs are given by the name of a program defined in\n"
+                + "HexGui, or by a command line.\n";
+        System.out.print(helpText);
+        return;
+      }
+      if (opt.contains("version")) {
+        System.out.println("HexGui " + Version.id + " " + Version.date);
+        return;
+      }
+      opt.checkNoArguments();
+      if (!opt.contains("black") || !opt.contains("white"))
+        throw new Exception("Options -black and -white are required");
+
+      Vector<Program> programs = Program.load();
+      Program first = getProgram(opt.get("black"), programs);
+      Program second = getProgram(opt.get("white"), programs);
+      int games = opt.getInteger("games", 100, 1);
+      int threads = opt.getInteger("threads", Runtime.getRuntime().availableProcessors(), 1);
+      int size = opt.getInteger("size", 11, 1, HexPoint.MAX_WIDTH);
+
+      // The HTP traffic is logged at the debug level, and the
+      // error output of the programs is only shown with -verbose.
+      boolean verbose = opt.contains("verbose");
+      if (verbose) Log.setDefaultLevel(Log.Level.DEBUG);
+      else if (System.getProperty("hexgui.log.level") == null) Log.setDefaultLevel(Log.Level.WARN);
+
+      OutputStream sgf = null;
+      if (opt.contains("sgf")) sgf = new FileOutputStream(opt.get("sgf"), true);
+      Match match = new Match(first, second, games, size, opt.contains("swap"), sgf, verbose);
+      match.run(Math.min(threads, games));
+      if (sgf != null) sgf.close();
+    } catch (Exception e) {
+      System.err.println(e.getMessage());
+      System.exit(1);
+    }
+    System.exit(0);
+  }
+
+  // ------------------------------------------------------------
+
+  private Match(
+      Program first,
+      Program second,
+      int games,
+      int size,
+      boolean swap,
+      OutputStream sgf,
+      boolean verbose) {
+    m_first = first;
+    m_second = second;
+    m_games = games;
+    m_size = size;
+    m_swap = swap;
+    m_sgf = sgf;
+    m_verbose = verbose;
+    m_nextGame = new AtomicInteger();
+  }
+
+  /** Plays all games with <code>threads</code> games at a time, and waits for them. */
+  private void run(int threads) throws InterruptedException {
+    m_start = System.nanoTime();
+    ArrayList<Thread> workers = new ArrayList<Thread>();
+    for (int i = 0; i < threads; i++) {
+      Thread thread = new Thread(new Worker(), "Match game " + i);
+      thread.start();
+      workers.add(thread);
+    }
+    for (int i = 0; i < workers.size(); i++) workers.get(i).join();
+    System.out.println(
+        "Finished " + m_played + " games in " + format((System.nanoTime() - m_start) / 1e9) + " s");
+  }
+
+  /** Plays games on one pair of program processes until all games are started. */
+  private class Worker implements Runnable {
+    public void run() {
+      Engine first = null;
+      Engine second = null;
+      try {
+        first = new Engine(m_first, m_verbose);
+        second = new Engine(m_second, m_verbose);
+        while (true) {
+          int game = m_nextGame.getAndIncrement();
+          if (game >= m_games) break;
+          if (game % 2 == 0) playGame(game, first, second);
+          else playGame(game, second, first);
+        }
+      } catch (IOException e) {
+        System.out.println("Error starting program: " + e.getMessage());
+      } catch (HtpError e) {
+        System.out.println("Error initializing program: " + e.getMessage());
+      } finally {
+        if (first != null) first.quit();
+        if (second != null) second.quit();
+      }
+    }
+  }
+
+  /** Seconds a program is given to exit after quit. */
+  private static final int QUIT_TIMEOUT = 10;
+
+  /** A running program. */
+  private static class Engine implements HtpController.IOInterface, HtpController.GuiFxCallback {
+    public Engine(Program program, boolean verbose) throws IOException, HtpError {
+      m_process = program.start();
+      if (verbose)
+        new Thread(new StreamCopy(false, m_process.getErrorStream(), System.out, false)).start();
+      else new StreamDiscard(m_process.getErrorStream()).start();
+      m_htp =
+          new HtpController(m_process.getInputStream(), m_process.getOutputStream(), this, this);
+      m_name = send("name").trim();
+    }
+
+    /** Sends a command and returns the response; an error response throws an HtpError. */
+    public String send(String cmd) throws HtpError {
+      HtpController.Response response = m_htp.sendCommand(cmd + "\n");
+      if (!response.isSuccess()) throw new HtpError(response.getText().trim());
+      return response.getText();
+    }
+
+    /**
+     * Sends quit and waits for the program to exit. A program that is still running after <code>
+     * QUIT_TIMEOUT</code> seconds is killed.
+     */
+    public void quit() {
+      m_htp.send("quit\n");
+      try {
+        if (!m_process.waitFor(QUIT_TIMEOUT, TimeUnit.SECONDS)) {
+          System.out.println("Killing " + m_name + ", which did not quit");
+          m_process.destroyForcibly();
+        }
+      } catch (InterruptedException e) {
+        m_process.destroyForcibly();
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    public void sentCommand(String str) {}
+
+    public void receivedResponse(String str) {}
+
+    public void receivedError(String str) {}
+
+    public void guifx(String cmd) {}
+
+    public final String m_name;
+    private final Process m_process;
+    private final HtpController m_htp;
+  }
+
+  /** Plays one game and records the result. */
+  private void playGame(int game, Engine black, Engine white) throws HtpError {
+    black.send("boardsize " + m_size + " " + m_size);
+    white.send("boardsize " + m_size + " " + m_size);
+    black.send("clear_board");
+    white.send("clear_board");
+
+    Position position = new Position(Position.HEXBOARD, m_size, m_size);
+    WinDetector detector = new WinDetector(position);
+    Node root = new Node();
+    root.setSgfProperty("PB", black.m_name);
+    root.setSgfProperty("PW", white.m_name);
+    Node node = root;
+    HexColor color = HexColor.BLACK;
+    HexColor winner = HexColor.EMPTY;
+    String reason = "";
+    for (int moves = 0; winner == HexColor.EMPTY; moves++) {
+      Engine player = (color == HexColor.BLACK) ? black : white;
+      Engine opponent = (color == HexColor.BLACK) ? white : black;
+      HexPoint point = null;
+      try {
+        point = parsePoint(player.send("genmove " + color));
+      } catch (HtpError e) {
+        System.out.println("Game " + (game + 1) + ": " + player.m_name + ": " + e.getMessage());
+      }
+
+      if (point == HexPoint.RESIGN) {
+        winner = color.otherColor();
+        reason = "R";
+        break;
+      } else if (point == HexPoint.SWAP_PIECES && m_swap && moves == 1) {
+        position.swapPieces();
+        detector.reset();
+      } else if (point != null
+          && position.isCell(point)
+          && position.getColor(point) == HexColor.EMPTY) {
+        position.setColor(point, color);
+        detector.play(point, color);
+      } else {
+        // Illegal move or program error.
+        winner = color.otherColor();
+        reason = "F";
+        break;
+      }
+      Node child = new Node(new Move(point, color));
+      node.addChild(child);
+      node = child;
+
+      try {
+        opponent.send("play " + color + " " + point);
+      } catch (HtpError e) {
+        System.out.println("Game " + (game + 1) + ": " + opponent.m_name + ": " + e.getMessage());
+        winner = color;
+        reason = "F";
+        break;
+      }
+      winner = detector.getWinner();
+      color = color.otherColor();
+    }
+    root.setSgfProperty("RE", ((winner == HexColor.BLACK) ? "B+" : "W+") + reason);
+    gameFinished(game, root, (winner == HexColor.BLACK) == (game % 2 == 0));
+  }
+
+  /** Returns the point of a genmove response, or null if it is not a point. */
+  private static HexPoint parsePoint(String response) {
+    String name = response.trim().toLowerCase(Locale.ENGLISH);
+    if (!name.matches("[a-s][1-9][0-9]?|resign|swap-pieces")) return null;
+    // Names like "s99" pass the pattern but are not points.
+    return HexPoint.find(name);
+  }
+
+  /** Writes a finished game and prints the score. */
+  private synchronized void gameFinished(int game, Node root, boolean firstWon) {
+    m_played++;
+    if (firstWon) m_firstWins++;
+
+    if (m_sgf != null) {
+      GameInfo info = new GameInfo();
+      info.setBoardSize(new Dimension(m_size, m_size));
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      new SgfWriter(out, root, info);
+      try {
+        m_sgf.write(out.toByteArray());
+        m_sgf.flush();
+      } catch (IOException e) {
+        System.out.println("Error writing game: " + e.getMessage());
+      }
+    }
+
+    double hours = (System.nanoTime() - m_start) / 3.6e12;
+    double score = (double) m_firstWins / m_played;
+    double error = 1.96 * Math.sqrt(score * (1 - score) / m_played);
+    System.out.println(
+        "Game "
+            + (game + 1)
+            + ": "
+            + root.getSgfProperty("PB")
+            + " - "
+            + root.getSgfProperty("PW")
+            + " "
+            + root.getSgfProperty("RE")
+            + "  Score "
+            + m_firstWins
+            + "-"
+            + (m_played - m_firstWins)
+            + " ("
+            + format(100 * score)
+            + "%)  Elo "
+            + format(getElo(score))
+            + " ["
+            + format(getElo(score - error))
+            + ", "
+            + format(getElo(score + error))
+            + "]  "
+            + format(m_played / hours)
+            + " games/h");
+  }
+
+  /**
+   * Returns the Elo difference that gives the expected score <code>score</code>. Scores of 0 and 1
+   * are clamped to half a game from the ends, so that the result stays finite.
+   */
+  private double getElo(double score) {
+    double min = 0.5 / m_played;
+    score = Math.max(min, Math.min(1 - min, score));
+    return -400 * Math.log10(1 / score - 1);
+  }
+
+  private static String format(double value) {
+    return String.format(Locale.ENGLISH, "%.1f", value);
+  }
+
+  /** Returns the program with the given name, or a program running <code>name</code>. */
+  private static Program getProgram(String name, Vector<Program> programs) {
+    Program program = Program.findWithName(name, programs);
+    if (program == null) program = new Program(name, name, "");
+    return program;
+  }
+
+  private final Program m_first;
+  private final Program m_second;
+  private final int m_games;
+  private final int m_size;
+  private final boolean m_swap;
+  private final OutputStream m_sgf;
+  private final boolean m_verbose;
+  private final AtomicInteger m_nextGame;
+  private long m_start;
+
+  private int m_played;
+  private int m_firstWins;
+}
+
+// ----------------------------------------------------------------------------
@@ -0,0 +1,420 @@
+// ----------------------------------------------------------------------------
+// $Id$
+// ----------------------------------------------------------------------------
+
+package hexgui.game;
+
+import hexgui.hex.HexColor;
+import hexgui.hex.HexPoint;
+import hexgui.hex.Move;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Vector;
+
+// ----------------------------------------------------------------------------
+
+/**
+ * Game tree stored in primitive arrays.
+ *
+ * <p>Nodes are identified by <code>int</code> handles; the root is <code>getRoot()</code> and
+ * <code>NONE</code> stands for a missing node. Each node takes four <code>int</code>s: its parent,
+ * first child, next sibling, its move packed together with the "recent" flag, and its index in a
+ * side table of properties, setup stones and labels that only the few nodes that have any use. A
+ * tree of plain moves therefore takes 20 bytes per node instead of the several hundred bytes of a
+ * <code>Node</code>.
+ *
+ * <p>The navigation methods follow those of <code>Node</code>, taking a handle as their first
+ * argument. <code>getNode()</code> returns a <code>Node</code> view of a subtree whose children
+ * are created on demand, which is how HexGui works with the games it loads.
+ *
+ * <p>The tree can also be built lazily: a node marked with <code>setUnexpanded()</code> gets its
+ * children from the <code>Expander</code> of the tree the first time they are asked for.
+ * <code>SgfReader</code> uses this to parse the children of a node from the file only when they
+ * are reached. The tree is not thread-safe.
+ */
+public final class CompactGameTree {
+  /** Handle of a node that does not exist. */
+  public static final int NONE = -1;
+
+  /** Adds the children of nodes that were left unexpanded when the tree was built. */
+  public interface Expander {
+    /**
+     * Adds the children of <code>node</code> with <code>addChild()</code>. Called at most once per
+     * node.
+     */
+    void expand(CompactGameTree tree, int node);
+  }
+
+  private static final int POINT_MASK = 0x1ff;
+  private static final int BLACK_BIT = 1 << 9;
+  private static final int WHITE_BIT = 1 << 10;
+  private static final int RECENT_BIT = 1 << 11;
+  private static final int UNEXPANDED_BIT = 1 << 12;
+
+  /** Creates a tree with only an empty root node. */
+  public CompactGameTree() {
+    m_parent = new int[1024];
+    m_child = new int[1024];
+    m_next = new int[1024];
+    m_move = new int[1024];
+    m_extra = new int[1024];
+    m_extras = new Vector<Node>();
+    newNode(NONE);
+  }
+
+  public int getRoot() {
+    return 0;
+  }
+
+  /** Returns the number of nodes in the tree. */
+  public int size() {
+    return m_size;
+  }
+
+  /**
+   * Adds a new empty node at the end of the list of children of <code>parent</code>.
+   *
+   * @return handle of the new node
+   */
+  public int addChild(int parent) {
+    expand(parent);
+    int node = newNode(parent);
+    int cur = m_child[parent];
+    if (parent == m_lastParent && m_lastChild != NONE) cur = m_lastChild;
+    if (cur == NONE) {
+      m_child[parent] = node;
+    } else {
+      while (m_next[cur] != NONE) cur = m_next[cur];
+      m_next[cur] = node;
+    }
+    m_lastParent = parent;
+    m_lastChild = node;
+    return node;
+  }
+
+  public int getParent(int node) {
+    return m_parent[node];
+  }
+
+  /** Returns the first child, or <code>NONE</code> if no children. */
+  public int getChild(int node) {
+    expand(node);
+    return m_child[node];
+  }
+
+  /** Returns the nth child, or <code>NONE</code> if that child does not exist. */
+  public int getChild(int node, int n) {
+    expand(node);
+    int cur = m_child[node];
+    for (int i = 0; cur != NONE && i < n; i++) cur = m_next[cur];
+    return cur;
+  }
+
+  public int getNext(int node) {
+    return m_next[node];
+  }
+
+  /** Returns the previous sibling. Siblings are singly linked, so this walks the parent's list. */
+  public int getPrev(int node) {
+    int parent = m_parent[node];
+    if (parent == NONE) return NONE;
+    int cur = m_child[parent];
+    if (cur == node) return NONE;
+    while (m_next[cur] != node) cur = m_next[cur];
+    return cur;
+  }
+
+  /** Returns true if the node has children. This does not expand the node. */
+  public boolean hasChild(int node) {
+    return m_child[node] != NONE || !isExpanded(node);
+  }
+
+  public int numChildren(int node) {
+    expand(node);
+    int num = 0;
+    for (int cur = m_child[node]; cur != NONE; cur = m_next[cur]) num++;
+    return num;
+  }
+
+  public int getDepth(int node) {
+    int depth = 0;
+    for (int cur = m_parent[node]; cur != NONE; cur = m_parent[cur]) depth++;
+    return depth;
+  }
+
+  /** Mark the node as the most recently used among its siblings. This also unmarks the siblings. */
+  public void markRecent(int node) {
+    int parent = m_parent[node];
+    if (parent != NONE) {
+      for (int cur = m_child[parent]; cur != NONE; cur = m_next[cur]) m_move[cur] &= ~RECENT_BIT;
+    }
+    m_move[node] |= RECENT_BIT;
+  }
+
+  public boolean isRecent(int node) {
+    return (m_move[node] & RECENT_BIT) != 0;
+  }
+
+  /** Returns the most recent child, or first child if no recent one, or <code>NONE</code>. */
+  public int getRecentChild(int node) {
+    expand(node);
+    for (int cur = m_child[node]; cur != NONE; cur = m_next[cur]) {
+      if (isRecent(cur)) return cur;
+    }
+    return m_child[node];
+  }
+
+  public void setMove(int node, Move move) {
+    int packed = m_move[node] & (RECENT_BIT | UNEXPANDED_BIT);
+    if (move != null) {
+      packed |= move.getPoint().getIndex();
+      packed |= (move.getColor() == HexColor.WHITE) ? WHITE_BIT : BLACK_BIT;
+    }
+    m_move[node] = packed;
+  }
+
+  public boolean hasMove(int node) {
+    return (m_move[node] & (BLACK_BIT | WHITE_BIT)) != 0;
+  }
+
+  /** Returns the move of the node, or <code>null</code> if it has none. */
+  public Move getMove(int node) {
+    int packed = m_move[node];
+    if ((packed & (BLACK_BIT | WHITE_BIT)) == 0) return null;
+    HexColor color = ((packed & WHITE_BIT) != 0) ? HexColor.WHITE : HexColor.BLACK;
+    return new Move(HexPoint.get(packed & POINT_MASK), color);
+  }
+
+  // ----------------------------------------------------------------------
+
+  /** Sets the expander that adds the children of unexpanded nodes. */
+  public void setExpander(Expander expander) {
+    m_expander = expander;
+  }
+
+  /**
+   * Marks a node that has no children yet as having children that the expander adds when they are
+   * first needed.
+   */
+  public void setUnexpanded(int node) {
+    assert (m_child[node] == NONE);
+    m_move[node] |= UNEXPANDED_BIT;
+  }
+
+  /** Returns true if the children of the node have been added. */
+  public boolean isExpanded(int node) {
+    return (m_move[node] & UNEXPANDED_BIT) == 0;
+  }
+
+  /** Expands all nodes that have not been expanded. */
+  public void expandAll() {
+    // Expanding a node appends its children, so this also reaches them.
+    for (int node = 0; node < m_size; node++) expand(node);
+  }
+
+  // ----------------------------------------------------------------------
+
+  public void setSgfProperty(int node, String key, String value) {
+    getExtra(node).setSgfProperty(key, value);
+  }
+
+  /**
+   * Returns the value of a property.
+   *
+   * @return value of <code>key</code> or <code>null</code> if key is not in the property list.
+   */
+  public String getSgfProperty(int node, String key) {
+    Node extra = findExtra(node);
+    if (extra == null) return null;
+    return extra.getSgfProperty(key);
+  }
+
+  /** Returns the properties of the node. The returned map must not be modified. */
+  public Map<String, String> getProperties(int node) {
+    Node extra = findExtra(node);
+    if (extra == null) return new TreeMap<String, String>();
+    return extra.getProperties();
+  }
+
+  public String getComment(int node) {
+    return getSgfProperty(node, "C");
+  }
+
+  public void addSetup(int node, HexColor color, HexPoint point) {
+    getExtra(node).addSetup(color, point);
+  }
+
+  /** Returns the set of setup stones of color. */
+  public Vector<HexPoint> getSetup(int node, HexColor color) {
+    Node extra = findExtra(node);
+    if (extra == null) return new Vector<HexPoint>();
+    return extra.getSetup(color);
+  }
+
+  public boolean hasSetup(int node) {
+    Node extra = findExtra(node);
+    return extra != null && extra.hasSetup();
+  }
+
+  public void addLabel(int node, String str) {
+    getExtra(node).addLabel(str);
+  }
+
+  public Vector<String> getLabels(int node) {
+    Node extra = findExtra(node);
+    if (extra == null) return new Vector<String>();
+    return extra.getLabels();
+  }
+
+  /**
+   * Sets the move of <code>node</code> from <code>contents</code> and adds its properties, setup
+   * stones and labels. The tree may keep <code>contents</code> itself as the side table entry of
+   * the node, so the caller must not use it any more unless false is returned, which means that
+   * only the move was taken from it.
+   */
+  public boolean addContents(int node, Node contents) {
+    if (contents.hasMove()) setMove(node, contents.getMove());
+    if (contents.getProperties().isEmpty() && !contents.hasSetup() && !contents.hasLabel()) {
+      return false;
+    }
+
+    if (m_extra[node] == NONE) {
+      contents.setMove(null);
+      m_extra[node] = m_extras.size();
+      m_extras.add(contents);
+      return true;
+    }
+    Node extra = m_extras.get(m_extra[node]);
+    copyContents(contents, extra);
+    return true;
+  }
+
+  // ----------------------------------------------------------------------
+
+  /**
+   * Returns a <code>Node</code> view of the subtree of <code>node</code>. The children of the
+   * returned node are created from this tree when they are first needed, and only the nodes with
+   * properties, setup stones or labels get containers for them, so a view of a line of plain moves
+   * takes one small object per visited node. Changes to the view are not written back to this
+   * tree. The view starts out unmodified.
+   */
+  public Node getNode(int node) {
+    Node view = new Node(getMove(node));
+    Node extra = findExtra(node);
+    if (extra != null) copyContents(extra, view);
+    view.setRecent(isRecent(node));
+    view.markUnmodified();
+    if (hasChild(node)) view.setLoader(new ChildLoader(node));
+    return view;
+  }
+
+  /** Creates the children of a view from the tree. */
+  private final class ChildLoader implements Node.Loader {
+    public ChildLoader(int node) {
+      m_node = node;
+    }
+
+    public void load(Node view) {
+      expand(m_node);
+      // The children are linked directly; addChild() would walk the
+      // list of siblings for each one.
+      Node last = null;
+      for (int cur = m_child[m_node]; cur != NONE; cur = m_next[cur]) {
+        Node child = getNode(cur);
+        child.setParent(view);
+        if (last == null) {
+          view.setFirstChild(child);
+        } else {
+          child.setPrev(last);
+          last.setNext(child);
+        }
+        last = child;
+      }
+    }
+
+    private final int m_node;
+  }
+
+  // ----------------------------------------------------------------------
+
+  private void expand(int node) {
+    if ((m_move[node] & UNEXPANDED_BIT) != 0) {
+      m_move[node] &= ~UNEXPANDED_BIT;
+      m_expander.expand(this, node);
+    }
+  }
+
+  private int newNode(int parent) {
+    if (m_size == m_parent.length) {
+      int capacity = 2 * m_size;
+      m_parent = Arrays.copyOf(m_parent, capacity);
+      m_child = Arrays.copyOf(m_child, capacity);
+      m_next = Arrays.copyOf(m_next, capacity);
+      m_move = Arrays.copyOf(m_move, capacity);
+      m_extra = Arrays.copyOf(m_extra, capacity);
+    }
+    int node = m_size++;
+    m_parent[node] = parent;
+    m_child[node] = NONE;
+    m_next[node] = NONE;
+    m_move[node] = 0;
+    m_extra[node] = NONE;
+    return node;
+  }
+
+  /** Returns the side table entry of the node, or <code>null</code> if it has none. */
+  private Node findExtra(int node) {
+    int index = m_extra[node];
+    return (index == NONE) ? null : m_extras.get(index);
+  }
+
+  /** Returns the side table entry of the node, creating it if it has none. */
+  private Node getExtra(int node) {
+    if (m_extra[node] == NONE) {
+      m_extra[node] = m_extras.size();
+      m_extras.add(new Node());
+    }
+    return m_extras.get(m_extra[node]);
+  }
+
+  private static void copyContents(Node from, Node to) {
+    Iterator<Map.Entry<String, String>> it = from.getProperties().entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<String, String> e = it.next();
+      to.setSgfProperty(e.getKey(), e.getValue());
+    }
+    HexColor colors[] = {HexColor.BLACK, HexColor.WHITE, HexColor.EMPTY};
+    for (int i = 0; i < colors.length; i++) {
+      Vector<HexPoint> setup = from.getSetup(colors[i]);
+      for (int j = 0; j < setup.size(); j++) to.addSetup(colors[i], setup.get(j));
+    }
+    Vector<String> labels = from.getLabels();
+    for (int i = 0; i < labels.size(); i++) to.addLabel(labels.get(i));
+  }
+
+  private int m_parent[];
+  private int m_child[];
+  private int m_next[];
+
+  /** Point index, color, recent flag and unexpanded flag of each node; see the *_BIT constants. */
+  private int m_move[];
+
+  private int m_size;
+
+  private Expander m_expander;
+
+  /** Index of each node in m_extras, or NONE if it has no properties, setup stones or labels. */
+  private int m_extra[];
+
+  /** Side table of properties, setup stones and labels, stored in otherwise unused nodes. */
+  private final Vector<Node> m_extras;
+
+  /** Last child added by addChild(), to append to long lists of children quickly. */
+  private int m_lastParent = NONE;
+
+  private int m_lastChild = NONE;
+}
+
+// ----------------------------------------------------------------------------
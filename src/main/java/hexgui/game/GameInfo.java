@@ -8,12 +8,16 @@ import java.awt.Dimension;
 
 // ----------------------------------------------------------------------------
 
-/** Properties of a game. Holds properties that appear in a SGF root node. */
+/**
+ * Properties of a game. Holds properties that appear in a SGF root node. Changes are tracked like
+ * those of <code>Node</code>.
+ */
 public class GameInfo {
 
   public GameInfo() {}
 
   public void setBoardSize(Dimension dim) {
+    if (dim == null ? m_boardsize != null : !dim.equals(m_boardsize)) m_modified = true;
     m_boardsize = dim;
   }
 
@@ -21,5 +25,15 @@ public class GameInfo {
     return m_boardsize;
   }
 
+  /** Returns true if a property has changed since <code>markUnmodified()</code>. */
+  public boolean isModified() {
+    return m_modified;
+  }
+
+  public void markUnmodified() {
+    m_modified = false;
+  }
+
   private Dimension m_boardsize;
+  private boolean m_modified;
 }
@@ -7,15 +7,44 @@ package hexgui.game;
 import hexgui.hex.HexColor;
 import hexgui.hex.HexPoint;
 import hexgui.hex.Move;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Objects;
 import java.util.TreeMap;
 import java.util.Vector;
 
 // ----------------------------------------------------------------------------
 
-/** Node in a game tree. Stores moves and other properties. */
+/**
+ * Node in a game tree. Stores moves and other properties.
+ *
+ * <p>The children of a node can be created lazily: a node with a <code>Loader</code> creates its
+ * children the first time they are asked for.
+ *
+ * <p>Changes to the SGF contents of a node (its move, properties, setup stones, labels and
+ * children) mark it and its ancestors as modified, so that <code>isModified()</code> on the root
+ * tells in constant time whether the tree has changed since <code>markUnmodified()</code>. The
+ * marks stop at the first ancestor that is already modified, so a change costs constant time
+ * amortized over the changes since the last <code>markUnmodified()</code>. New nodes are not
+ * modified, and creating the children of a node with its loader is not a change.
+ */
 public class Node {
+  /** Creates the children of a node on demand. */
+  public interface Loader {
+    /**
+     * Adds the children of <code>node</code> with <code>addChild()</code>. Called at most once per
+     * node.
+     */
+    void load(Node node);
+  }
+
+  /** Is told when a loader has created the children of a node. */
+  public interface LoadListener {
+    /** Called after the children of <code>node</code> have been created by its loader. */
+    void loaded(Node node);
+  }
+
   /** Initializes an empty node with a null move. */
   public Node() {
     this(null);
@@ -27,31 +56,22 @@ public class Node {
    * @param move move to initialize the node with.
    */
   public Node(Move move) {
-    // Properties. This can include unstructured properties found
-    // in SGF files (i.e., properties that HexGUI doesn't know
-    // about), as well as structured properties such as C
-    // (comment), PL (player to move), and maybe
-    // others. Properties that can take multiple values are not
-    // stored here; e.g., LB is stored in m_label.
-    m_property = new TreeMap<String, String>();
-
-    // For setup moves.
-    m_setup = new TreeMap<HexPoint, HexColor>();
-
-    // A list of cell:label pairs can be attached to a node. This
-    // corresponds to the SGF LB property.
-    m_label = new Vector<String>();
+    // The properties, setup stones and labels are created when the
+    // first one is added, since most nodes only have a move.
 
     // When navigating the tree, the "recent" child of each parent
     // is the one that the "forward" button will navigate to.
     m_recent = false;
 
     // This node's move.
-    setMove(move);
+    m_move = move;
   }
 
   public void setMove(Move move) {
-    m_move = move;
+    if (move != m_move) {
+      m_move = move;
+      changed();
+    }
   }
 
   public Move getMove() {
@@ -64,6 +84,7 @@ public class Node {
 
   public void setParent(Node parent) {
     m_parent = parent;
+    if (m_modified && parent != null) parent.changed();
   }
 
   public Node getParent() {
@@ -86,9 +107,104 @@ public class Node {
     return m_next;
   }
 
+  /**
+   * Sets the loader that creates the children of this node when they are first needed. The node
+   * must not have any children yet, and the loader should add at least one, since <code>hasChild()
+   * </code> returns true until it has run.
+   */
+  public void setLoader(Loader loader) {
+    assert (m_child == null);
+    m_loader = loader;
+  }
+
+  /** Returns true if the children of this node have been created. */
+  public boolean isLoaded() {
+    return m_loader == null;
+  }
+
+  /**
+   * Sets the listener that is told when the loader of this node has created its children. The
+   * listener is dropped after that; it must set itself on the new children it wants to hear about.
+   */
+  public void setLoadListener(LoadListener listener) {
+    m_loadListener = listener;
+  }
+
+  /**
+   * Returns the first child without creating the children of this node, or <code>null</code> if
+   * there is none or they have not been created yet.
+   */
+  public Node getLoadedChild() {
+    return m_child;
+  }
+
+  /** Creates the children of all nodes in the subtree of this node that have not been created. */
+  public void loadAll() {
+    Vector<Node> stack = new Vector<Node>();
+    stack.add(this);
+    while (!stack.isEmpty()) {
+      Node node = stack.remove(stack.size() - 1);
+      node.load();
+      for (Node child = node.m_child; child != null; child = child.getNext()) stack.add(child);
+    }
+  }
+
+  /** Creates the children of this node if they have not been created yet. */
+  private void load() {
+    if (m_loader != null) {
+      Loader loader = m_loader;
+      m_loader = null;
+      m_loading = true;
+      try {
+        loader.load(this);
+      } finally {
+        m_loading = false;
+      }
+      for (Node child = m_child; child != null; child = child.getNext()) child.markUnmodified();
+      LoadListener listener = m_loadListener;
+      m_loadListener = null;
+      if (listener != null) listener.loaded(this);
+    }
+  }
+
   /** Sets the first child of this node. This does not update the sibling pointers of the child. */
   public void setFirstChild(Node child) {
+    load();
     m_child = child;
+    changed();
+  }
+
+  /**
+   * Returns true if this node or a node in its subtree has changed since <code>markUnmodified()
+   * </code> was last called on it or one of its ancestors.
+   */
+  public boolean isModified() {
+    return m_modified;
+  }
+
+  /** Marks this node and its subtree as unmodified. This does not create children. */
+  public void markUnmodified() {
+    if (!m_modified) return;
+    Vector<Node> stack = new Vector<Node>();
+    stack.add(this);
+    while (!stack.isEmpty()) {
+      Node node = stack.remove(stack.size() - 1);
+      node.m_modified = false;
+      for (Node child = node.m_child; child != null; child = child.m_next) {
+        if (child.m_modified) stack.add(child);
+      }
+    }
+  }
+
+  /**
+   * Marks this node and its ancestors as modified, up to the first one that already is. An
+   * ancestor that is creating its children is not marked, nor are its ancestors.
+   */
+  private void changed() {
+    for (Node node = this; node != null && !node.m_modified; node = node.m_parent) {
+      if (node.m_loading) return;
+      node.m_modified = true;
+    }
   }
 
   /** Removes this node from the gametree. */
@@ -103,6 +219,7 @@ public class Node {
       }
     } else {
       prev.setNext(next);
+      if (getParent() != null) getParent().changed();
     }
 
     if (next != null) {
@@ -113,7 +230,7 @@ public class Node {
   /** Moves this node to the start of its sibling list. */
   public void moveToFirst() {
     Node parent = getParent();
-    if (parent == null) {
+    if (parent == null || getPrev() == null) {
       return;
     }
     this.removeSelf();
@@ -135,6 +252,7 @@ public class Node {
    * @param child Node to be added to start of list.
    */
   public void addFirstChild(Node child) {
+    load();
     Node oldfirst = m_child;
     m_child = child;
     child.setParent(this);
@@ -143,6 +261,7 @@ public class Node {
     if (oldfirst != null) {
       oldfirst.setPrev(child);
     }
+    changed();
   }
 
   /**
@@ -151,6 +270,7 @@ public class Node {
    * @param child Node to be added to end of list.
    */
   public void addChild(Node child) {
+    load();
     child.setNext(null);
     child.setParent(this);
 
@@ -163,14 +283,17 @@ public class Node {
       cur.setNext(child);
       child.setPrev(cur);
     }
+    changed();
   }
 
+  /** Returns true if this node has children. This does not create children that are not loaded. */
   public boolean hasChild() {
-    return m_child != null;
+    return m_child != null || m_loader != null;
   }
 
   /** Returns the number of children of this node. */
   public int numChildren() {
+    load();
     int num = 0;
     Node cur = m_child;
     while (cur != null) {
@@ -187,6 +310,7 @@ public class Node {
    * @return The nth child or <code>null</code> that child does not exist.
    */
   public Node getChild(int n) {
+    load();
     Node cur = m_child;
     for (int i = 0; cur != null; i++) {
       if (i == n) return cur;
@@ -239,6 +363,7 @@ public class Node {
    *     children.
    */
   public Node getRecentChild() {
+    load();
     Node cur = m_child;
     if (cur == null) {
       return null;
@@ -277,6 +402,19 @@ public class Node {
     return depth;
   }
 
+  /**
+   * Sets the Zobrist hash of the position after this node, including the player to move. See
+   * <code>TranspositionIndex</code>.
+   */
+  public void setHash(long hash) {
+    m_hash = hash;
+  }
+
+  /** Returns the hash set with <code>setHash()</code>, or 0 if none was set. */
+  public long getHash() {
+    return m_hash;
+  }
+
   /** Determines if the current node is a swap node */
   public boolean isSwap() {
     if (this.hasMove()) {
@@ -297,18 +435,21 @@ public class Node {
    * @param value value of the property
    */
   public void setSgfProperty(String key, String value) {
+    if (m_property == null) m_property = new TreeMap<String, String>();
+    if (m_property.containsKey(key) && Objects.equals(value, m_property.get(key))) return;
     m_property.put(key, value);
+    changed();
   }
 
   public void unsetSgfProperty(String key) {
-    m_property.remove(key);
+    if (m_property != null && m_property.remove(key) != null) changed();
   }
 
   /** Append the given string to the SGF property */
   public void appendSgfProperty(String key, String toadd) {
-    String old = m_property.get(key);
+    String old = getSgfProperty(key);
     if (old == null) old = "";
-    m_property.put(key, old + toadd);
+    setSgfProperty(key, old + toadd);
   }
 
   /**
@@ -318,15 +459,17 @@ public class Node {
    * @return value of <code>key</code> or <code>null</code> if key is not in the property list.
    */
   public String getSgfProperty(String key) {
+    if (m_property == null) return null;
     return m_property.get(key);
   }
 
   /**
-   * Returns a map of the current set of properties.
+   * Returns a map of the current set of properties. The returned map must not be modified.
    *
    * @return Map containing the properties
    */
   public Map<String, String> getProperties() {
+    if (m_property == null) return Collections.emptyMap();
     return m_property;
   }
 
@@ -349,16 +492,18 @@ public class Node {
 
   /** Adds a stone of specified color to the setup list and the sgf property string. */
   public void addSetup(HexColor color, HexPoint point) {
-    m_setup.put(point, color);
+    if (m_setup == null) m_setup = new TreeMap<HexPoint, HexColor>();
+    if (m_setup.put(point, color) != color) changed();
   }
 
   public void removeSetup(HexColor color, HexPoint point) {
-    m_setup.remove(point);
+    if (m_setup != null && m_setup.remove(point) != null) changed();
   }
 
   /** Returns the set of setup stones of color. */
   public Vector<HexPoint> getSetup(HexColor color) {
     Vector<HexPoint> points = new Vector<HexPoint>();
+    if (m_setup == null) return points;
     HexPoint key;
     Iterator i = m_setup.keySet().iterator();
 
@@ -374,7 +519,7 @@ public class Node {
 
   /** Determine whether the current node has any setup moves */
   public boolean hasSetup() {
-    return !m_setup.isEmpty();
+    return m_setup != null && !m_setup.isEmpty();
   }
 
   /**
@@ -393,15 +538,18 @@ public class Node {
   }
 
   public boolean hasLabel() {
-    return !m_label.isEmpty();
+    return m_label != null && !m_label.isEmpty();
   }
 
   public Vector<String> getLabels() {
+    if (m_label == null) return new Vector<String>();
     return m_label;
   }
 
   public void addLabel(String str) {
+    if (m_label == null) m_label = new Vector<String>();
     m_label.add(str);
+    changed();
   }
 
   /**
@@ -481,6 +629,7 @@ public class Node {
     System.out.println("label: " + m_label);
     System.out.println("property: " + m_property);
     System.out.println("recent: " + m_recent);
+    load();
     Node cur = m_child;
     while (cur != null) {
       cur.printDebug();
@@ -491,15 +640,31 @@ public class Node {
 
   // ----------------------------------------------------------------------
 
+  /**
+   * Properties. This can include unstructured properties found in SGF files (i.e., properties that
+   * HexGUI doesn't know about), as well as structured properties such as C (comment), PL (player to
+   * move), and maybe others. Properties that can take multiple values are not stored here; e.g., LB
+   * is stored in m_label. Null if there are none yet.
+   */
   private TreeMap<String, String> m_property;
 
+  /** For setup moves. Null if there are none yet. */
   private Map<HexPoint, HexColor> m_setup;
 
+  /**
+   * A list of cell:label pairs can be attached to a node. This corresponds to the SGF LB property.
+   * Null if there are none yet.
+   */
   private Vector<String> m_label;
 
   private Move m_move;
   private Node m_parent, m_prev, m_next, m_child;
   private boolean m_recent;
+  private long m_hash;
+  private Loader m_loader;
+  private LoadListener m_loadListener;
+  private boolean m_modified;
+  private boolean m_loading;
 }
 
 // ----------------------------------------------------------------------------
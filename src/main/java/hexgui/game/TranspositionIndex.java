@@ -0,0 +1,320 @@
+// ----------------------------------------------------------------------------
+// $Id$
+// ----------------------------------------------------------------------------
+
+package hexgui.game;
+
+import hexgui.hex.HexColor;
+import hexgui.hex.HexPoint;
+import hexgui.hex.Move;
+import hexgui.hex.Position;
+import hexgui.hex.Zobrist;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+// ----------------------------------------------------------------------------
+
+/**
+ * Index from positions to the nodes of a game tree they occur in.
+ *
+ * <p>Each node is keyed by the Zobrist hash of the position after the node, including the player
+ * to move, and the key is stored in the node with <code>Node.setHash()</code>. Nodes that reach
+ * the same position through different move orders share a key, so transpositions can be found in
+ * constant time.
+ *
+ * <p>Two variations that reach the same position can be merged with <code>merge()</code>.
+ *
+ * <p>Only the nodes whose parents have created their children are indexed, so that building the
+ * index does not load a lazily read tree. The index is the load listener of the indexed nodes
+ * whose children have not been created, and adds the children when they are.
+ */
+public final class TranspositionIndex implements Node.LoadListener {
+  /**
+   * Builds the index for the loaded nodes of the tree rooted at <code>root</code>.
+   *
+   * @param root root of the game tree
+   * @param board a position with the type and size of the board; its stones are ignored
+   */
+  public TranspositionIndex(Node root, Position board) {
+    m_root = root;
+    m_board = new Position(board);
+    m_board.clear();
+    m_index = new HashMap<Long, List<Node>>();
+    Position position = new Position(m_board);
+    play(position, root);
+    addSubtree(root, position);
+  }
+
+  /**
+   * Returns true if this index was built for the tree rooted at <code>root</code> on a board of
+   * the same type and size as <code>board</code>.
+   */
+  public boolean isFor(Node root, Position board) {
+    return root == m_root
+        && board.isHexBoard() == m_board.isHexBoard()
+        && board.getWidth() == m_board.getWidth()
+        && board.getHeight() == m_board.getHeight();
+  }
+
+  /** Returns the key of a position with the given player to move. */
+  public static long getKey(Position position, HexColor toMove) {
+    return position.getHash() ^ Zobrist.toMove(toMove);
+  }
+
+  /** Applies the move and setup stones of <code>node</code> to <code>position</code>. */
+  public static void play(Position position, Node node) {
+    if (node.hasMove()) play(position, node.getMove());
+    if (node.hasSetup()) {
+      Vector<HexPoint> black = node.getSetup(HexColor.BLACK);
+      for (int i = 0; i < black.size(); i++) position.setColor(black.get(i), HexColor.BLACK);
+      Vector<HexPoint> white = node.getSetup(HexColor.WHITE);
+      for (int i = 0; i < white.size(); i++) position.setColor(white.get(i), HexColor.WHITE);
+      Vector<HexPoint> empty = node.getSetup(HexColor.EMPTY);
+      for (int i = 0; i < empty.size(); i++) position.setColor(empty.get(i), HexColor.EMPTY);
+    }
+  }
+
+  /** Applies <code>move</code> to <code>position</code>. */
+  public static void play(Position position, Move move) {
+    HexPoint point = move.getPoint();
+    if (point == HexPoint.SWAP_PIECES) {
+      if (position.isYBoard()) position.swapColors();
+      else position.swapPieces();
+    } else if (position.isCell(point)) {
+      position.setColor(point, move.getColor());
+    }
+  }
+
+  /** Sets the key of <code>node</code> and adds it to the index. */
+  public void add(Node node, long key) {
+    node.setHash(key);
+    if (!node.isLoaded()) node.setLoadListener(this);
+    List<Node> list = m_index.get(key);
+    if (list == null) {
+      list = new ArrayList<Node>(1);
+      m_index.put(key, list);
+    }
+    list.add(node);
+  }
+
+  /**
+   * Recomputes the keys of <code>node</code> and all nodes below it, for instance after the setup
+   * stones of <code>node</code> have changed.
+   *
+   * @param position the position after <code>node</code>
+   */
+  public void update(Node node, Position position) {
+    remove(node);
+    m_lastLoaded = null;
+    addSubtree(node, position);
+  }
+
+  /** Removes <code>node</code> and all nodes below it from the index. */
+  public void remove(Node node) {
+    m_lastLoaded = null;
+    Vector<Node> nodes = new Vector<Node>();
+    nodes.add(node);
+    while (!nodes.isEmpty()) {
+      Node cur = nodes.remove(nodes.size() - 1);
+      List<Node> list = m_index.get(cur.getHash());
+      if (list != null) {
+        list.remove(cur);
+        if (list.isEmpty()) m_index.remove(cur.getHash());
+      }
+      if (!cur.isLoaded()) cur.setLoadListener(null);
+      for (Node child = cur.getLoadedChild(); child != null; child = child.getNext())
+        nodes.add(child);
+    }
+  }
+
+  /** Adds the children of <code>node</code>, which have just been created by its loader. */
+  public void loaded(Node node) {
+    // Loading usually follows a line of play, so the position after the
+    // previously loaded node is kept to avoid replaying the whole line.
+    Position position;
+    if (m_lastLoaded != null && node.getParent() == m_lastLoaded) {
+      position = m_lastPosition;
+      play(position, node);
+    } else {
+      Vector<Node> path = new Vector<Node>();
+      for (Node cur = node; cur != null; cur = cur.getParent()) path.add(cur);
+      position = new Position(m_board);
+      for (int i = path.size() - 1; i >= 0; i--) play(position, path.get(i));
+    }
+    m_lastLoaded = node;
+    m_lastPosition = position;
+    for (Node child = node.getLoadedChild(); child != null; child = child.getNext()) {
+      Position after = new Position(position);
+      play(after, child);
+      addSubtree(child, after);
+    }
+  }
+
+  /** Returns the nodes with the given key. The returned list must not be modified. */
+  public List<Node> getNodes(long key) {
+    List<Node> list = m_index.get(key);
+    if (list == null) return new ArrayList<Node>();
+    return list;
+  }
+
+  /**
+   * Returns the child of <code>parent</code> with the given key and move, or <code>null</code> if
+   * there is none. Creates the children of <code>parent</code> if they have not been created yet,
+   * so that they are in the index.
+   */
+  public Node getChild(Node parent, long key, Move move) {
+    if (!parent.isLoaded()) parent.getChild();
+    List<Node> list = m_index.get(key);
+    if (list == null) return null;
+    for (int i = 0; i < list.size(); i++) {
+      Node node = list.get(i);
+      if (node.getParent() == parent && node.hasMove() && move.equals(node.getMove())) return node;
+    }
+    return null;
+  }
+
+  /** Returns the number of other nodes with the same position as <code>node</code>. */
+  public int numTranspositions(Node node) {
+    List<Node> list = m_index.get(node.getHash());
+    if (list == null) return 0;
+    return list.size() - 1;
+  }
+
+  /**
+   * Returns the next node after <code>node</code> with the same position, wrapping around, or
+   * <code>null</code> if the position occurs nowhere else in the tree.
+   */
+  public Node getNext(Node node) {
+    List<Node> list = m_index.get(node.getHash());
+    if (list == null || list.size() < 2) return null;
+    int i = list.indexOf(node);
+    return list.get((i + 1) % list.size());
+  }
+
+  /**
+   * Merges the variations below <code>from</code> into those below <code>into</code>, which must
+   * have the same key. The children of <code>from</code> are moved to <code>into</code>; a child
+   * whose move <code>into</code> already has a child for is merged into that child in the same way,
+   * and its properties and labels are added to it. <code>from</code> is left without children.
+   * Children with setup stones are always moved, never merged.
+   *
+   * @return false if nothing was merged because <code>into</code> is <code>from</code> or below it
+   */
+  public boolean merge(Node from, Node into) {
+    assert (from.getHash() == into.getHash());
+    for (Node cur = into; cur != null; cur = cur.getParent()) {
+      if (cur == from) return false;
+    }
+    m_lastLoaded = null;
+    // Pairs of nodes to merge, on an explicit stack as in addSubtree().
+    Vector<Node> froms = new Vector<Node>();
+    Vector<Node> intos = new Vector<Node>();
+    froms.add(from);
+    intos.add(into);
+    while (!froms.isEmpty()) {
+      Node f = froms.remove(froms.size() - 1);
+      Node i = intos.remove(intos.size() - 1);
+      // Create the children while the nodes are still indexed, so that
+      // the children are indexed too.
+      f.getChild();
+      i.getChild();
+      if (f != from) removeNode(f);
+      Node child = f.getChild();
+      while (child != null) {
+        Node next = child.getNext();
+        child.removeSelf();
+        Node same = findSameChild(i, child);
+        if (same == null) {
+          i.addChild(child);
+        } else {
+          mergeContents(child, same);
+          froms.add(child);
+          intos.add(same);
+        }
+        child = next;
+      }
+    }
+    return true;
+  }
+
+  /** Adds <code>node</code>, whose position is <code>position</code>, and all nodes below it. */
+  private void addSubtree(Node node, Position position) {
+    add(node, getKey(position, node.getPlayerToMove()));
+    // Walk the tree with an explicit stack, since trees can be much
+    // deeper than the Java call stack allows.
+    Vector<Node> nodes = new Vector<Node>();
+    Vector<Position> positions = new Vector<Position>();
+    for (Node child = node.getLoadedChild(); child != null; child = child.getNext()) {
+      nodes.add(child);
+      positions.add(position);
+    }
+    while (!nodes.isEmpty()) {
+      Node cur = nodes.remove(nodes.size() - 1);
+      Position after = new Position(positions.remove(positions.size() - 1));
+      play(after, cur);
+      add(cur, getKey(after, cur.getPlayerToMove()));
+      for (Node child = cur.getLoadedChild(); child != null; child = child.getNext()) {
+        nodes.add(child);
+        positions.add(after);
+      }
+    }
+  }
+
+  /** Removes <code>node</code>, but not the nodes below it, from the index. */
+  private void removeNode(Node node) {
+    List<Node> list = m_index.get(node.getHash());
+    if (list != null) {
+      list.remove(node);
+      if (list.isEmpty()) m_index.remove(node.getHash());
+    }
+    if (!node.isLoaded()) node.setLoadListener(null);
+  }
+
+  /**
+   * Returns the child of <code>parent</code> with the same move as <code>node</code>, or <code>
+   * null</code> if there is none. Nodes with setup stones have no such child.
+   */
+  private static Node findSameChild(Node parent, Node node) {
+    if (!node.hasMove() || node.hasSetup()) return null;
+    for (Node child = parent.getChild(); child != null; child = child.getNext()) {
+      if (child.hasMove() && !child.hasSetup() && node.getMove().equals(child.getMove())) {
+        return child;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Adds the properties and labels of <code>from</code> that <code>to</code> does not have to
+   * <code>to</code>. Comments are appended to the comment of <code>to</code>.
+   */
+  private static void mergeContents(Node from, Node to) {
+    Iterator<Map.Entry<String, String>> it = from.getProperties().entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<String, String> e = it.next();
+      String value = to.getSgfProperty(e.getKey());
+      if (value == null) {
+        to.setSgfProperty(e.getKey(), e.getValue());
+      } else if (e.getKey().equals("C") && !value.equals(e.getValue())) {
+        to.setSgfProperty("C", value + "\n" + e.getValue());
+      }
+    }
+    Vector<String> labels = from.getLabels();
+    Vector<String> existing = to.getLabels();
+    for (int i = 0; i < labels.size(); i++) {
+      if (!existing.contains(labels.get(i))) to.addLabel(labels.get(i));
+    }
+  }
+
+  private final Node m_root;
+  private final Position m_board;
+  private final HashMap<Long, List<Node>> m_index;
+  private Node m_lastLoaded;
+  private Position m_lastPosition;
+}
+
+// ----------------------------------------------------------------------------
@@ -16,9 +16,12 @@ import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.Point;
 import java.awt.Polygon;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.event.*;
+import java.awt.image.BufferedImage;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.Vector;
 import javax.swing.*;
 
@@ -58,6 +61,7 @@ public abstract class BoardDrawerBase {
     } else {
       m_background = new ImageIcon(url).getImage();
     }
+    invalidateLayers();
   }
 
   /**
@@ -65,22 +69,50 @@ public abstract class BoardDrawerBase {
    * call to draw(). Also assumes the set of fields given are the same as those in the last call to
    * draw().
    *
+   * <p>Only the outlines in the grid bucket of <code>p</code> are tested, which are at most a few.
+   *
    * @param p the point
    * @param field the set of fields to search through.
    * @return the field in the set that p is in or <code>null</code> if p is not in any field.
    */
   public GuiField getFieldContaining(Point p, GuiField field[]) {
     if (m_outline == null) return null;
-    for (int x = 0; x < field.length; x++) {
-      if (m_outline[x].contains(p)) return field[x];
+    int column = Math.floorDiv(p.x - m_grid.x, m_gridStep);
+    int row = Math.floorDiv(p.y - m_grid.y, m_gridStep);
+    if (column < 0 || column >= m_grid.width || row < 0 || row >= m_grid.height) return null;
+    int bucket = row * m_grid.width + column;
+    for (int j = m_bucketStart[bucket]; j < m_bucketStart[bucket + 1]; j++) {
+      int i = m_bucketField[j];
+      if (m_outline[i].contains(p)) return field[i];
     }
     return null;
   }
 
+  /**
+   * Returns the area that field <code>i</code> of the last call to draw() covers, including its
+   * stone's shadow, or <code>null</code> if nothing has been drawn yet.
+   */
+  public Rectangle getFieldBounds(int i) {
+    if (m_outline == null || i >= m_outline.length) return null;
+    Rectangle bounds = m_outline[i].getBounds();
+    int grow = getShadowOffset() + 2;
+    bounds.grow(grow, grow);
+    return bounds;
+  }
+
   /**
    * Draws the board. The size of the region to draw to, the size of the board, and the field to
    * draw must be given. The position of each field is then calculated and the board drawn.
    *
+   * <p>The placement of the fields, their outlines and centers are kept until the size of the
+   * region or board, the orientation or the points of the fields change. The board is drawn in
+   * three layers. The background, cell outlines and labels only depend on
+   * the size and orientation of the board and are kept in an image until one of those changes. The
+   * stones, with their shadows, marks and text, are drawn over a copy of that image, which is kept
+   * and only redrawn where a field shows something else. Only the clip area of <code>g</code> is
+   * drawn. The alpha colors, selection and arrows are cheap and are
+   * drawn over the result each time.
+   *
    * @param g graphics context to draw to
    * @param w the width of the region to draw in
    * @param h the height of the region to draw in
@@ -99,32 +131,52 @@ public abstract class BoardDrawerBase {
       boolean alphaontop,
       GuiField field[],
       Vector<Pair<HexPoint, HexPoint>> arrows) {
-    m_width = w;
-    m_height = h;
-
-    m_bwidth = bw;
-    m_bheight = bh;
+    layout(w, h, bw, bh, alphaontop, field);
 
-    m_alphaontop = alphaontop;
-
-    computeFieldPlacement();
-    m_outline = calcCellOutlines(field);
+    Rectangle stonesChanged = updateStoneState(field);
+    if (m_boardLayer == null || m_layerAlphaOnTop != alphaontop) {
+      m_layerAlphaOnTop = alphaontop;
+      drawBoardLayer(g.getFont(), field);
+      m_stonesLayer = null;
+    }
+    if (m_stonesLayer == null) drawStonesLayer(g.getFont(), field, null);
+    else if (stonesChanged != null) drawStonesLayer(g.getFont(), field, stonesChanged);
+    g.setPaintMode();
+    g.drawImage(m_stonesLayer, 0, 0, null);
 
     setAntiAliasing(g);
-    drawBackground(g);
-    drawCells(g, field);
-    drawLabels(g, alphaontop);
-    drawShadows(g, field);
-    drawFields(g, field);
+    drawSelection(g, field);
     drawAlpha(g, field);
 
     drawArrows(g, arrows);
   }
 
+  /**
+   * Sets whether the points of fields and arrows are drawn transposed, that is with their
+   * coordinates swapped and the edges exchanged, which shows the board from the other side. The
+   * board width and height given to draw() must then be swapped as well.
+   */
+  public void setTransposed(boolean transposed) {
+    if (transposed == m_transposed) return;
+    m_transposed = transposed;
+    m_geometryPoint = null;
+  }
+
+  /** Drops the cached layers, so that the next call to draw() draws everything again. */
+  public void invalidateLayers() {
+    m_boardLayer = null;
+    m_stonesLayer = null;
+  }
+
   // ------------------------------------------------------------
 
   protected abstract Point getLocation(HexPoint p);
 
+  /** Returns the location of the field or arrow end at <code>p</code>. */
+  protected Point getFieldLocation(HexPoint p) {
+    return getLocation(m_transposed ? TRANSPOSED[p.getIndex()] : p);
+  }
+
   /**
    * Calculates the width of a field given the dimensions of the window and board.
    *
@@ -178,7 +230,128 @@ public abstract class BoardDrawerBase {
         g.drawPolygon(m_outline[i]);
       }
     }
+  }
+
+  /**
+   * Computes the geometry of the board without drawing it, or keeps that of the last call. The
+   * parameters are the same as for draw().
+   */
+  void layout(int w, int h, int bw, int bh, boolean alphaontop, GuiField field[]) {
+    m_width = w;
+    m_height = h;
+
+    m_bwidth = bw;
+    m_bheight = bh;
+
+    m_alphaontop = alphaontop;
+
+    if (!isGeometryValid(field)) {
+      computeGeometry(field);
+      m_boardLayer = null;
+    }
+  }
+
+  /**
+   * Draws the board like draw(), but directly to <code>g</code> without the cached layers, for
+   * graphics that record what is drawn instead of setting pixels, such as <code>SvgGraphics
+   * </code>. The background image is left out if <code>background</code> is false.
+   */
+  void drawDirect(
+      Graphics g,
+      int w,
+      int h,
+      int bw,
+      int bh,
+      boolean alphaontop,
+      GuiField field[],
+      Vector<Pair<HexPoint, HexPoint>> arrows,
+      boolean background) {
+    layout(w, h, bw, bh, alphaontop, field);
+    setAntiAliasing(g);
+    if (background) drawBackground(g);
+    drawCells(g, field);
+    drawLabels(g, m_alphaontop);
+    drawShadows(g, field);
+    drawFields(g, field);
+    drawSelection(g, field);
+    drawAlpha(g, field);
+    drawArrows(g, arrows);
+  }
+
+  /** Returns true if the geometry of the last call to draw() is valid for the current one. */
+  private boolean isGeometryValid(GuiField field[]) {
+    if (m_geometryPoint == null
+        || m_geometryPoint.length != field.length
+        || m_geometryWidth != m_width
+        || m_geometryHeight != m_height
+        || m_geometryBWidth != m_bwidth
+        || m_geometryBHeight != m_bheight) return false;
+    for (int i = 0; i < field.length; i++) {
+      if (m_geometryPoint[i] != field[i].getPoint()) return false;
+    }
+    return true;
+  }
+
+  /**
+   * Computes the placement, outlines and centers of the fields, and sorts the outlines into a
+   * grid of square buckets one field wide, so that a point can be mapped to the few outlines that
+   * may contain it.
+   */
+  private void computeGeometry(GuiField field[]) {
+    computeFieldPlacement();
+    m_outline = calcCellOutlines(field);
+    m_center = new Point[field.length];
+    m_geometryPoint = new HexPoint[field.length];
+    for (int i = 0; i < field.length; i++) {
+      m_geometryPoint[i] = field[i].getPoint();
+      m_center[i] = getFieldLocation(m_geometryPoint[i]);
+    }
+    m_geometryWidth = m_width;
+    m_geometryHeight = m_height;
+    m_geometryBWidth = m_bwidth;
+    m_geometryBHeight = m_bheight;
+
+    Rectangle bounds[] = new Rectangle[m_outline.length];
+    Rectangle area = null;
+    for (int i = 0; i < m_outline.length; i++) {
+      bounds[i] = m_outline[i].getBounds();
+      if (area == null) area = new Rectangle(bounds[i]);
+      else area.add(bounds[i]);
+    }
+    if (area == null) area = new Rectangle();
+    m_gridStep = Math.max(Math.max(m_fieldWidth, m_fieldHeight), 1);
+    m_grid =
+        new Rectangle(
+            area.x, area.y, area.width / m_gridStep + 1, area.height / m_gridStep + 1);
+    int buckets = m_grid.width * m_grid.height;
+    m_bucketStart = new int[buckets + 1];
+    for (int pass = 0; pass < 2; pass++) {
+      // First count the outlines of each bucket, then fill them in.
+      int next[] = (pass == 0) ? null : Arrays.copyOf(m_bucketStart, buckets);
+      for (int i = 0; i < bounds.length; i++) {
+        Rectangle b = bounds[i];
+        int column0 = (b.x - m_grid.x) / m_gridStep;
+        int column1 = (b.x + b.width - m_grid.x) / m_gridStep;
+        int row0 = (b.y - m_grid.y) / m_gridStep;
+        int row1 = (b.y + b.height - m_grid.y) / m_gridStep;
+        for (int row = row0; row <= row1 && row < m_grid.height; row++) {
+          for (int column = column0; column <= column1 && column < m_grid.width; column++) {
+            int bucket = row * m_grid.width + column;
+            if (pass == 0) m_bucketStart[bucket + 1]++;
+            else m_bucketField[next[bucket]++] = i;
+          }
+        }
+      }
+      if (pass == 0) {
+        for (int bucket = 0; bucket < buckets; bucket++)
+          m_bucketStart[bucket + 1] += m_bucketStart[bucket];
+        m_bucketField = new int[m_bucketStart[buckets]];
+      }
+    }
+  }
 
+  /** Outlines the selected fields. */
+  protected void drawSelection(Graphics g, GuiField field[]) {
     g.setColor(Color.yellow);
     for (int i = 0; i < m_outline.length; i++) {
       if ((field[i].getAttributes() & GuiField.SELECTED) != 0) {
@@ -254,7 +427,7 @@ public abstract class BoardDrawerBase {
     int offset = getShadowOffset();
     for (int pos = 0; pos < field.length; pos++) {
       if (field[pos].getColor() == HexColor.EMPTY) continue;
-      Point location = getLocation(field[pos].getPoint());
+      Point location = m_center[pos];
       graphics.setColor(Color.black);
       graphics.fillOval(location.x - size / 2 + offset, location.y - size / 2 + offset, size, size);
     }
@@ -263,7 +436,7 @@ public abstract class BoardDrawerBase {
 
   protected void drawFields(Graphics g, GuiField field[]) {
     for (int x = 0; x < field.length; x++) {
-      Point p = getLocation(field[x].getPoint());
+      Point p = m_center[x];
       field[x].draw(g, p.x, p.y, m_fieldWidth, m_fieldHeight);
     }
   }
@@ -292,13 +465,75 @@ public abstract class BoardDrawerBase {
       Graphics2D g2d = (Graphics2D) g;
       g2d.setColor(Color.BLUE);
       for (int i = 0; i < arrows.size(); i++) {
-        Point fm = getLocation(arrows.get(i).first);
-        Point to = getLocation(arrows.get(i).second);
+        Point fm = getFieldLocation(arrows.get(i).first);
+        Point to = getFieldLocation(arrows.get(i).second);
         drawArrow(g2d, fm.x, fm.y, to.x, to.y, 1.5);
       }
     }
   }
 
+  /** Draws the background, cell outlines and labels into the board layer. */
+  private void drawBoardLayer(Font font, GuiField field[]) {
+    m_boardLayer = new BufferedImage(m_width, m_height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = m_boardLayer.createGraphics();
+    g.setFont(font);
+    setAntiAliasing(g);
+    drawBackground(g);
+    drawCells(g, field);
+    drawLabels(g, m_alphaontop);
+    g.dispose();
+  }
+
+  /**
+   * Draws the stones and their shadows over a copy of the board layer, in <code>clip</code> or
+   * everywhere if it is <code>null</code>.
+   */
+  private void drawStonesLayer(Font font, GuiField field[], Rectangle clip) {
+    if (m_stonesLayer == null) {
+      m_stonesLayer = new BufferedImage(m_width, m_height, BufferedImage.TYPE_INT_RGB);
+    }
+    Graphics2D g = m_stonesLayer.createGraphics();
+    if (clip != null) g.setClip(clip);
+    g.drawImage(m_boardLayer, 0, 0, null);
+    g.setFont(font);
+    setAntiAliasing(g);
+    drawShadows(g, field);
+    drawFields(g, field);
+    g.dispose();
+  }
+
+  /**
+   * Compares what the fields show on the stones layer with the last call and remembers it.
+   *
+   * @return the area of the fields that changed, or <code>null</code> if none did.
+   */
+  private Rectangle updateStoneState(GuiField field[]) {
+    Rectangle changed = null;
+    if (m_stonePoint == null || m_stonePoint.length != field.length) {
+      m_stonePoint = new HexPoint[field.length];
+      m_stoneColor = new HexColor[field.length];
+      m_stoneAttributes = new int[field.length];
+      m_stoneText = new String[field.length];
+      changed = new Rectangle(0, 0, m_width, m_height);
+    }
+    for (int i = 0; i < field.length; i++) {
+      GuiField f = field[i];
+      int attributes = f.getAttributes() & STONE_ATTRIBUTES;
+      String text = ((attributes & GuiField.DRAW_TEXT) != 0) ? f.getText() : null;
+      if (m_stonePoint[i] == f.getPoint()
+          && m_stoneColor[i] == f.getColor()
+          && m_stoneAttributes[i] == attributes
+          && (m_stoneText[i] == null ? text == null : m_stoneText[i].equals(text))) continue;
+      m_stonePoint[i] = f.getPoint();
+      m_stoneColor[i] = f.getColor();
+      m_stoneAttributes[i] = attributes;
+      m_stoneText[i] = text;
+      if (changed == null) changed = getFieldBounds(i);
+      else changed.add(getFieldBounds(i));
+    }
+    return changed;
+  }
+
   protected void setAntiAliasing(Graphics g) {
     if (g instanceof Graphics2D) {
       Graphics2D g2d = (Graphics2D) g;
@@ -335,6 +570,8 @@ public abstract class BoardDrawerBase {
 
   protected boolean m_alphaontop;
 
+  protected boolean m_transposed;
+
   protected double m_aspect_ratio;
 
   protected Image m_background;
@@ -345,6 +582,63 @@ public abstract class BoardDrawerBase {
   protected int m_fieldWidth, m_fieldHeight, m_fieldRadius, m_step;
   protected Polygon m_outline[];
 
+  /** Center of each field. */
+  protected Point m_center[];
+
+  /** Points of the fields and sizes the geometry was computed for. */
+  private HexPoint m_geometryPoint[];
+
+  private int m_geometryWidth, m_geometryHeight;
+  private int m_geometryBWidth, m_geometryBHeight;
+
+  /** Position of the first bucket, and number of buckets in each direction. */
+  private Rectangle m_grid;
+
+  /** Width and height of the buckets. */
+  private int m_gridStep;
+
+  /**
+   * The outlines in bucket <code>b</code> are <code>m_bucketField[m_bucketStart[b]]</code> up to
+   * <code>m_bucketField[m_bucketStart[b + 1] - 1]</code>.
+   */
+  private int m_bucketStart[];
+
+  private int m_bucketField[];
+
+  /** Background, cell outlines and labels. */
+  private BufferedImage m_boardLayer;
+
+  private boolean m_layerAlphaOnTop;
+
+  /** The board layer with the stones drawn on it. */
+  private BufferedImage m_stonesLayer;
+
+  /** What each field showed on the stones layer when it was drawn. */
+  private HexPoint m_stonePoint[];
+
+  private HexColor m_stoneColor[];
+  private int m_stoneAttributes[];
+  private String m_stoneText[];
+
+  /** The transposed point for each point index. */
+  private static final HexPoint TRANSPOSED[] = new HexPoint[HexPoint.MAX_POINTS];
+
+  static {
+    for (int i = 0; i < HexPoint.MAX_POINTS; i++) {
+      HexPoint p = HexPoint.get(i);
+      if (p == HexPoint.NORTH) TRANSPOSED[i] = HexPoint.WEST;
+      else if (p == HexPoint.WEST) TRANSPOSED[i] = HexPoint.NORTH;
+      else if (p == HexPoint.EAST) TRANSPOSED[i] = HexPoint.SOUTH;
+      else if (p == HexPoint.SOUTH) TRANSPOSED[i] = HexPoint.EAST;
+      else if (p.is_cell()) TRANSPOSED[i] = p.reflect();
+      else TRANSPOSED[i] = p;
+    }
+  }
+
+  /** Attributes drawn on the stones layer. */
+  private static final int STONE_ATTRIBUTES =
+      GuiField.LAST_PLAYED | GuiField.SWAP_PLAYED | GuiField.DRAW_TEXT;
+
   protected static final AlphaComposite COMPOSITE_3 =
       AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.3f);
 }
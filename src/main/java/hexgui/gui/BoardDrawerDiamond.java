@@ -81,7 +81,7 @@ public class BoardDrawerDiamond extends BoardDrawerBase {
   protected Polygon[] calcCellOutlines(GuiField field[]) {
     Polygon outline[] = new Polygon[field.length];
     for (int x = 0; x < outline.length; x++) {
-      Point p = getLocation(field[x].getPoint());
+      Point p = getFieldLocation(field[x].getPoint());
       outline[x] = Hexagon.createHorizontalHexagon(p, m_fieldWidth, m_fieldHeight);
       // 	    System.out.println("-----");
       // 	    System.out.println(field[x].getPoint().toString());
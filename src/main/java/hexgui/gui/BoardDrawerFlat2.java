@@ -75,7 +75,7 @@ public class BoardDrawerFlat2 extends BoardDrawerBase {
   protected Polygon[] calcCellOutlines(GuiField field[]) {
     Polygon outline[] = new Polygon[field.length];
     for (int x = 0; x < outline.length; x++) {
-      Point p = getLocation(field[x].getPoint());
+      Point p = getFieldLocation(field[x].getPoint());
       outline[x] = Hexagon.createVerticalHexagon(p, m_fieldWidth, m_fieldHeight);
     }
     return outline;
@@ -64,7 +64,7 @@ public class BoardDrawerGo extends BoardDrawerBase {
     int h = m_fieldHeight / 2;
     Polygon outline[] = new Polygon[field.length];
     for (int i = 0; i < field.length; i++) {
-      Point c = getLocation(field[i].getPoint());
+      Point c = getFieldLocation(field[i].getPoint());
       outline[i] = new Polygon();
       outline[i].addPoint(c.x - w, c.y - h);
       outline[i].addPoint(c.x + w, c.y - h);
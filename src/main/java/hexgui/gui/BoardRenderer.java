@@ -0,0 +1,178 @@
+// ----------------------------------------------------------------------------
+// $Id$
+// ----------------------------------------------------------------------------
+
+package hexgui.gui;
+
+import hexgui.hex.HexPoint;
+import hexgui.hex.Position;
+import hexgui.util.Pair;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Vector;
+
+// ----------------------------------------------------------------------------
+
+/**
+ * Draws board diagrams without a window, as images or as SVG.
+ *
+ * <p>A renderer shows one position at a time, with the same drawers and marks as
+ * <code>GuiBoard</code>. It keeps its image and the layers of its drawer from one position to the
+ * next, so rendering the positions of a game one after the other only redraws the stones that
+ * changed. A renderer must only be used by one thread at a time.
+ */
+public final class BoardRenderer {
+  /**
+   * Constructor.
+   *
+   * @param type the board drawer, one of "Diamond", "Flat", "Flat2", "Go" and "Y".
+   * @param width width of the diagrams in pixels.
+   * @param height height of the diagrams in pixels.
+   */
+  public BoardRenderer(String type, int width, int height) {
+    if (type.equals("Y")) m_drawer = new BoardDrawerY();
+    else if (type.equals("Go")) m_drawer = new BoardDrawerGo();
+    else if (type.equals("Diamond")) m_drawer = new BoardDrawerDiamond();
+    else if (type.equals("Flat")) m_drawer = new BoardDrawerFlat();
+    else if (type.equals("Flat2")) m_drawer = new BoardDrawerFlat2();
+    else throw new IllegalArgumentException("Unknown board type '" + type + "'");
+    m_type = type;
+    m_width = width;
+    m_height = height;
+    m_arrows = new Vector<Pair<HexPoint, HexPoint>>();
+    setOrientation(true);
+  }
+
+  /**
+   * Sets whether black and letters are on top, as with the "Positive" orientation of the GUI, or
+   * white and numbers.
+   */
+  public void setOrientation(boolean positive) {
+    m_flip = m_type.equals("Flat2") ? positive : !positive;
+    m_drawer.setTransposed(m_flip);
+  }
+
+  /** Shows the stones of <code>position</code>, without any marks. */
+  public void setPosition(Position position) {
+    int mode = position.isHexBoard() ? Position.HEXBOARD : Position.YBOARD;
+    if (m_field == null
+        || mode != m_mode
+        || position.getWidth() != m_bwidth
+        || position.getHeight() != m_bheight) {
+      m_mode = mode;
+      m_bwidth = position.getWidth();
+      m_bheight = position.getHeight();
+      m_field = GuiBoard.createFields(mode, m_bwidth, m_bheight);
+      m_fieldIndex = new int[HexPoint.MAX_POINTS];
+      Arrays.fill(m_fieldIndex, -1);
+      for (int i = 0; i < m_field.length; i++) m_fieldIndex[m_field[i].getPoint().getIndex()] = i;
+    }
+    for (int i = 0; i < m_field.length; i++) {
+      m_field[i].clearAttributes(MARKS);
+      m_field[i].setColor(position.getColor(m_field[i].getPoint()));
+    }
+    m_arrows.clear();
+  }
+
+  /** Marks the stone that was played last. Ignored for points that are not on the board. */
+  public void markLastPlayed(HexPoint point) {
+    GuiField field = getField(point);
+    if (field != null) field.setAttributes(GuiField.LAST_PLAYED);
+  }
+
+  /** Sets the text of a field; '@' separates lines. */
+  public void setText(HexPoint point, String text) {
+    GuiField field = getField(point);
+    if (field != null) field.setText(text);
+  }
+
+  public void setAlphaColor(HexPoint point, Color color) {
+    GuiField field = getField(point);
+    if (field != null) field.setAlphaColor(color);
+  }
+
+  public void addArrow(HexPoint from, HexPoint to) {
+    m_arrows.add(new Pair<HexPoint, HexPoint>(from, to));
+  }
+
+  /**
+   * Draws the position. The returned image is reused by the next call, so it must be used or
+   * copied before that.
+   */
+  public BufferedImage render() {
+    checkPosition();
+    if (m_image == null) {
+      m_image = new BufferedImage(m_width, m_height, BufferedImage.TYPE_INT_RGB);
+    }
+    Graphics2D graphics = m_image.createGraphics();
+    m_drawer.draw(
+        graphics, m_width, m_height, getBWidth(), getBHeight(), !m_flip, m_field, m_arrows);
+    graphics.dispose();
+    return m_image;
+  }
+
+  /**
+   * Writes the position as an SVG document, drawn by the drawer as for <code>render()</code>. The
+   * background is a plain color instead of the background image.
+   */
+  public void writeSvg(Writer out) throws IOException {
+    checkPosition();
+    SvgGraphics graphics = new SvgGraphics(m_width, m_height);
+    graphics.setColor(BACKGROUND);
+    graphics.fillRect(0, 0, m_width, m_height);
+    m_drawer.drawDirect(
+        graphics, m_width, m_height, getBWidth(), getBHeight(), !m_flip, m_field, m_arrows, false);
+    graphics.write(out);
+    graphics.dispose();
+  }
+
+  // ------------------------------------------------------------
+
+  private static final Color BACKGROUND = new Color(0xd9b27a);
+
+  private static final int MARKS =
+      GuiField.LAST_PLAYED
+          | GuiField.SWAP_PLAYED
+          | GuiField.DRAW_TEXT
+          | GuiField.DRAW_ALPHA
+          | GuiField.SELECTED;
+
+  private void checkPosition() {
+    if (m_field == null) throw new IllegalStateException("No position set");
+  }
+
+  private int getBWidth() {
+    return m_flip ? m_bheight : m_bwidth;
+  }
+
+  private int getBHeight() {
+    return m_flip ? m_bwidth : m_bheight;
+  }
+
+  private GuiField getField(HexPoint point) {
+    checkPosition();
+    int i = m_fieldIndex[point.getIndex()];
+    return (i < 0) ? null : m_field[i];
+  }
+
+  private final String m_type;
+  private final BoardDrawerBase m_drawer;
+  private final int m_width, m_height;
+  private final Vector<Pair<HexPoint, HexPoint>> m_arrows;
+
+  private boolean m_flip;
+  private int m_mode;
+  private int m_bwidth, m_bheight;
+  private GuiField m_field[];
+
+  /** Index into m_field for each HexPoint index, or -1 if the point has no field. */
+  private int m_fieldIndex[];
+
+  private BufferedImage m_image;
+}
+
+// ----------------------------------------------------------------------------
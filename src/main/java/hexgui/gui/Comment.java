@@ -31,8 +31,14 @@ public class Comment extends JScrollPane implements DocumentListener {
     // setPreferredSize(new Dimension(200, 400));
   }
 
+  /** Shows <code>text</code>. The listener is only told about changes made by the user. */
   public void setText(String text) {
-    m_textPane.setText(text);
+    m_settingText = true;
+    try {
+      m_textPane.setText(text);
+    } finally {
+      m_settingText = false;
+    }
     m_textPane.getCaret().setDot(0);
   }
 
@@ -49,11 +55,13 @@ public class Comment extends JScrollPane implements DocumentListener {
   }
 
   private void notifyChanged() {
-    m_listener.commentChanged(m_textPane.getText());
+    if (!m_settingText) m_listener.commentChanged(m_textPane.getText());
   }
 
   JTextArea m_textPane;
 
+  private boolean m_settingText;
+
   Listener m_listener;
 
   private static final Font MONOSPACED_FONT = Font.decode("Monospaced");
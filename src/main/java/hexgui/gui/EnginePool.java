@@ -0,0 +1,281 @@
+// ----------------------------------------------------------------------------
+// $Id$
+// ----------------------------------------------------------------------------
+
+package hexgui.gui;
+
+import hexgui.game.Node;
+import hexgui.hex.Position;
+import hexgui.htp.HtpController;
+import hexgui.htp.HtpError;
+import hexgui.htp.HtpStatistics;
+import hexgui.htp.HtpSynchronizer;
+import hexgui.util.Log;
+import hexgui.util.StreamCopy;
+import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import javax.swing.SwingUtilities;
+
+// ----------------------------------------------------------------------------
+
+/**
+ * Extra instances of the attached program, for running analyze commands in parallel.
+ *
+ * <p>The instances are started from the same <code>Program</code> as the attached program. A
+ * command is given to an idle instance together with the node it is about; the instance is first
+ * brought to the position of the node with its own <code>HtpSynchronizer</code>, then runs the
+ * command in a thread of the pool. The result is handed back on the event dispatch thread. Idle
+ * instances are also brought to the current position with <code>synchronize()</code> as the user
+ * navigates, so that a command given to one later does not wait for the whole delta.
+ *
+ * <p>Only the instance that was given the most recent command, while it runs it, draws its gfx
+ * output on the board, so that the output of several commands is not mixed.
+ *
+ * <p>Parameters set on the attached program are not copied to the instances.
+ */
+public final class EnginePool {
+  public interface Listener {
+    /** Called in the event dispatch thread when a command has finished. */
+    void commandFinished(
+        HtpController.Response response, Node node, Consumer<HtpController.Response> callback);
+  }
+
+  /**
+   * Starts <code>size</code> instances of <code>program</code>.
+   *
+   * @param statistics statistics recording the traffic of the instances, or null
+   */
+  public EnginePool(
+      Program program,
+      int size,
+      HtpController.GuiFxCallback guifx,
+      Listener listener,
+      HtpStatistics statistics) {
+    m_listener = listener;
+    m_engines = new Vector<Engine>();
+    m_executor = Executors.newCachedThreadPool();
+    for (int i = 0; i < size; i++) {
+      try {
+        m_engines.add(new Engine(i, program, guifx, statistics));
+      } catch (Throwable e) {
+        s_log.warn("error starting {}: {}", program.m_name, e.getMessage());
+        break;
+      }
+    }
+    s_log.info("started {} instances.", m_engines.size());
+  }
+
+  /** Seconds the instances are given to exit after quit. */
+  public static final int QUIT_TIMEOUT = 10;
+
+  /** Returns the number of running instances. */
+  public int size() {
+    return m_engines.size();
+  }
+
+  /**
+   * Runs <code>cmd</code> on an idle instance, after setting it up with the position after <code>
+   * node</code>. Must be called in the event dispatch thread.
+   *
+   * @param board a position with the type and size of the board; its stones are ignored
+   * @return false if all instances are busy
+   */
+  public boolean dispatch(
+      Node node, Position board, String cmd, Consumer<HtpController.Response> callback) {
+    for (int i = 0; i < m_engines.size(); i++) {
+      Engine engine = m_engines.get(i);
+      if (!engine.m_busy && engine.m_htp.connected()) {
+        m_owner = engine;
+        engine.dispatch(node, board, cmd, callback);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Brings the idle instances to the position after <code>node</code>. Must be called in the event
+   * dispatch thread.
+   *
+   * @param board a position with the type and size of the board; its stones are ignored
+   */
+  public void synchronize(Node node, Position board) {
+    for (int i = 0; i < m_engines.size(); i++) {
+      Engine engine = m_engines.get(i);
+      if (!engine.m_busy && engine.m_htp.connected()) engine.dispatch(node, board, null, null);
+    }
+  }
+
+  /**
+   * Stops all instances. Each is sent quit, and those still running <code>QUIT_TIMEOUT</code>
+   * seconds later are killed.
+   */
+  public void shutdown() {
+    Vector<CompletableFuture<HtpController.Response>> quits =
+        new Vector<CompletableFuture<HtpController.Response>>();
+    for (int i = 0; i < m_engines.size(); i++) quits.add(m_engines.get(i).m_htp.send("quit\n"));
+    m_executor.shutdown();
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(QUIT_TIMEOUT);
+    for (int i = 0; i < m_engines.size(); i++) {
+      Engine engine = m_engines.get(i);
+      try {
+        try {
+          quits.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+          // Disconnected; waitFor() tells whether it has exited.
+        } catch (TimeoutException e) {
+          // Still busy; waitFor() gives it the rest of the time.
+        }
+        long left = Math.max(0, deadline - System.nanoTime());
+        if (!engine.m_process.waitFor(left, TimeUnit.NANOSECONDS)) {
+          s_log.warn("[{}] killing instance, which did not quit.", engine.m_index);
+          engine.m_process.destroyForcibly();
+        }
+      } catch (InterruptedException e) {
+        engine.m_process.destroyForcibly();
+        Thread.currentThread().interrupt();
+      }
+    }
+    m_owner = null;
+    m_engines.clear();
+  }
+
+  // ------------------------------------------------------------
+
+  /**
+   * One instance of the program. Fields other than m_htp, m_process and m_guifx are only used in
+   * the EDT.
+   */
+  private final class Engine
+      implements HtpSynchronizer.Callback,
+          HtpController.IOInterface,
+          HtpController.GuiFxCallback {
+    public Engine(
+        int index, Program program, HtpController.GuiFxCallback guifx, HtpStatistics statistics)
+        throws Exception {
+      m_index = index;
+      m_guifx = guifx;
+      m_process = program.start();
+      new Thread(new StreamCopy(false, m_process.getErrorStream(), System.out, false)).start();
+      m_htp =
+          new HtpController(m_process.getInputStream(), m_process.getOutputStream(), this, this);
+      m_htp.setStatistics(statistics);
+      m_sync = new HtpSynchronizer(this);
+      m_pending = new Vector<String>();
+      m_htp.send("list_commands\n")
+          .thenAccept(
+              new Consumer<HtpController.Response>() {
+                public void accept(final HtpController.Response response) {
+                  if (!response.isSuccess()) return;
+                  SwingUtilities.invokeLater(
+                      new Runnable() {
+                        public void run() {
+                          m_sync.setSupportedCommands(response.getText());
+                        }
+                      });
+                }
+              });
+    }
+
+    /**
+     * Brings the instance to the position after <code>node</code> and runs <code>cmd</code>, or
+     * only brings it to the position if <code>cmd</code> is null. The instance is busy until the
+     * program has answered.
+     */
+    public void dispatch(
+        final Node node,
+        Position board,
+        final String cmd,
+        final Consumer<HtpController.Response> callback) {
+      if (board.getWidth() != m_width || board.getHeight() != m_height) {
+        m_width = board.getWidth();
+        m_height = board.getHeight();
+        m_pending.add("boardsize " + m_width + " " + m_height + "\n");
+        m_sync.reset();
+      }
+      m_sync.synchronize(node, board);
+      if (cmd == null && m_pending.isEmpty()) return;
+      m_busy = true;
+      final Vector<String> commands = new Vector<String>(m_pending);
+      m_pending.clear();
+      m_executor.execute(
+          new Runnable() {
+            public void run() {
+              HtpController.Response response = null;
+              try {
+                for (int i = 0; i < commands.size(); i++) {
+                  // When only synchronizing, wait for the last command.
+                  if (cmd == null && i == commands.size() - 1) m_htp.sendCommand(commands.get(i));
+                  else m_htp.send(commands.get(i));
+                }
+                if (cmd != null) response = m_htp.sendCommand(cmd);
+              } catch (HtpError e) {
+                s_log.debug("[{}] error '{}'", m_index, e.getMessage());
+              }
+              final HtpController.Response result = response;
+              SwingUtilities.invokeLater(
+                  new Runnable() {
+                    public void run() {
+                      m_busy = false;
+                      if (m_owner == Engine.this && cmd != null) m_owner = null;
+                      if (result != null && callback != null) {
+                        m_listener.commandFinished(result, node, callback);
+                      }
+                    }
+                  });
+            }
+          });
+    }
+
+    /** HtpSynchronizer.Callback */
+    public void sendCommand(String cmd) {
+      m_pending.add(cmd);
+    }
+
+    /** HtpController.IOInterface */
+    public void sentCommand(String str) {
+      s_log.debug("[{}] sent '{}'", m_index, str);
+    }
+
+    public void receivedResponse(String str) {}
+
+    public void receivedError(String str) {
+      s_log.debug("[{}] error '{}'", m_index, str);
+    }
+
+    /** HtpController.GuiFxCallback; called in the thread reading the responses. */
+    public void guifx(String fx) {
+      if (m_owner == this) m_guifx.guifx(fx);
+    }
+
+    private final int m_index;
+    private final HtpController.GuiFxCallback m_guifx;
+    private final Process m_process;
+    private final HtpController m_htp;
+    private final HtpSynchronizer m_sync;
+
+    /** Commands from the synchronizer, sent before the next command. */
+    private final Vector<String> m_pending;
+
+    private boolean m_busy;
+    private int m_width;
+    private int m_height;
+  }
+
+  private static final Log s_log = Log.get("pool");
+
+  private final Listener m_listener;
+  private final Vector<Engine> m_engines;
+  private final ExecutorService m_executor;
+
+  /** Instance whose gfx output is drawn, or null; set in the EDT, read by the reader threads. */
+  private volatile Engine m_owner;
+}
+
+// ----------------------------------------------------------------------------
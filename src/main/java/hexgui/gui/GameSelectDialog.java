@@ -0,0 +1,35 @@
+// ----------------------------------------------------------------------------
+// $Id$
+// ----------------------------------------------------------------------------
+
+package hexgui.gui;
+
+import java.awt.*;
+import javax.swing.*;
+
+/** Dialog for choosing a game from a file containing several games. */
+public final class GameSelectDialog {
+  /**
+   * Run dialog.
+   *
+   * @return Index of the chosen game, counting from 0; returns -1 if aborted.
+   */
+  public static int show(Component parent, int numGames) {
+    String label = "This file contains " + numGames + " games.\nGame number (1-" + numGames + ")";
+    while (true) {
+      String ret = JOptionPane.showInputDialog(parent, label, "1");
+      if (ret == null) return -1;
+      try {
+        int n = Integer.parseInt(ret.trim());
+        if (n >= 1 && n <= numGames) return n - 1;
+      } catch (NumberFormatException e) {
+      }
+      ShowError.msg(parent, "Game number should be between 1 and " + numGames + ".");
+    }
+  }
+
+  /** Make constructor unavailable; class is for namespace only. */
+  private GameSelectDialog() {}
+}
+
+// ----------------------------------------------------------------------------
@@ -0,0 +1,311 @@
+// ----------------------------------------------------------------------------
+// $Id$
+// ----------------------------------------------------------------------------
+
+package hexgui.gui;
+
+import hexgui.hex.HexColor;
+import hexgui.hex.HexPoint;
+import hexgui.util.Pair;
+import hexgui.util.StringUtils;
+import java.awt.Color;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Vector;
+
+// ----------------------------------------------------------------------------
+
+/**
+ * The board markup of one <code>gogui-gfx</code> line.
+ *
+ * <p>A frame is filled in by <code>parse()</code>, which may run in any thread, and is not changed
+ * after that; <code>draw()</code> then applies it to a <code>GuiBoard</code> in the event dispatch
+ * thread. Stones, colors, texts and arrows are each applied in the order they were added, so a
+ * later entry for a point overrides an earlier one.
+ */
+public final class GfxFrame {
+  public GfxFrame() {
+    m_stones = new Vector<Pair<HexPoint, HexColor>>();
+    m_alpha = new Vector<Pair<HexPoint, Color>>();
+    m_text = new Vector<Pair<HexPoint, String>>();
+    m_arrows = new Vector<Pair<HexPoint, HexPoint>>();
+    m_progress = -1.0;
+  }
+
+  /**
+   * Parses a <code>gogui-gfx</code> line of the UCT, alpha-beta, solver or DFPN search.
+   *
+   * @return the frame, or null if the line is not of a known search
+   */
+  public static GfxFrame parse(String fx) {
+    GfxFrame frame = new GfxFrame();
+    if (fx.length() > 3 && fx.substring(0, 3).equals("uct")) frame.parseUct(fx.substring(3));
+    else if (fx.length() > 2 && fx.substring(0, 2).equals("ab")) frame.parseAb(fx.substring(2));
+    else if (fx.length() > 4 && fx.substring(0, 4).equals("dfpn"))
+      frame.parseDfpn(fx.substring(4));
+    else if (fx.length() > 6 && fx.substring(0, 6).equals("solver"))
+      frame.parseSolver(fx.substring(6));
+    else return null;
+    return frame;
+  }
+
+  public void setColor(HexPoint point, HexColor color) {
+    m_stones.add(new Pair<HexPoint, HexColor>(point, color));
+  }
+
+  public void setAlphaColor(HexPoint point, Color color) {
+    m_alpha.add(new Pair<HexPoint, Color>(point, color));
+  }
+
+  public void setText(HexPoint point, String str) {
+    m_text.add(new Pair<HexPoint, String>(point, str));
+  }
+
+  public void addArrow(HexPoint from, HexPoint to) {
+    m_arrows.add(new Pair<HexPoint, HexPoint>(from, to));
+  }
+
+  /** Returns the status bar message, or null if none. */
+  public String getMessage() {
+    return m_message;
+  }
+
+  /** Returns the progress of the search between 0 and 1, or a negative value if none. */
+  public double getProgress() {
+    return m_progress;
+  }
+
+  /** Draws the markup onto <code>board</code>, without clearing or repainting it. */
+  public void draw(GuiBoard board) {
+    for (int i = 0; i < m_stones.size(); i++) {
+      board.setColor(m_stones.get(i).first, m_stones.get(i).second);
+    }
+    for (int i = 0; i < m_alpha.size(); i++) {
+      board.setAlphaColor(m_alpha.get(i).first, m_alpha.get(i).second);
+    }
+    for (int i = 0; i < m_text.size(); i++) {
+      board.setText(m_text.get(i).first, m_text.get(i).second);
+    }
+    for (int i = 0; i < m_arrows.size(); i++) {
+      board.addArrow(m_arrows.get(i).first, m_arrows.get(i).second);
+    }
+  }
+
+  // ------------------------------------------------------------
+
+  /** Adds the proof and disproof bounds of a DFPN search. */
+  public void addDfpnBounds(String str) {
+    Vector<Pair<String, String>> pairs = StringUtils.parseStringPairList(str);
+    for (int i = 0; i < pairs.size(); i++) {
+      HexPoint point = HexPoint.get(pairs.get(i).first);
+      String value = pairs.get(i).second;
+      setText(point, value);
+      if (value.trim().equals("W")) setAlphaColor(point, Color.green);
+      else if (value.trim().equals("L")) setAlphaColor(point, Color.red);
+    }
+  }
+
+  /** Adds the inferior cells. */
+  public void addInferiorCells(String str) {
+    Vector<Pair<String, String>> pairs = StringUtils.parseStringPairList(str);
+    for (int i = 0; i < pairs.size(); i++) {
+      HexPoint point = HexPoint.get(pairs.get(i).first);
+      String value = pairs.get(i).second;
+
+      if (value.charAt(0) == 'f') // fill-in
+      {
+        assert (3 == value.length());
+        if (value.charAt(1) == 'd') // dead
+        setAlphaColor(point, Color.cyan);
+        else if (value.charAt(1) == 'p') // permanently inferior
+        setAlphaColor(point, Color.gray);
+        else // captured
+        {
+          assert (value.charAt(1) == 'c');
+          setAlphaColor(point, Color.red);
+        }
+        if (value.charAt(2) == 'b') setColor(point, HexColor.BLACK);
+        else {
+          assert (value.charAt(2) == 'w');
+          setColor(point, HexColor.WHITE);
+        }
+      } else if (value.charAt(0) == 'i') // ignorable
+      {
+        assert (4 <= value.length());
+        if (value.charAt(1) == 'v') // vulnerable
+        setAlphaColor(point, Color.green);
+        else if (value.charAt(1) == 'r') // reversible
+        setAlphaColor(point, Color.magenta);
+        else // dominated
+        {
+          assert (value.charAt(1) == 'd');
+          setAlphaColor(point, Color.yellow);
+        }
+        assert (value.charAt(2) == '[' && value.charAt(value.length() - 1) == ']');
+        String pts = value.substring(3, value.length() - 1);
+        Vector<HexPoint> pp = StringUtils.parsePointList(pts, "-");
+        for (int j = 0; j < pp.size(); ++j) addArrow(point, pp.get(j));
+      } else // not in consider set
+      {
+        assert (value.charAt(0) == 'x');
+        setAlphaColor(point, Color.gray);
+      }
+    }
+  }
+
+  // ------------------------------------------------------------
+
+  private void parseUct(String fx) {
+    String[] tk = fx.trim().split(" ");
+    int i = 0;
+
+    /**
+     * @todo Fix this to parse like parseAb() and parseSolver().
+     */
+
+    //////////////////////////////////////
+    // display variation
+    for (; i < tk.length; ++i) {
+      String s = tk[i].trim();
+      if (s.equals("VAR")) break;
+    }
+    if (i == tk.length) return;
+    ++i; // skip "VAR";
+
+    Vector<HexPoint> var = new Vector<HexPoint>();
+    Vector<HexColor> col = new Vector<HexColor>();
+    for (; i < tk.length; ) {
+      String s = tk[i].trim();
+      if (s.equals("INFLUENCE")) break;
+      ++i; // skip 'B' and 'W'
+
+      col.add((s.charAt(0) == 'B') ? HexColor.BLACK : HexColor.WHITE);
+      HexPoint point = HexPoint.get(tk[i++].trim());
+      var.add(point);
+    }
+
+    setColor(var.get(0), col.get(0));
+    setAlphaColor(var.get(0), Color.cyan);
+    if (var.size() > 1) {
+      setColor(var.get(1), col.get(1));
+      setAlphaColor(var.get(1), Color.blue);
+    }
+
+    /////////////////////////////////////////
+    // display score/search counts
+
+    TreeMap<HexPoint, String> map = new TreeMap<HexPoint, String>();
+
+    ++i; // skip 'INFLUENCE'
+    for (; i < tk.length; ) {
+      String s = tk[i].trim();
+      if (s.equals("LABEL")) break;
+
+      HexPoint point = HexPoint.get(tk[i++].trim());
+      String score = tk[i++].trim();
+      map.put(point, score);
+      if (score.equals("W")) setAlphaColor(point, Color.green);
+      else if (score.equals("L")) setAlphaColor(point, Color.red);
+    }
+
+    ++i; // skip "LABEL";
+    for (; i < tk.length; ) {
+      String s = tk[i].trim();
+      if (s.equals("TEXT")) break;
+
+      HexPoint point = HexPoint.get(tk[i++].trim());
+
+      String old = map.get(point);
+      if (old == null) old = "";
+      map.put(point, old + "@" + tk[i++].trim());
+    }
+
+    Iterator<Map.Entry<HexPoint, String>> it = map.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<HexPoint, String> e = it.next();
+      setText(e.getKey(), e.getValue());
+    }
+
+    m_message = fx.substring(fx.indexOf("TEXT") + 5);
+  }
+
+  private void parseAb(String fx) {
+    int var = fx.indexOf("VAR");
+    int label = fx.indexOf("LABEL");
+    int text = fx.indexOf("TEXT");
+
+    Vector<Pair<HexColor, HexPoint>> vr = StringUtils.parseVariation(fx.substring(var + 3, label));
+    if (vr.size() > 0) {
+      setColor(vr.get(0).second, vr.get(0).first);
+      setAlphaColor(vr.get(0).second, Color.green);
+      if (vr.size() >= 2) {
+        setColor(vr.get(1).second, vr.get(1).first);
+        setAlphaColor(vr.get(1).second, Color.red);
+      }
+    }
+    String label_str = fx.substring(label + 5, text).trim();
+    Vector<Pair<String, String>> labels = StringUtils.parseStringPairList(label_str);
+    for (int i = 0; i < labels.size(); ++i) {
+      HexPoint pt = HexPoint.get(labels.get(i).first);
+      setText(pt, labels.get(i).second);
+    }
+    m_message = fx.substring(text + 5);
+  }
+
+  private void parseSolver(String fx) {
+    int var = fx.indexOf("VAR");
+    int label = fx.indexOf("LABEL");
+    int text = fx.indexOf("TEXT");
+
+    Vector<Pair<HexColor, HexPoint>> vr = StringUtils.parseVariation(fx.substring(var + 3, label));
+    for (int i = 0; i < vr.size(); ++i) {
+      setColor(vr.get(i).second, vr.get(i).first);
+      setText(vr.get(i).second, Integer.toString(i + 1));
+    }
+
+    String label_str = fx.substring(label + 5, text).trim();
+    addInferiorCells(label_str);
+
+    String prog_str = fx.substring(text + 4).trim();
+    String[] levels = prog_str.split(" ");
+
+    double contribution = 1.0;
+    double progress = 0.0;
+    for (int i = 0; i < levels.length; ++i) {
+      String[] nums = levels[i].trim().split("/");
+      int cur = Integer.decode(nums[0]).intValue();
+      int max = Integer.decode(nums[1]).intValue();
+      progress += contribution * cur / max;
+      contribution *= 1.0 / max;
+    }
+    m_message = fx.substring(text + 5);
+    m_progress = progress;
+  }
+
+  private void parseDfpn(String fx) {
+    int var = fx.indexOf("VAR");
+    int label = fx.indexOf("LABEL");
+    int text = fx.indexOf("TEXT");
+
+    Vector<Pair<HexColor, HexPoint>> vr = StringUtils.parseVariation(fx.substring(var + 3, label));
+    for (int i = 0; i < vr.size(); ++i) {
+      setColor(vr.get(i).second, vr.get(i).first);
+      setText(vr.get(i).second, Integer.toString(i + 1));
+      setAlphaColor(vr.get(i).second, Color.blue);
+    }
+    String label_str = fx.substring(label + 5, text).trim();
+    addDfpnBounds(label_str);
+
+    m_message = fx.substring(text + 5);
+  }
+
+  private final Vector<Pair<HexPoint, HexColor>> m_stones;
+  private final Vector<Pair<HexPoint, Color>> m_alpha;
+  private final Vector<Pair<HexPoint, String>> m_text;
+  private final Vector<Pair<HexPoint, HexPoint>> m_arrows;
+  private String m_message;
+  private double m_progress;
+}
+
+// ----------------------------------------------------------------------------
@@ -0,0 +1,148 @@
+// ----------------------------------------------------------------------------
+// $Id$
+// ----------------------------------------------------------------------------
+
+package hexgui.gui;
+
+import hexgui.util.Log;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+// ----------------------------------------------------------------------------
+
+/**
+ * Shows <code>gogui-gfx</code> output on the board at a limited frame rate.
+ *
+ * <p>A search may print gfx lines much faster than the board can be repainted. Each line is parsed
+ * into a <code>GfxFrame</code> in the thread that received it, and only the latest frame is kept;
+ * a frame that is replaced before it was drawn is dropped. Frames are drawn in the event dispatch
+ * thread at most <code>MAX_FRAMES_PER_SECOND</code> times a second, and the timer doing so only
+ * runs while frames keep arriving.
+ *
+ * <p>Frames that were received before a call to <code>invalidate()</code> are never drawn. This
+ * keeps the output of a search from being drawn over its final result, or over another position
+ * the user has moved to.
+ */
+public final class GfxPipeline implements ActionListener {
+  public static final int MAX_FRAMES_PER_SECOND = 25;
+
+  public GfxPipeline(GuiBoard board, StatusBar statusbar) {
+    m_board = board;
+    m_statusbar = statusbar;
+    m_pending = new AtomicReference<Pending>();
+    m_generation = new AtomicLong();
+    m_running = new AtomicBoolean(false);
+    m_received = new AtomicLong();
+    m_rendered = new AtomicLong();
+    m_timer = new Timer(1000 / MAX_FRAMES_PER_SECOND, this);
+    m_start =
+        new Runnable() {
+          public void run() {
+            // Draw the first frame at once; the timer limits the rate
+            // of the frames after it.
+            drawPending();
+            m_timer.restart();
+          }
+        };
+  }
+
+  /** Parses a gfx line and queues it for drawing. May be called in any thread. */
+  public void publish(String fx) {
+    GfxFrame frame;
+    try {
+      frame = GfxFrame.parse(fx);
+    } catch (RuntimeException e) {
+      s_log.warn("bad line '{}': {}", fx, e);
+      return;
+    }
+    if (frame == null) return;
+    m_received.incrementAndGet();
+    m_pending.set(new Pending(frame, m_generation.get()));
+    if (m_running.compareAndSet(false, true)) SwingUtilities.invokeLater(m_start);
+  }
+
+  /**
+   * Drops the frames received so far that were not drawn yet. May be called in any thread; a frame
+   * that is being published at the same time is dropped too.
+   */
+  public void invalidate() {
+    m_generation.incrementAndGet();
+    m_pending.set(null);
+  }
+
+  /** Returns the number of frames received. */
+  public long getReceived() {
+    return m_received.get();
+  }
+
+  /** Returns the number of frames drawn; the others were replaced by a newer frame before. */
+  public long getRendered() {
+    return m_rendered.get();
+  }
+
+  /** Timer callback. Draws the latest frame, or stops the timer if there is none. */
+  public void actionPerformed(ActionEvent e) {
+    if (drawPending()) return;
+    m_timer.stop();
+    m_running.set(false);
+    // A frame published between the check and the reset above did not
+    // restart the timer.
+    if (m_pending.get() != null && m_running.compareAndSet(false, true)) m_timer.restart();
+  }
+
+  // ------------------------------------------------------------
+
+  /** A frame with the generation it was received in. */
+  private static final class Pending {
+    public Pending(GfxFrame frame, long generation) {
+      m_frame = frame;
+      m_generation = generation;
+    }
+
+    public final GfxFrame m_frame;
+    public final long m_generation;
+  }
+
+  /** Draws the latest frame; returns false if there was none, or it was invalidated. */
+  private boolean drawPending() {
+    Pending pending = m_pending.getAndSet(null);
+    if (pending == null || pending.m_generation != m_generation.get()) return false;
+    GfxFrame frame = pending.m_frame;
+    m_board.clearMarks();
+    m_board.aboutToDirtyStones();
+    frame.draw(m_board);
+    if (frame.getMessage() != null) m_statusbar.setMessage(frame.getMessage());
+    if (frame.getProgress() >= 0) {
+      m_statusbar.setProgressVisible(true);
+      m_statusbar.setProgress(frame.getProgress());
+    }
+    m_rendered.incrementAndGet();
+    return true;
+  }
+
+  private static final Log s_log = Log.get("gfx");
+
+  private final GuiBoard m_board;
+  private final StatusBar m_statusbar;
+  private final Timer m_timer;
+  private final Runnable m_start;
+
+  /** Latest frame not drawn yet, or null. */
+  private final AtomicReference<Pending> m_pending;
+
+  /** Number of calls to invalidate(). */
+  private final AtomicLong m_generation;
+
+  /** True from the first frame after an idle period until the timer stops again. */
+  private final AtomicBoolean m_running;
+
+  private final AtomicLong m_received;
+  private final AtomicLong m_rendered;
+}
+
+// ----------------------------------------------------------------------------
@@ -9,13 +9,13 @@ import hexgui.hex.*;
 import hexgui.util.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.image.VolatileImage;
 import java.awt.print.PageFormat;
 import java.awt.print.Printable;
 import java.awt.print.PrinterException;
 import java.math.BigInteger;
 import java.net.URL;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.Arrays;
 import java.util.Vector;
 import javax.swing.*;
 import javax.swing.border.EtchedBorder;
@@ -35,12 +35,11 @@ public final class GuiBoard extends JPanel implements Printable {
 
   private static final boolean DEFAULT_FLIPPED = true;
 
-  public static final int HEXBOARD = 0;
-  public static final int YBOARD = 1;
+  public static final int HEXBOARD = Position.HEXBOARD;
+  public static final int YBOARD = Position.YBOARD;
 
   /** Constructor. */
   public GuiBoard(Listener listener, GuiPreferences preferences) {
-    m_image = null;
     m_listener = listener;
     m_preferences = preferences;
     m_arrows = new Vector<Pair<HexPoint, HexPoint>>();
@@ -84,8 +83,10 @@ public final class GuiBoard extends JPanel implements Printable {
   }
 
   // Set the cursor to one of: "default", "black", "white",
-  // "black-setup", "white-setup".
+  // "black-setup", "white-setup". Does nothing in a headless
+  // environment, which has no cursors.
   public void setCursorType(String name) {
+    if (GraphicsEnvironment.isHeadless()) return;
     String path;
 
     if (name.equals("white")) {
@@ -149,7 +150,7 @@ public final class GuiBoard extends JPanel implements Printable {
       System.out.println("GuiBoard: unknown draw type '" + name + "'.");
       m_drawer = new BoardDrawerDiamond();
     }
-    repaint();
+    repaintAll();
   }
 
   /**
@@ -164,7 +165,7 @@ public final class GuiBoard extends JPanel implements Printable {
     else {
       System.out.println("GuiBoard: unknown orientation '" + orient + "'.");
     }
-    repaint();
+    repaintAll();
   }
 
   public void initSize(int w, int h) {
@@ -189,34 +190,50 @@ public final class GuiBoard extends JPanel implements Printable {
     m_dirty_stones = false;
     clearArrows();
 
-    if (m_mode == HEXBOARD) {
-      m_field = new GuiField[w * h + 4];
+    m_position = new Position(m, w, h);
+    m_field = createFields(m, w, h);
+
+    m_fieldIndex = new int[HexPoint.MAX_POINTS];
+    Arrays.fill(m_fieldIndex, -1);
+    for (int i = 0; i < m_field.length; i++) m_fieldIndex[m_field[i].getPoint().getIndex()] = i;
+
+    clearAll();
+    repaintAll();
+  }
+
+  /**
+   * Returns the fields of a board of the given type and dimensions: the cells in row order, then
+   * the edges.
+   */
+  static GuiField[] createFields(int m, int w, int h) {
+    GuiField field[];
+    if (m == HEXBOARD) {
+      field = new GuiField[w * h + 4];
       for (int x = 0; x < w * h; x++) {
-        m_field[x] = new GuiField(HexPoint.get(x % w, x / w));
-        m_field[x].setAttributes(GuiField.DRAW_CELL_OUTLINE);
+        field[x] = new GuiField(HexPoint.get(x % w, x / w));
+        field[x].setAttributes(GuiField.DRAW_CELL_OUTLINE);
       }
-      m_field[w * h + 0] = new GuiField(HexPoint.NORTH);
-      m_field[w * h + 1] = new GuiField(HexPoint.SOUTH);
-      m_field[w * h + 2] = new GuiField(HexPoint.WEST);
-      m_field[w * h + 3] = new GuiField(HexPoint.EAST);
+      field[w * h + 0] = new GuiField(HexPoint.NORTH);
+      field[w * h + 1] = new GuiField(HexPoint.SOUTH);
+      field[w * h + 2] = new GuiField(HexPoint.WEST);
+      field[w * h + 3] = new GuiField(HexPoint.EAST);
     } else {
       int n = w * (w + 1) / 2;
-      m_field = new GuiField[n + 3];
+      field = new GuiField[n + 3];
       for (int y = 0, i = 0; y < w; y++) {
         for (int x = 0; x <= y; x++, i++) {
-          m_field[i] = new GuiField(HexPoint.get(x, y));
-          m_field[i].setAttributes(GuiField.DRAW_CELL_OUTLINE);
+          field[i] = new GuiField(HexPoint.get(x, y));
+          field[i].setAttributes(GuiField.DRAW_CELL_OUTLINE);
         }
       }
-      m_field[n + 0] = new GuiField(HexPoint.SOUTH);
-      m_field[n + 0].setAttributes(GuiField.DRAW_CELL_OUTLINE);
-      m_field[n + 1] = new GuiField(HexPoint.WEST);
-      m_field[n + 1].setAttributes(GuiField.DRAW_CELL_OUTLINE);
-      m_field[n + 2] = new GuiField(HexPoint.EAST);
-      m_field[n + 2].setAttributes(GuiField.DRAW_CELL_OUTLINE);
+      field[n + 0] = new GuiField(HexPoint.SOUTH);
+      field[n + 0].setAttributes(GuiField.DRAW_CELL_OUTLINE);
+      field[n + 1] = new GuiField(HexPoint.WEST);
+      field[n + 1].setAttributes(GuiField.DRAW_CELL_OUTLINE);
+      field[n + 2] = new GuiField(HexPoint.EAST);
+      field[n + 2].setAttributes(GuiField.DRAW_CELL_OUTLINE);
     }
-    clearAll();
-    repaint();
+    return field;
   }
 
   /**
@@ -246,20 +263,29 @@ public final class GuiBoard extends JPanel implements Printable {
     return m_mode == YBOARD;
   }
 
+  /**
+   * Returns the position shown on this board. The board is a view of this position; callers must
+   * not modify it directly, but use <code>setColor()</code> and friends instead.
+   */
+  public Position getPosition() {
+    return m_position;
+  }
+
   /** Clears all marks and stones from the board. */
   public void clearAll() {
-    for (int x = 0; x < m_field.length; x++) m_field[x].clear();
-    if (m_mode == HEXBOARD) {
-      getField(HexPoint.NORTH).setColor(HexColor.BLACK);
-      getField(HexPoint.SOUTH).setColor(HexColor.BLACK);
-      getField(HexPoint.WEST).setColor(HexColor.WHITE);
-      getField(HexPoint.EAST).setColor(HexColor.WHITE);
-    } else {
-      getField(HexPoint.SOUTH).setColor(HexColor.EMPTY);
-      getField(HexPoint.WEST).setColor(HexColor.EMPTY);
-      getField(HexPoint.EAST).setColor(HexColor.EMPTY);
+    m_position.clear();
+    for (int x = 0; x < m_field.length; x++) {
+      m_field[x].clear();
+      m_field[x].setColor(m_position.getColor(m_field[x].getPoint()));
+    }
+    repaintAll();
+  }
+
+  /** Copies the stone colors of the position into the fields. */
+  private void updateFieldColors() {
+    for (int x = 0; x < m_field.length; x++) {
+      m_field[x].setColor(m_position.getColor(m_field[x].getPoint()));
     }
-    repaint();
   }
 
   /**
@@ -270,6 +296,7 @@ public final class GuiBoard extends JPanel implements Printable {
     if (!m_dirty_stones) {
       m_backup_field = new GuiField[m_field.length];
       for (int i = 0; i < m_field.length; i++) m_backup_field[i] = new GuiField(m_field[i]);
+      m_backup_position = new Position(m_position);
     }
     m_dirty_stones = true;
   }
@@ -281,12 +308,13 @@ public final class GuiBoard extends JPanel implements Printable {
   /** Adds an arrow. */
   public void addArrow(HexPoint from, HexPoint to) {
     m_arrows.add(new Pair<HexPoint, HexPoint>(from, to));
-    repaint();
+    repaintAll();
   }
 
   public void clearArrows() {
+    if (m_arrows.isEmpty()) return;
     m_arrows.clear();
-    repaint();
+    repaintAll();
   }
 
   /**
@@ -297,18 +325,22 @@ public final class GuiBoard extends JPanel implements Printable {
   public void clearMarks() {
     if (m_dirty_stones) {
       for (int i = 0; i < m_field.length; i++) {
+        if (!looksSame(m_field[i], m_backup_field[i])) repaintField(i);
         m_field[i] = new GuiField(m_backup_field[i]);
       }
+      m_position.copyFrom(m_backup_position);
     }
     m_dirty_stones = false;
 
     clearArrows();
 
+    int marks =
+        GuiField.LAST_PLAYED | GuiField.SWAP_PLAYED | GuiField.DRAW_TEXT | GuiField.DRAW_ALPHA;
     for (int x = 0; x < m_field.length; x++) {
-      m_field[x].clearAttributes(
-          GuiField.LAST_PLAYED | GuiField.SWAP_PLAYED | GuiField.DRAW_TEXT | GuiField.DRAW_ALPHA);
+      if ((m_field[x].getAttributes() & marks) == 0) continue;
+      m_field[x].clearAttributes(marks);
+      repaintField(x);
     }
-    repaint();
   }
 
   /**
@@ -320,8 +352,9 @@ public final class GuiBoard extends JPanel implements Printable {
   public void setColor(HexPoint point, HexColor color) {
     GuiField f = getField(point);
     if (f != null) {
+      m_position.setColor(point, color);
       f.setColor(color);
-      repaint();
+      repaintField(point);
     }
   }
 
@@ -332,25 +365,21 @@ public final class GuiBoard extends JPanel implements Printable {
    * @return the color of <code>point</code>
    */
   public HexColor getColor(HexPoint point) {
-    GuiField f = getField(point);
-    return f.getColor();
+    return m_position.getColor(point);
   }
 
   /** Gets the field at the specified point. Special points are ignored (SWAP_SIDES, etc). */
   public GuiField getField(HexPoint point) {
-    if (point == HexPoint.SWAP_SIDES
-        || point == HexPoint.SWAP_PIECES
-        || point == HexPoint.PASS
-        || point == HexPoint.RESIGN
-        || point == HexPoint.FORFEIT) {
+    int i = m_fieldIndex[point.getIndex()];
+    if (i < 0) {
+      assert (point == HexPoint.SWAP_SIDES
+          || point == HexPoint.SWAP_PIECES
+          || point == HexPoint.PASS
+          || point == HexPoint.RESIGN
+          || point == HexPoint.FORFEIT);
       return null;
     }
-
-    for (int x = 0; x < m_field.length; x++) {
-      if (m_field[x].getPoint() == point) return m_field[x];
-    }
-    assert (false);
-    return null;
+    return m_field[i];
   }
 
   /**
@@ -362,23 +391,25 @@ public final class GuiBoard extends JPanel implements Printable {
 
     if (m_last_played != null) {
       m_last_played.clearAttributes(GuiField.LAST_PLAYED);
+      repaintField(m_last_played.getPoint());
       m_last_played = null;
     }
     if (point != null) {
       m_last_played = getField(point);
       if (m_last_played != null) {
         m_last_played.setAttributes(GuiField.LAST_PLAYED);
+        repaintField(point);
       }
     }
-    repaint();
   }
 
   /** Clear swap marks */
   public void clearSwapPlayed() {
     for (int x = 0; x < m_field.length; x++) {
+      if ((m_field[x].getAttributes() & GuiField.SWAP_PLAYED) == 0) continue;
       m_field[x].clearAttributes(GuiField.SWAP_PLAYED);
+      repaintField(x);
     }
-    repaint();
   }
 
   /** Add swap mark to all pieces on the board (hopefully there is exactly one of them */
@@ -387,9 +418,9 @@ public final class GuiBoard extends JPanel implements Printable {
       HexPoint p = m_field[x].getPoint();
       if (p.is_cell() && m_field[x].getColor() != HexColor.EMPTY) {
         m_field[x].setAttributes(GuiField.SWAP_PLAYED);
+        repaintField(x);
       }
     }
-    repaint();
   }
 
   /** Sets the given point's alpha color. */
@@ -397,7 +428,7 @@ public final class GuiBoard extends JPanel implements Printable {
     GuiField f = getField(point);
     if (f != null) {
       f.setAlphaColor(color);
-      repaint();
+      repaintField(point);
     }
   }
 
@@ -405,7 +436,7 @@ public final class GuiBoard extends JPanel implements Printable {
     GuiField f = getField(point);
     if (f != null) {
       f.setAlphaColor(color, blend);
-      repaint();
+      repaintField(point);
     }
   }
 
@@ -422,105 +453,60 @@ public final class GuiBoard extends JPanel implements Printable {
   /** Sets the given point's text. */
   public void setText(HexPoint point, String str) {
     getField(point).setText(str);
-    repaint();
+    repaintField(point);
   }
 
   /** Sets whether this cell is selected. */
   public void setSelected(HexPoint point, boolean selected) {
     getField(point).setSelected(selected);
-    repaint();
+    repaintField(point);
   }
 
   /** Check if the board is full */
   public boolean isBoardFull() {
-    for (int x = 0; x < m_field.length; x++) {
-      if (m_field[x].getColor() == HexColor.EMPTY) return false;
-    }
-    return true;
+    return m_position.isFull();
   }
 
   /** Count the number of pieces on the board */
   public int numberOfPieces() {
-    int count = 0;
-    for (int x = 0; x < m_field.length; x++) {
-      HexPoint point = m_field[x].getPoint();
-      if (point == HexPoint.NORTH
-          || point == HexPoint.EAST
-          || point == HexPoint.SOUTH
-          || point == HexPoint.WEST) {
-        continue;
-      }
-      if (m_field[x].getColor() != HexColor.EMPTY) {
-        count++;
-      }
-    }
-    return count;
+    return m_position.numberOfPieces();
   }
 
   /** Change the pieces' colors without moving them. This is only used in Y. */
   public void swapColors() {
-    for (int x = 0; x < m_field.length; x++) {
-      HexPoint point = m_field[x].getPoint();
-      if (point == HexPoint.NORTH
-          || point == HexPoint.EAST
-          || point == HexPoint.SOUTH
-          || point == HexPoint.WEST) {
-        continue;
-      }
-      HexColor color = m_field[x].getColor();
-      m_field[x].setColor(color.otherColor());
-    }
+    m_position.swapColors();
+    updateFieldColors();
+    repaintAll();
   }
 
   /** Change the pieces' colors and move them. This is only used in Hex. */
   public void swapPieces() {
-    // Due to the weird way the data structures are set up, it
-    // is tricky to move pieces to another location on the board.
-    // In particular, there is no O(1) way to find the HexField
-    // attached to a given HexPoint.
-    Map<HexPoint, HexColor> colors = new TreeMap<HexPoint, HexColor>();
-    for (int x = 0; x < m_field.length; x++) {
-      HexPoint point = m_field[x].getPoint();
-      if (point == HexPoint.NORTH
-          || point == HexPoint.EAST
-          || point == HexPoint.SOUTH
-          || point == HexPoint.WEST) {
-        continue;
-      }
-      colors.put(point, m_field[x].getColor());
-    }
-    for (int x = 0; x < m_field.length; x++) {
-      HexPoint point = m_field[x].getPoint();
-      if (point == HexPoint.NORTH
-          || point == HexPoint.EAST
-          || point == HexPoint.SOUTH
-          || point == HexPoint.WEST) {
-        continue;
-      }
-      HexPoint otherpoint = point.reflect();
-      m_field[x].setColor(colors.get(otherpoint).otherColor());
-    }
+    m_position.swapPieces();
+    updateFieldColors();
+    repaintAll();
   }
 
   /** Stores the current state as a setup position in the given sgf node. */
   public void storePosition(Node node) {
-    for (int x = 0; x < m_field.length; x++) {
-      HexPoint point = m_field[x].getPoint();
-      if (point == HexPoint.NORTH
-          || point == HexPoint.EAST
-          || point == HexPoint.SOUTH
-          || point == HexPoint.WEST) continue;
-
-      HexColor color = m_field[x].getColor();
-      if (color == HexColor.EMPTY) continue;
-
-      node.addSetup(color, point);
-    }
+    PointList black = m_position.getStones(HexColor.BLACK);
+    for (int i = 0; i < black.size(); i++) node.addSetup(HexColor.BLACK, black.get(i));
+    PointList white = m_position.getStones(HexColor.WHITE);
+    for (int i = 0; i < white.size(); i++) node.addSetup(HexColor.WHITE, white.get(i));
   }
 
+  /**
+   * Paints the changes made so far now instead of in a later event. Only the changed fields are
+   * painted, unless something was changed that affects the whole board.
+   */
   public void paintImmediately() {
     assert SwingUtilities.isEventDispatchThread();
-    super.paintImmediately(0, 0, getWidth(), getHeight());
+    if (m_repaintAll) {
+      m_dirtyRegions.clear();
+      m_repaintAll = false;
+      super.paintImmediately(0, 0, getWidth(), getHeight());
+    } else {
+      paintDirtyRegions();
+    }
   }
 
   /** Displays this vc on the board. */
@@ -538,6 +524,76 @@ public final class GuiBoard extends JPanel implements Printable {
     for (int i = 0; i < key.size(); i++) getField(key.get(i)).setAlphaColor(Color.yellow);
   }
 
+  /** Returns true if the two fields are drawn the same way. */
+  private static boolean looksSame(GuiField a, GuiField b) {
+    if (a.getColor() != b.getColor() || a.getAttributes() != b.getAttributes()) return false;
+    if ((a.getAttributes() & GuiField.DRAW_TEXT) != 0 && !a.getText().equals(b.getText()))
+      return false;
+    if ((a.getAttributes() & GuiField.DRAW_ALPHA) != 0
+        && (!a.getAlphaColor().equals(b.getAlphaColor())
+            || a.getAlphaBlend() != b.getAlphaBlend())) return false;
+    return true;
+  }
+
+  /** Schedules a repaint of the whole board. */
+  private void repaintAll() {
+    if (SwingUtilities.isEventDispatchThread()) m_repaintAll = true;
+    repaint();
+  }
+
+  private void repaintField(HexPoint point) {
+    int i = m_fieldIndex[point.getIndex()];
+    if (i >= 0) repaintField(i);
+  }
+
+  /**
+   * Schedules a repaint of the area of field <code>i</code>. The areas changed in one event are
+   * painted together once it has been handled, each one clipped to its field.
+   */
+  private void repaintField(int i) {
+    if (m_boardPanel == null) return;
+    Rectangle bounds = m_drawer.getFieldBounds(i);
+    if (bounds == null) {
+      repaintAll();
+    } else if (!SwingUtilities.isEventDispatchThread()) {
+      m_boardPanel.repaint(bounds);
+    } else {
+      m_dirtyRegions.add(bounds);
+      if (m_dirtyRegions.size() == 1) {
+        SwingUtilities.invokeLater(
+            new Runnable() {
+              public void run() {
+                paintDirtyRegions();
+              }
+            });
+      }
+    }
+  }
+
+  /**
+   * Paints the fields that were changed. If there are many of them, the area covering them all is
+   * painted at once.
+   */
+  private void paintDirtyRegions() {
+    if (m_dirtyRegions.isEmpty()) return;
+    if (m_repaintAll) {
+      // The whole board is about to be painted anyway.
+      m_dirtyRegions.clear();
+      return;
+    }
+    if (m_dirtyRegions.size() > MAX_DIRTY_REGIONS) {
+      Rectangle union = new Rectangle(m_dirtyRegions.get(0));
+      for (int i = 1; i < m_dirtyRegions.size(); i++) union.add(m_dirtyRegions.get(i));
+      m_dirtyRegions.clear();
+      m_boardPanel.paintImmediately(union);
+      return;
+    }
+    for (int i = 0; i < m_dirtyRegions.size(); i++) {
+      m_boardPanel.paintImmediately(m_dirtyRegions.get(i));
+    }
+    m_dirtyRegions.clear();
+  }
+
   // ------------------------------------------------------------
 
   public int print(Graphics g, PageFormat format, int page) throws PrinterException {
@@ -599,40 +655,45 @@ public final class GuiBoard extends JPanel implements Printable {
     return ret;
   }
 
-  private GuiField[] flipFields(GuiField field[]) {
-    GuiField out[] = new GuiField[field.length];
-    for (int i = 0; i < field.length; i++) {
-      HexPoint p = field[i].getPoint();
-      out[i] = new GuiField(field[i]);
-      if (p == HexPoint.NORTH) out[i].setPoint(HexPoint.WEST);
-      else if (p == HexPoint.WEST) out[i].setPoint(HexPoint.NORTH);
-      else if (p == HexPoint.EAST) out[i].setPoint(HexPoint.SOUTH);
-      else if (p == HexPoint.SOUTH) out[i].setPoint(HexPoint.EAST);
-      else {
-        out[i].setPoint(HexPoint.get(p.y, p.x));
-      }
-    }
-    return out;
-  }
-
-  private class BoardPanel extends JPanel {
+  /**
+   * Panel the board is drawn in.
+   *
+   * <p>The board is drawn into a back buffer in video memory if possible, which is redrawn
+   * completely if its contents are lost. While the panel is being resized, the last frame is shown
+   * scaled to the new size; the board is drawn again at the new size once the size has not changed
+   * for <code>RESIZE_SETTLE_DELAY</code> milliseconds.
+   */
+  private class BoardPanel extends JPanel implements ActionListener {
     public BoardPanel() {
       setFocusable(true);
+      m_settleTimer = new Timer(RESIZE_SETTLE_DELAY, this);
+      m_settleTimer.setRepeats(false);
+    }
+
+    /** Timer callback. The resizing has settled, so the board is drawn at its new size. */
+    public void actionPerformed(ActionEvent event) {
+      m_resizeFrame = null;
+      repaint();
     }
 
     public void paintComponent(Graphics graphics) {
       int w = getWidth();
       int h = getHeight();
+      if (w <= 0 || h <= 0) return;
 
-      if (m_image == null) {
-        m_image = createImage(w, h);
+      if (m_resizeFrame != null) {
+        if (graphics instanceof Graphics2D) {
+          ((Graphics2D) graphics)
+              .setRenderingHint(
+                  RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        }
+        graphics.drawImage(m_resizeFrame, 0, 0, w, h, null);
+        return;
       }
 
       int bw = m_width;
       int bh = m_height;
-      GuiField ff[] = m_field;
       boolean alphaontop = true;
-      Vector<Pair<HexPoint, HexPoint>> arrows = m_arrows;
 
       boolean positive = true;
       if (m_preferences.get("gui-board-orientation").equals("negative")) {
@@ -649,25 +710,68 @@ public final class GuiBoard extends JPanel implements Printable {
         bw = m_height;
         bh = m_width;
         alphaontop = false;
-        ff = flipFields(m_field);
-
-        arrows = new Vector<Pair<HexPoint, HexPoint>>();
-        for (int i = 0; i < m_arrows.size(); i++) {
-          HexPoint p1 = m_arrows.get(i).first;
-          HexPoint p2 = m_arrows.get(i).second;
-          arrows.add(
-              new Pair<HexPoint, HexPoint>(HexPoint.get(p1.y, p1.x), HexPoint.get(p2.y, p2.x)));
-        }
       }
-
-      m_drawer.draw(m_image.getGraphics(), w, h, bw, bh, alphaontop, ff, arrows);
-      graphics.drawImage(m_image, 0, 0, null);
+      m_drawer.setTransposed(flip);
+
+      Rectangle clip = graphics.getClipBounds();
+      do {
+        boolean complete = validateBackBuffer(w, h);
+        if (m_backBuffer == null) {
+          m_drawer.draw(graphics, w, h, bw, bh, alphaontop, m_field, m_arrows);
+          break;
+        }
+        Graphics g = m_backBuffer.getGraphics();
+        if (clip != null && !complete) g.setClip(clip);
+        m_drawer.draw(g, w, h, bw, bh, alphaontop, m_field, m_arrows);
+        g.dispose();
+        graphics.drawImage(m_backBuffer, 0, 0, null);
+      } while (m_backBuffer instanceof VolatileImage
+          && ((VolatileImage) m_backBuffer).contentsLost());
+      if (clip == null || clip.contains(0, 0, w, h)) m_repaintAll = false;
     }
 
     public void setBounds(int x, int y, int w, int h) {
+      boolean resized = (w != getWidth() || h != getHeight());
       super.setBounds(x, y, w, h);
-      m_image = null;
+      if (!resized) return;
+      if (m_resizeFrame == null && m_backBuffer != null && isShowing()) {
+        if (m_backBuffer instanceof VolatileImage) {
+          VolatileImage image = (VolatileImage) m_backBuffer;
+          if (!image.contentsLost()) m_resizeFrame = image.getSnapshot();
+        } else {
+          m_resizeFrame = m_backBuffer;
+        }
+      }
+      m_backBuffer = null;
+      if (m_resizeFrame != null) m_settleTimer.restart();
+    }
+
+    /**
+     * Creates the back buffer if it does not exist or does not fit the panel or screen.
+     *
+     * @return true if its contents must be drawn completely.
+     */
+    private boolean validateBackBuffer(int w, int h) {
+      if (m_backBuffer instanceof VolatileImage) {
+        VolatileImage image = (VolatileImage) m_backBuffer;
+        int status = image.validate(getGraphicsConfiguration());
+        if (status == VolatileImage.IMAGE_OK) return false;
+        if (status == VolatileImage.IMAGE_RESTORED) return true;
+        m_backBuffer = null;
+      }
+      if (m_backBuffer != null) return false;
+      m_backBuffer = createVolatileImage(w, h);
+      if (m_backBuffer == null) m_backBuffer = createImage(w, h);
+      return true;
     }
+
+    /** Image the board is drawn into; a <code>VolatileImage</code> if possible. */
+    private Image m_backBuffer;
+
+    /** The last frame before resizing started, or null if the panel is not being resized. */
+    private Image m_resizeFrame;
+
+    private final Timer m_settleTimer;
   }
 
   public void mousePressed(MouseEvent e) {}
@@ -682,18 +786,34 @@ public final class GuiBoard extends JPanel implements Printable {
   private Dimension m_size;
   private int m_mode;
 
-  private Image m_image;
+  private Position m_position;
   private GuiField m_field[];
+
+  /** Index into m_field for each HexPoint index, or -1 if the point has no field. */
+  private int m_fieldIndex[];
   private Vector<Pair<HexPoint, HexPoint>> m_arrows;
 
   private boolean m_dirty_stones;
   private GuiField m_backup_field[];
+  private Position m_backup_position;
 
   private GuiField m_last_played;
 
   private BoardDrawerBase m_drawer;
   private BoardPanel m_boardPanel;
 
+  /** Areas of changed fields that have not been painted yet; only used in the event thread. */
+  private final Vector<Rectangle> m_dirtyRegions = new Vector<Rectangle>();
+
+  /** Whether a change of the whole board has not been painted yet. */
+  private boolean m_repaintAll;
+
+  /** Time without size changes after which a resized board is drawn again, in milliseconds. */
+  private static final int RESIZE_SETTLE_DELAY = 150;
+
+  /** Number of changed fields above which they are painted at once. */
+  private static final int MAX_DIRTY_REGIONS = 32;
+
   private Listener m_listener;
   private GuiPreferences m_preferences;
 }
@@ -26,10 +26,10 @@ public class GuiField {
   public static final int DRAW_ALPHA = 16;
   public static final int SELECTED = 32;
 
-  private static final Color COLOR_STONE_BLACK = Color.decode("#030303");
-  private static final Color COLOR_STONE_BLACK_BRIGHT = Color.decode("#666666");
-  private static final Color COLOR_STONE_WHITE = Color.decode("#d7d0c9");
-  private static final Color COLOR_STONE_WHITE_BRIGHT = Color.decode("#ffffff");
+  static final Color COLOR_STONE_BLACK = Color.decode("#030303");
+  static final Color COLOR_STONE_BLACK_BRIGHT = Color.decode("#666666");
+  static final Color COLOR_STONE_WHITE = Color.decode("#d7d0c9");
+  static final Color COLOR_STONE_WHITE_BRIGHT = Color.decode("#ffffff");
 
   public GuiField(HexPoint p) {
     this(p, HexColor.EMPTY, 0, null, null, 0);
@@ -135,23 +135,8 @@ public class GuiField {
     setColor(HexColor.EMPTY);
   }
 
-  private RadialGradientPaint getPaint(
-      int width, int height, Color colorNormal, Color colorBright) {
-    RadialGradientPaint paint;
-    int paintSize;
-    int size = (width < height) ? width : height;
-    int radius = Math.max(size / 3, 1);
-    Point2D.Double centerPoint = new Point2D.Double(width / 2 - size / 6, height / 2 - size / 6);
-    Point2D.Double radiusPoint = new Point2D.Double(radius, radius);
-    paint =
-        new RadialGradientPaint(
-            centerPoint, colorBright,
-            radiusPoint, colorNormal);
-    return paint;
-  }
-
   public void draw(Graphics g, int x, int y, int w, int h) {
-    if (!g.hitClip(x, y, w, h)) return;
+    if (!g.hitClip(x - w / 2, y - h / 2, w, h)) return;
 
     m_width = w;
     m_height = h;
@@ -167,9 +152,9 @@ public class GuiField {
     }
 
     if (m_color == HexColor.WHITE) {
-      drawStone(COLOR_STONE_WHITE, COLOR_STONE_WHITE_BRIGHT);
+      drawStone(COLOR_STONE_WHITE);
     } else if (m_color == HexColor.BLACK) {
-      drawStone(COLOR_STONE_BLACK, COLOR_STONE_BLACK_BRIGHT);
+      drawStone(COLOR_STONE_BLACK);
     }
 
     if ((m_attributes & LAST_PLAYED) != 0) {
@@ -188,18 +173,24 @@ public class GuiField {
     if ((m_attributes & DRAW_TEXT) != 0) drawText();
   }
 
-  private void drawStone(Color normal, Color bright) {
+  private void drawStone(Color normal) {
+    if (m_graphics2D instanceof SvgGraphics) {
+      // Keep the stone a vector shape with a gradient.
+      StoneSprites.paint(m_graphics2D, m_color, m_width, m_height);
+      return;
+    }
     if (m_graphics2D != null) {
-      RadialGradientPaint paint = getPaint(m_width, m_height, normal, bright);
-      m_graphics2D.setPaint(paint);
-    } else {
-      m_graphics.setColor(normal);
+      // Blit the pre-rendered stone in device pixels; the scale is above
+      // one on HiDPI screens.
+      double scale = Math.abs(m_graphics2D.getTransform().getScaleX());
+      m_graphics2D.drawImage(
+          StoneSprites.get(m_color, m_width, m_height, scale), 0, 0, m_width, m_height, null);
+      return;
     }
 
+    m_graphics.setColor(normal);
     int size = m_radius - m_margin;
     m_graphics.fillOval(m_width / 2 - size, m_height / 2 - size, size * 2, size * 2);
-
-    m_graphics.setPaintMode();
   }
 
   private void drawLastPlayed() {
@@ -243,6 +243,16 @@ public final class GuiMenuBar {
     item.setActionCommand("game_make_main_branch");
     menu.add(item);
 
+    item = new JMenuItem("Next Transposition");
+    item.addActionListener(m_listener);
+    item.setActionCommand("game_next_transposition");
+    menu.add(item);
+
+    item = new JMenuItem("Merge Into Next Transposition");
+    item.addActionListener(m_listener);
+    item.setActionCommand("game_merge_transposition");
+    menu.add(item);
+
     return menu;
   }
 
@@ -441,6 +451,11 @@ public final class GuiMenuBar {
     m_analyze_visible.setEnabled(false);
     menu.add(m_analyze_visible);
 
+    JMenuItem statistics = new JMenuItem("Show Statistics");
+    statistics.addActionListener(m_listener);
+    statistics.setActionCommand("show-statistics");
+    menu.add(statistics);
+
     menu.addSeparator();
 
     JMenuItem item = new JMenuItem("Clear Marks");
@@ -25,6 +25,9 @@ public final class GuiPreferences {
         {"shell-show-on-connect", "false"},
         {"analyze-show-on-connect", "false"},
         {"auto-respond", "true"},
+        {"engine-pool-size", "1"},
+        {"shell-max-lines", "10000"},
+        {"shell-spill-file", ""},
         {"first-move-color", "black"},
         {"remote-host-name", "localhost"},
         {"is-program-attached", "false"},
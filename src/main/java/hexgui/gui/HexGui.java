@@ -3,17 +3,23 @@ package hexgui.gui;
 import static java.text.MessageFormat.format;
 
 import hexgui.game.Clock;
+import hexgui.game.CompactGameTree;
 import hexgui.game.GameInfo;
 import hexgui.game.Node;
+import hexgui.game.TranspositionIndex;
 import hexgui.hex.*;
 import hexgui.htp.AnalyzeCommand;
 import hexgui.htp.AnalyzeDefinition;
 import hexgui.htp.AnalyzeType;
 import hexgui.htp.HtpController;
 import hexgui.htp.HtpError;
+import hexgui.htp.HtpStatistics;
+import hexgui.htp.HtpSynchronizer;
+import hexgui.sgf.SgfCollection;
 import hexgui.sgf.SgfReader;
 import hexgui.sgf.SgfWriter;
 import hexgui.util.ErrorMessage;
+import hexgui.util.Log;
 import hexgui.util.Pair;
 import hexgui.util.StreamCopy;
 import hexgui.util.StringUtils;
@@ -25,6 +31,8 @@ import java.net.*;
 import java.util.*;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import javax.swing.*;
 
 // ----------------------------------------------------------------------------
@@ -36,6 +44,7 @@ public final class HexGui extends JFrame
         HtpShell.Callback,
         HtpController.GuiFxCallback,
         AnalyzeDialog.Listener,
+        EnginePool.Listener,
         Comment.Listener {
   public HexGui(final File file, final String command) {
     super("HexGui");
@@ -69,6 +78,7 @@ public final class HexGui extends JFrame
 
     m_guiboard = new GuiBoard(this, m_preferences);
     getContentPane().add(m_guiboard, BorderLayout.CENTER);
+    m_gfx = new GfxPipeline(m_guiboard, m_statusbar);
 
     m_showAnalyzeText = new ShowAnalyzeText(this, m_guiboard);
 
@@ -90,6 +100,7 @@ public final class HexGui extends JFrame
 
     m_semaphore = new Semaphore(1);
     m_htp_queue = new ArrayBlockingQueue<HtpCommand>(256);
+    m_statistics = new HtpStatistics();
     new Thread(new CommandHandler(this, m_htp_queue)).start();
 
     setVisible(true);
@@ -172,6 +183,8 @@ public final class HexGui extends JFrame
       cmdGuiBoardOrientation();
     } else if (cmd.equals("show-preferences")) {
       cmdShowPreferences();
+    } else if (cmd.equals("show-statistics")) {
+      cmdShowStatistics();
     } else if (cmd.equals("gui-clear-marks")) {
       cmdClearMarks();
       //
@@ -228,6 +241,12 @@ public final class HexGui extends JFrame
     } else if (cmd.equals("game_make_main_branch")) {
       end_setup();
       cmdMoveBranchTop();
+    } else if (cmd.equals("game_next_transposition")) {
+      end_setup();
+      cmdNextTransposition();
+    } else if (cmd.equals("game_merge_transposition")) {
+      end_setup();
+      cmdMergeTransposition();
     } else if (cmd.equals("game_start_clock")) {
       startClock();
     } else if (cmd.equals("game_stop_clock")) {
@@ -249,21 +268,21 @@ public final class HexGui extends JFrame
     // other
     //
     else if (cmd.equals("show_consider_set")) {
-      Runnable cb =
-          new Runnable() {
-            public void run() {
-              cbShowInferiorCells();
+      Consumer<HtpController.Response> cb =
+          new Consumer<HtpController.Response>() {
+            public void accept(HtpController.Response response) {
+              cbShowInferiorCells(response);
             }
           };
-      Runnable callback = new GuiRunnable(cb);
+      Consumer<HtpController.Response> callback = new GuiCallback(cb);
       sendCommand("vc-build " + m_tomove.toString() + "\n", callback);
     } else if (cmd.equals("solve_state")) {
       sendCommand("param_dfpn use_guifx 1\n", null);
-      Runnable callback =
-          new GuiRunnable(
-              new Runnable() {
-                public void run() {
-                  cbSolveState();
+      Consumer<HtpController.Response> callback =
+          new GuiCallback(
+              new Consumer<HtpController.Response>() {
+                public void accept(HtpController.Response response) {
+                  cbSolveState(response);
                 }
               });
       sendCommand("dfpn-solve-state " + m_tomove + "\n", callback);
@@ -271,27 +290,21 @@ public final class HexGui extends JFrame
       AnalyzeCommand command;
       if (m_white_name.equalsIgnoreCase("Mohex") || m_white_name.equalsIgnoreCase("HexHex")) {
         command = new AnalyzeCommand(new AnalyzeDefinition("param/blah/param_mohex"));
-        Runnable cb =
-            new Runnable() {
-              public void run() {
-                cbEditParameters();
-              }
-            };
-        Runnable callback = new GuiRunnable(cb);
-        m_curAnalyzeCommand = command;
-        sendCommand(command.getCommand() + "\n", callback);
       } else if (m_white_name.equalsIgnoreCase("Wolve")) {
         command = new AnalyzeCommand(new AnalyzeDefinition("param/blah/param_wolve"));
-        Runnable cb =
-            new Runnable() {
-              public void run() {
-                cbEditParameters();
-              }
-            };
-        Runnable callback = new GuiRunnable(cb);
-        m_curAnalyzeCommand = command;
-        sendCommand(command.getCommand() + "\n", callback);
-      } else ShowError.msg(this, "Unknown program!");
+      } else {
+        ShowError.msg(this, "Unknown program!");
+        return;
+      }
+      final String paramCommand = command.getCommand();
+      Consumer<HtpController.Response> cb =
+          new Consumer<HtpController.Response>() {
+            public void accept(HtpController.Response response) {
+              cbEditParameters(response, paramCommand);
+            }
+          };
+      Consumer<HtpController.Response> callback = new GuiCallback(cb);
+      sendCommand(paramCommand + "\n", callback);
     }
     //
     // unknown command
@@ -320,6 +333,7 @@ public final class HexGui extends JFrame
       System.out.println("Stopping [" + m_white_name + " " + m_white_version + "] process...");
       m_white_process.destroy();
     }
+    if (m_pool != null) m_pool.shutdown();
     System.exit(0);
   }
 
@@ -433,47 +447,13 @@ public final class HexGui extends JFrame
   // ------------------------------------------------------------
 
   private void cmdConnectLocalProgram(Program program) {
-    Runtime runtime = Runtime.getRuntime();
-
-    String cmd = program.m_command;
     System.out.println("Executing '" + program.m_name + "':");
-    System.out.println("Command = '" + cmd + "'");
+    System.out.println("Command = '" + program.m_command + "'");
     System.out.println("Working directory = '" + program.m_working + "'");
 
-    File working = null;
-    if (!program.m_working.trim().equals("")) {
-      ShowError.msg(
-          this, "Working directory not implemented! " + "Running with no working directory.");
-
-      //             working = new File(program.m_working);
-      //             if (!working.isDirectory())
-      //             {
-      //                 ShowError.msg(this, "Invalid working directory: '"
-      //                               + working.getName() + "'");
-      //             }
-    }
-
+    // The instances of the engine pool are started the same way.
     try {
-      // Create command array with StringUtil::splitArguments
-      // because Runtime.exec(String) uses a default StringTokenizer
-      // which does not respect ".
-      String[] cmdArray = StringUtils.splitArguments(cmd);
-      // Make file name absolute, if working directory is not current
-      // directory. With Java 1.5, it seems that Runtime.exec succeeds
-      // if the relative path is valid from the current, but not from
-      // the given working directory, but the process is not usable
-      // (reading from its input stream immediately returns
-      // end-of-stream)
-      if (cmdArray.length > 0) {
-        File file = new File(cmdArray[0]);
-        // Only replace if executable is a path to a file, not
-        // an executable in the exec-path
-        if (file.exists()) cmdArray[0] = file.getAbsolutePath();
-      }
-
-      m_white_process = runtime.exec(cmdArray);
-      // m_white_process = runtime.exec(cmdArray, null, workingDirectory);
-      // m_white_process = runtime.exec(cmd);
+      m_white_process = program.start();
     } catch (Throwable e) {
       ShowError.msg(this, "Error starting " + program.m_name + ": '" + e.getMessage() + "'");
       return;
@@ -492,6 +472,9 @@ public final class HexGui extends JFrame
     ///////////////////////////////
 
     connectProgram(proc.getInputStream(), proc.getOutputStream());
+
+    int poolSize = m_preferences.getInt("engine-pool-size");
+    if (poolSize > 1) m_pool = new EnginePool(program, poolSize - 1, this, this, m_statistics);
   }
 
   private void createAnalyzeDialog() {
@@ -516,7 +499,7 @@ public final class HexGui extends JFrame
   }
 
   private void connectProgram(InputStream in, OutputStream out) {
-    m_shell = new HtpShell(this, this);
+    m_shell = new HtpShell(this, this, m_preferences);
     m_shell.addWindowListener(
         new WindowAdapter() {
           public void windowClosing(WindowEvent winEvt) {
@@ -524,6 +507,16 @@ public final class HexGui extends JFrame
           }
         });
     m_white = new HtpController(in, out, m_shell, this);
+    m_statistics.unregister();
+    m_statistics.reset();
+    m_white.setStatistics(m_statistics);
+    m_sync =
+        new HtpSynchronizer(
+            new HtpSynchronizer.Callback() {
+              public void sendCommand(String cmd) {
+                HexGui.this.sendCommand(cmd, null);
+              }
+            });
 
     // get name and version information; block until
     // version is returned.
@@ -535,6 +528,7 @@ public final class HexGui extends JFrame
     releaseSemaphore();
 
     m_shell.setTitle("HexGui: [" + m_white_name + " " + m_white_version + "] Shell");
+    m_statistics.register(m_white_name);
 
     // get list of accepted commands; block until
     // this is completed.
@@ -543,6 +537,11 @@ public final class HexGui extends JFrame
     acquireSemaphore();
     releaseSemaphore();
 
+    acquireSemaphore();
+    htpListCommands(); // releases semaphore when finished
+    acquireSemaphore();
+    releaseSemaphore();
+
     createAnalyzeDialog();
 
     m_toolbar.setProgramConnected(true);
@@ -553,8 +552,8 @@ public final class HexGui extends JFrame
 
     htpBoardsize(m_guiboard.getBoardSize());
 
-    // Replay all moves up to the current node.
-    replayUpToNode(m_current);
+    // Set up the position of the current node.
+    htpSynchronize();
     htpShowboard();
   }
 
@@ -567,37 +566,27 @@ public final class HexGui extends JFrame
       node = node.getParent();
     }
     m_guiboard.clearAll();
-    htpClearBoard();
+    getWinDetector().reset();
     for (int i = path.size() - 1; i >= 0; i--) {
       node = path.elementAt(i);
       if (node.hasMove()) {
-        Move move = node.getMove();
-        guiPlay(move);
-        htpPlay(move);
+        guiPlay(node.getMove());
       }
       if (node.hasSetup()) {
-        playSetup(node);
+        guiPlaySetup(node);
       }
     }
   }
 
   /**
-   * Run HTP commands to set up the current board position from scratch. This may be necessary when
-   * a setup move removes a piece, or changes the color of an existing piece, or when swap-pieces is
-   * played, since there is no valid HTP command to do so.
+   * Bring the attached HTP program and the idle instances of the engine pool to the position of the
+   * current node. Only the moves that differ from the position a program is known to have are
+   * sent; see <code>HtpSynchronizer</code>.
    */
-  private void htpSetUpCurrentBoard() {
-    htpClearBoard();
-    Dimension size = m_guiboard.getBoardSize();
-    for (int y = 0; y < size.height; y++) {
-      for (int x = 0; x < size.width; x++) {
-        HexPoint point = HexPoint.get(x, y);
-        HexColor c = m_guiboard.getColor(point);
-        if (c == HexColor.BLACK || c == HexColor.WHITE) {
-          htpPlay(new Move(point, c));
-        }
-      }
-    }
+  private void htpSynchronize() {
+    if (m_white == null || m_sync == null) return;
+    m_sync.synchronize(m_current, m_guiboard.getPosition());
+    if (m_pool != null) m_pool.synchronize(m_current, m_guiboard.getPosition());
   }
 
   private void cmdDisconnectProgram() {
@@ -614,6 +603,12 @@ public final class HexGui extends JFrame
         m_white_socket = null;
       }
       m_white = null;
+      m_sync = null;
+      m_gfx.invalidate();
+      if (m_pool != null) {
+        m_pool.shutdown();
+        m_pool = null;
+      }
       m_shell.dispose();
       m_shell = null;
       actionDisposeAnalyzeDialog();
@@ -661,8 +656,10 @@ public final class HexGui extends JFrame
       m_tomove = HexColor.BLACK;
       m_toolbar.setToMove(m_tomove.toString());
 
+      m_gfx.invalidate();
       m_root = new Node();
       m_current = m_root;
+      m_sgf = null;
       m_gameinfo = new GameInfo();
       m_gameinfo.setBoardSize(dim);
       stopClock(HexColor.BLACK);
@@ -788,6 +785,13 @@ public final class HexGui extends JFrame
     new PreferencesDialog(this, m_preferences);
   }
 
+  private void cmdShowStatistics() {
+    if (m_statisticsDialog == null) {
+      m_statisticsDialog = new StatisticsDialog(this, m_statistics, m_gfx);
+    }
+    m_statisticsDialog.setVisible(true);
+  }
+
   /**
    * Toggle the player to move, by explicit user request. This also updates the PL property in the
    * current node.
@@ -795,6 +799,7 @@ public final class HexGui extends JFrame
   private void cmdToggleToMove() {
     this.toggleToMove();
     m_current.setPlayerToMove(m_tomove);
+    m_transpositions = null;
   }
 
   /** Toggle the player to move, without setting the PL property */
@@ -812,6 +817,7 @@ public final class HexGui extends JFrame
   private void cmdSetToMove() {
     this.setToMove();
     m_current.setPlayerToMove(m_tomove);
+    m_transpositions = null;
   }
 
   /** Set the player to move, without setting the PL property */
@@ -881,87 +887,91 @@ public final class HexGui extends JFrame
     String cleaned = StringUtils.cleanWhiteSpace(cmd.trim());
     String args[] = cleaned.split(" ");
     String c = args[0];
-    m_curAnalyzeCommand = command;
+    // Captured now: the command object is reused with other arguments, and
+    // pooled commands can finish after later ones were sent.
+    final AnalyzeType resultType = type;
+    final String resultTitle = command.getResultTitle();
+    final String paramCommand = command.getCommand();
 
-    Runnable cb = null;
+    Consumer<HtpController.Response> cb = null;
     switch (type) {
       case GROUP:
         cb =
-            new Runnable() {
-              public void run() {
-                cbGroupGet();
+            new Consumer<HtpController.Response>() {
+              public void accept(HtpController.Response response) {
+                cbGroupGet(response);
               }
             };
         break;
       case GFX:
         cb =
-            new Runnable() {
-              public void run() {
-                cbGfx();
+            new Consumer<HtpController.Response>() {
+              public void accept(HtpController.Response response) {
+                cbGfx(response);
               }
             };
         break;
       case INFERIOR:
         cb =
-            new Runnable() {
-              public void run() {
-                cbShowInferiorCells();
+            new Consumer<HtpController.Response>() {
+              public void accept(HtpController.Response response) {
+                cbShowInferiorCells(response);
               }
             };
         break;
       case MOVE:
         cb =
-            new Runnable() {
-              public void run() {
-                cbGenMove();
+            new Consumer<HtpController.Response>() {
+              public void accept(HtpController.Response response) {
+                cbGenMove(response);
               }
             };
         break;
       case PLIST:
         cb =
-            new Runnable() {
-              public void run() {
-                cbDisplayPointList();
+            new Consumer<HtpController.Response>() {
+              public void accept(HtpController.Response response) {
+                cbDisplayPointList(response);
               }
             };
         break;
       case PSPAIRS:
         cb =
-            new Runnable() {
-              public void run() {
-                cbDisplayPointText();
+            new Consumer<HtpController.Response>() {
+              public void accept(HtpController.Response response) {
+                cbDisplayPointText(response);
               }
             };
         break;
       case PARAM:
         cb =
-            new Runnable() {
-              public void run() {
-                cbEditParameters();
+            new Consumer<HtpController.Response>() {
+              public void accept(HtpController.Response response) {
+                cbEditParameters(response, paramCommand);
               }
             };
         break;
       case VC:
         cb =
-            new Runnable() {
-              public void run() {
-                cbVCs();
+            new Consumer<HtpController.Response>() {
+              public void accept(HtpController.Response response) {
+                cbVCs(response);
               }
             };
         break;
       case STRING:
         cb =
-            new Runnable() {
-              public void run() {
-                cbString();
+            new Consumer<HtpController.Response>() {
+              public void accept(HtpController.Response response) {
+                cbString(response, resultType, resultTitle);
               }
             };
         break;
       case VAR:
         cb =
-            new Runnable() {
-              public void run() {
-                cbVar();
+            new Consumer<HtpController.Response>() {
+              public void accept(HtpController.Response response) {
+                cbVar(response);
               }
             };
         break;
@@ -972,16 +982,38 @@ public final class HexGui extends JFrame
     //     cb = new Runnable() { public void run() { cbDisplayBookScores(); } };
     // else if (c.equals("eval-resist"))
     //     cb = new Runnable() { public void run() { cbEvalResist(); } };
-    Runnable callback = null;
-    if (cb != null) callback = new GuiRunnable(cb);
+    // Commands that do not change the state of the program can run
+    // on an idle instance of the engine pool.
+    if (m_pool != null
+        && type != AnalyzeType.MOVE
+        && type != AnalyzeType.PARAM
+        && !commandNeedsToLockGUI(cmd)
+        && m_pool.dispatch(m_current, m_guiboard.getPosition(), cmd + "\n", cb)) {
+      m_statusbar.setMessage("Running " + c + " in the engine pool");
+      return;
+    }
+    Consumer<HtpController.Response> callback = null;
+    if (cb != null) callback = new GuiCallback(cb);
     sendCommand(cmd + "\n", callback);
   }
 
+  /** EnginePool.Listener. Runs the callback of a pooled command if the position did not change. */
+  public void commandFinished(
+      HtpController.Response response, Node node, Consumer<HtpController.Response> callback) {
+    if (node != m_current) {
+      s_log.debug("discarding pooled result for an old position.");
+      return;
+    }
+    m_gfx.invalidate();
+    callback.accept(response);
+  }
+
   /**
    * HtpShell Callback. By the name of the command it choose the proper callback function. Arguments
    * are passed as given.
    */
   public void commandEntered(String cmd) {
+    if (m_sync != null && HtpSynchronizer.changesPosition(cmd)) m_sync.invalidate();
     sendCommand(cmd, null);
   }
 
@@ -1011,13 +1043,17 @@ public final class HexGui extends JFrame
   private class HtpCommand {
     public HtpCommand() {}
 
-    public HtpCommand(String cmd, Runnable callback) {
+    public HtpCommand(String cmd, Consumer<HtpController.Response> callback) {
       this.str = cmd;
       this.callback = callback;
+      this.queued = System.nanoTime();
     }
 
     public String str;
-    public Runnable callback;
+    public Consumer<HtpController.Response> callback;
+
+    /** Time the command was added to the queue. */
+    public long queued;
   }
 
   /** Waits for commands to be added to the queue, then processes each in turn. */
@@ -1034,42 +1070,94 @@ public final class HexGui extends JFrame
         try {
           // block until queue contains an element
           cmd = m_queue.take();
+          m_statistics.getCommand(cmd.str).queued(System.nanoTime() - cmd.queued);
+          m_statistics.queueDepth(m_queue.size());
         } catch (InterruptedException e) {
-          System.out.println("INTERRUPTED! HUH?");
+          s_log.warn("command handler interrupted.");
         }
 
         if (m_white != null && m_white.connected()) {
+          // Commands nobody waits for are written back to back
+          // without waiting for their responses, so that long
+          // sequences like replaying a game cost about one round
+          // trip to the program.
+          if (cmd.callback == null && !commandNeedsToLockGUI(cmd.str)) {
+            m_white
+                .send(cmd.str)
+                .exceptionally(
+                    new Function<Throwable, HtpController.Response>() {
+                      public HtpController.Response apply(Throwable e) {
+                        s_log.debug("caught error '{}'", e.getMessage());
+                        showError(e.getMessage());
+                        return null;
+                      }
+                    });
+            continue;
+          }
+
           if (commandNeedsToLockGUI(cmd.str)) lockGUI();
 
           try {
-            m_white.sendCommand(cmd.str);
+            HtpController.Response response = m_white.sendCommand(cmd.str);
+            // Gfx output of the command that was not drawn yet must
+            // not be drawn over its result.
+            m_gfx.invalidate();
             if (cmd.callback != null) {
-              cmd.callback.run();
+              cmd.callback.accept(response);
             }
           } catch (HtpError e) {
-            System.out.println("Caught error '" + e.getMessage() + "'");
-            ShowError.msg(m_parent, e.getMessage());
+            s_log.debug("caught error '{}'", e.getMessage());
+            showError(e.getMessage());
           }
 
           if (commandNeedsToLockGUI(cmd.str)) unlockGUI();
         } else {
-          System.out.println("Not sending to disconnected: '" + cmd.str.trim() + "'");
+          s_log.info("not sending to disconnected: '{}'", cmd.str);
         }
       }
     }
 
+    /** Shows an error message; called in the thread of the handler or the reader. */
+    private void showError(final String message) {
+      SwingUtilities.invokeLater(
+          new Runnable() {
+            public void run() {
+              ShowError.msg(m_parent, message);
+            }
+          });
+    }
+
     Component m_parent;
     ArrayBlockingQueue<HtpCommand> m_queue;
   }
 
-  private void sendCommand(String cmd, Runnable callback) {
+  /** Callback that runs another callback with the same response in the event dispatch thread. */
+  private static class GuiCallback implements Consumer<HtpController.Response> {
+    public GuiCallback(Consumer<HtpController.Response> callback) {
+      m_callback = callback;
+    }
+
+    public void accept(final HtpController.Response response) {
+      SwingUtilities.invokeLater(
+          new Runnable() {
+            public void run() {
+              m_callback.accept(response);
+            }
+          });
+    }
+
+    private final Consumer<HtpController.Response> m_callback;
+  }
+
+  private void sendCommand(String cmd, Consumer<HtpController.Response> callback) {
     if (m_white == null) return;
 
     try {
-      System.out.println("sendCommand: '" + cmd.trim() + "'");
+      s_log.debug("sendCommand: '{}'", cmd);
       m_htp_queue.put(new HtpCommand(cmd, callback));
+      m_statistics.queueDepth(m_htp_queue.size());
     } catch (InterruptedException e) {
-      System.out.println("Interrupted while adding!");
+      s_log.warn("interrupted while adding '{}'", cmd);
     }
   }
 
@@ -1079,119 +1167,98 @@ public final class HexGui extends JFrame
   }
 
   private void htpName() {
-    Runnable cb =
-        new Runnable() {
-          public void run() {
-            cbName();
+    Consumer<HtpController.Response> cb =
+        new Consumer<HtpController.Response>() {
+          public void accept(HtpController.Response response) {
+            cbName(response);
           }
         };
     sendCommand("name\n", cb);
   }
 
   private void htpVersion() {
-    Runnable cb =
-        new Runnable() {
-          public void run() {
-            cbVersion();
+    Consumer<HtpController.Response> cb =
+        new Consumer<HtpController.Response>() {
+          public void accept(HtpController.Response response) {
+            cbVersion(response);
           }
         };
     sendCommand("version\n", cb);
   }
 
-  private void htpAnalyzeCommands() {
-    Runnable cb =
-        new Runnable() {
-          public void run() {
-            cbAnalyzeCommands();
+  private void htpListCommands() {
+    Consumer<HtpController.Response> cb =
+        new Consumer<HtpController.Response>() {
+          public void accept(HtpController.Response response) {
+            cbListCommands(response);
           }
         };
-    sendCommand("hexgui-analyze_commands\n", cb);
+    sendCommand("list_commands\n", cb);
   }
 
-  private void htpClearBoard() {
-    sendCommand("clear_board\n", null);
+  private void htpAnalyzeCommands() {
+    Consumer<HtpController.Response> cb =
+        new Consumer<HtpController.Response>() {
+          public void accept(HtpController.Response response) {
+            cbAnalyzeCommands(response);
+          }
+        };
+    sendCommand("hexgui-analyze_commands\n", cb);
   }
 
   private void htpShowboard() {
     sendCommand("showboard\n", null);
   }
 
-  /**
-   * Play a move on the attached HTP backend. This only works if move is a legal move of color black
-   * or white. There is no HTP command for setup moves that remove a piece, or that change the color
-   * of an already existing piece, and swap, pass, resign, and forfeit moves are possibly not
-   * implemented in HTP, or may not be undoable correctly. If the move is swap-pieces, just update
-   * HTP to the current board position; so gui should always be updated before calling this.
-   */
-  private void htpPlay(Move move) {
-    if (move.getPoint() == HexPoint.RESIGN
-        || move.getPoint() == HexPoint.FORFEIT
-        || move.getPoint() == HexPoint.SWAP_SIDES
-        || move.getPoint() == HexPoint.PASS) {
-      return;
-    }
-    if (move.getPoint() == HexPoint.SWAP_PIECES) {
-      htpSetUpCurrentBoard();
-      return;
-    }
-    sendCommand(
-        "play " + move.getColor().toString() + " " + move.getPoint().toString() + "\n", null);
-  }
-
-  /** GUI must already be updated prior to calling this. */
-  private void htpUndo(Move move) {
-    if (move.getPoint() == HexPoint.RESIGN
-        || move.getPoint() == HexPoint.FORFEIT
-        || move.getPoint() == HexPoint.SWAP_SIDES
-        || move.getPoint() == HexPoint.PASS) {
-      return;
-    }
-    sendCommand("undo\n", null);
-  }
-
   private void htpGenMove(HexColor color) {
     if (!checkBoardSizeSupported()) return;
     m_statusbar.setMessage(format("{0} is thinking...", m_white_name));
-    Runnable callback =
-        new GuiRunnable(
-            new Runnable() {
-              public void run() {
-                cbGenMove();
+    Consumer<HtpController.Response> callback =
+        new GuiCallback(
+            new Consumer<HtpController.Response>() {
+              public void accept(HtpController.Response response) {
+                cbGenMove(response);
               }
             });
     sendCommand("genmove " + color.toString() + "\n", callback);
   }
 
   private void htpBoardsize(Dimension size) {
-    Runnable callback =
-        new Runnable() {
-          public void run() {
-            m_unsupportedBoardSize = !m_white.wasSuccess();
+    Consumer<HtpController.Response> callback =
+        new Consumer<HtpController.Response>() {
+          public void accept(HtpController.Response response) {
+            m_unsupportedBoardSize = !response.isSuccess();
             checkBoardSizeSupported();
           }
         };
     sendCommand("boardsize " + size.width + " " + size.height + "\n", callback);
+    if (m_sync != null) m_sync.reset();
     m_statusbar.setMessage("New game");
   }
 
   //
   // Callbacks
   //
-  public void cbName() {
-    String str = m_white.getResponse();
+  public void cbName(HtpController.Response response) {
+    String str = response.getText();
     // FIXME: handle errors!
     m_white_name = str.trim();
   }
 
-  public void cbVersion() {
-    String str = m_white.getResponse();
+  public void cbVersion(HtpController.Response response) {
+    String str = response.getText();
     // FIXME: handle errors!
     m_white_version = str.trim();
     releaseSemaphore();
   }
 
-  private void cbAnalyzeCommands() {
-    String programAnalyzeCommands = m_white.getResponse();
+  public void cbListCommands(HtpController.Response response) {
+    if (response.isSuccess()) m_sync.setSupportedCommands(response.getText());
+    releaseSemaphore();
+  }
+
+  private void cbAnalyzeCommands(HtpController.Response response) {
+    String programAnalyzeCommands = response.getText();
     try {
       m_analyzeCommands = AnalyzeDefinition.read(programAnalyzeCommands);
     } catch (ErrorMessage e) {
@@ -1200,21 +1267,23 @@ public final class HexGui extends JFrame
     releaseSemaphore();
   }
 
-  public void cbGenMove() {
-    if (!m_white.wasSuccess()) return;
+  public void cbGenMove(HtpController.Response response) {
+    if (!response.isSuccess()) return;
     m_guiboard.clearMarks();
-    String str = m_white.getResponse();
+    String str = response.getText();
     HexPoint point = HexPoint.get(str.trim());
     if (point == null) {
       System.out.println("Invalid move!!");
     } else {
-      play(new Move(point, m_tomove));
+      Move move = new Move(point, m_tomove);
+      play(move);
+      if (m_sync != null) m_sync.played(move);
     }
   }
 
-  public void cbDisplayPointList() {
-    if (!m_white.wasSuccess()) return;
-    String str = m_white.getResponse();
+  public void cbDisplayPointList(HtpController.Response response) {
+    if (!response.isSuccess()) return;
+    String str = response.getText();
     Vector<HexPoint> points = StringUtils.parsePointList(str);
     m_guiboard.clearMarks();
     for (int i = 0; i < points.size(); i++) {
@@ -1223,16 +1292,16 @@ public final class HexGui extends JFrame
     m_guiboard.repaint();
   }
 
-  private void cbDfpnDisplayBounds() {
-    if (!m_white.wasSuccess()) return;
-    String str = m_white.getResponse();
+  private void cbDfpnDisplayBounds(HtpController.Response response) {
+    if (!response.isSuccess()) return;
+    String str = response.getText();
     showDfpnBounds(str);
     m_guiboard.repaint();
   }
 
-  public void cbGroupGet() {
-    if (!m_white.wasSuccess()) return;
-    String str = m_white.getResponse();
+  public void cbGroupGet(HtpController.Response response) {
+    if (!response.isSuccess()) return;
+    String str = response.getText();
     Vector<HexPoint> points = StringUtils.parsePointList(str);
     m_guiboard.clearMarks();
     if (points.size() > 0) {
@@ -1244,12 +1313,12 @@ public final class HexGui extends JFrame
     m_guiboard.repaint();
   }
 
-  public void cbGfx() {
-    if (!m_white.wasSuccess()) return;
+  public void cbGfx(HtpController.Response response) {
+    if (!response.isSuccess()) return;
     m_guiboard.clearMarks();
     m_guiboard.aboutToDirtyStones();
 
-    String fx = m_white.getResponse();
+    String fx = response.getText();
     int inf = fx.indexOf("INFLUENCE");
     if (inf < 0) return;
     boolean hasText = false;
@@ -1271,39 +1340,38 @@ public final class HexGui extends JFrame
     m_guiboard.repaint();
   }
 
-  public void cbShowInferiorCells() {
-    if (!m_white.wasSuccess()) return;
+  public void cbShowInferiorCells(HtpController.Response response) {
+    if (!response.isSuccess()) return;
     m_guiboard.clearMarks();
     m_guiboard.aboutToDirtyStones();
-    showInferiorCells(m_white.getResponse());
+    showInferiorCells(response.getText());
     m_guiboard.repaint();
   }
 
-  public void cbVCs() {
-    if (!m_white.wasSuccess()) return;
-    String str = m_white.getResponse();
+  public void cbVCs(HtpController.Response response) {
+    if (!response.isSuccess()) return;
+    String str = response.getText();
     Vector<VC> vcs = StringUtils.parseVCList(str);
     new VCDisplayDialog(this, m_guiboard, vcs);
   }
 
-  public void cbString() {
-    if (!m_white.wasSuccess()) return;
-    String showText = m_white.getResponse();
-    String title = m_curAnalyzeCommand.getResultTitle();
+  public void cbString(HtpController.Response response, AnalyzeType type, String title) {
+    if (!response.isSuccess()) return;
+    String showText = response.getText();
     if (showText != null) {
       if (showText.indexOf("\n") < 0) {
         if (showText.trim().equals("")) showText = "(empty response)";
         m_statusbar.setMessage(format("{0}: {1}", title, showText));
       } else {
         HexPoint pointArg = null;
-        m_showAnalyzeText.show(m_curAnalyzeCommand.getType(), pointArg, title, showText, false);
+        m_showAnalyzeText.show(type, pointArg, title, showText, false);
       }
     }
   }
 
-  public void cbVar() {
-    if (!m_white.wasSuccess()) return;
-    String str = m_white.getResponse();
+  public void cbVar(HtpController.Response response) {
+    if (!response.isSuccess()) return;
+    String str = response.getText();
     Vector<HexPoint> points = StringUtils.parsePointList(str, " ");
     m_guiboard.clearMarks();
     m_guiboard.aboutToDirtyStones();
@@ -1316,9 +1384,9 @@ public final class HexGui extends JFrame
     m_guiboard.repaint();
   }
 
-  public void cbDisplayPointText() {
-    if (!m_white.wasSuccess()) return;
-    String str = m_white.getResponse();
+  public void cbDisplayPointText(HtpController.Response response) {
+    if (!response.isSuccess()) return;
+    String str = response.getText();
     Vector<Pair<String, String>> pairs = StringUtils.parseStringPairList(str);
     m_guiboard.clearMarks();
     for (int i = 0; i < pairs.size(); i++) {
@@ -1329,9 +1397,9 @@ public final class HexGui extends JFrame
     m_guiboard.repaint();
   }
 
-  public void cbDisplayBookScores() {
-    if (!m_white.wasSuccess()) return;
-    String str = m_white.getResponse();
+  public void cbDisplayBookScores(HtpController.Response response) {
+    if (!response.isSuccess()) return;
+    String str = response.getText();
     Vector<Pair<String, String>> pairs = StringUtils.parseStringPairList(str);
     m_guiboard.clearMarks();
     for (int i = 0; i < pairs.size(); i++) {
@@ -1344,9 +1412,9 @@ public final class HexGui extends JFrame
     m_guiboard.repaint();
   }
 
-  public void cbEvalResist() {
-    if (!m_white.wasSuccess()) return;
-    String str = m_white.getResponse();
+  public void cbEvalResist(HtpController.Response response) {
+    if (!response.isSuccess()) return;
+    String str = response.getText();
     Vector<Pair<String, String>> pairs = StringUtils.parseStringPairList(str);
     String res = "";
     String rew = "";
@@ -1370,254 +1438,41 @@ public final class HexGui extends JFrame
     m_statusbar.setMessage("Resistance: " + res + " (" + rew + " - " + reb + ")");
   }
 
-  public void cbEditParameters() {
-    if (!m_white.wasSuccess()) return;
-    String response = m_white.getResponse();
+  public void cbEditParameters(HtpController.Response response, String paramCommand) {
+    if (!response.isSuccess()) return;
     ParameterDialog.editParameters(
-        m_curAnalyzeCommand.getCommand(),
+        paramCommand,
         this,
         "Edit Parameters",
-        response,
+        response.getText(),
         m_white,
         m_messageDialogs);
   }
 
-  public void cbSolveState() {
-    if (!m_white.wasSuccess()) return;
-    String response = m_white.getResponse();
-    m_statusbar.setMessage(format("Winning: {0}", response));
+  public void cbSolveState(HtpController.Response response) {
+    if (!response.isSuccess()) return;
+    m_statusbar.setMessage(format("Winning: {0}", response.getText()));
   }
 
   // ==================================================
   // gfx commands
   // ==================================================
+  /** HtpController.GuiFxCallback; called in the thread reading the responses of the program. */
   public void guifx(String fx) {
-    System.out.println("gogui-gfx:\n'" + fx + "'");
-
-    if (fx.length() > 3 && fx.substring(0, 3).equals("uct")) guifx_uct(fx.substring(3));
-    else if (fx.length() > 2 && fx.substring(0, 2).equals("ab")) guifx_ab(fx.substring(2));
-    else if (fx.length() > 4 && fx.substring(0, 4).equals("dfpn")) guifx_dfpn(fx.substring(4));
-    else if (fx.length() > 6 && fx.substring(0, 6).equals("solver")) guifx_solver(fx.substring(6));
-  }
-
-  private void guifx_uct(String fx) {
-    String[] tk = fx.trim().split(" ");
-    int i = 0;
-
-    m_guiboard.clearMarks();
-    m_guiboard.aboutToDirtyStones();
-
-    /**
-     * @todo Fix this to parse like guifx_ab() and guifx_solver().
-     */
-
-    //////////////////////////////////////
-    // display variation
-    for (; i < tk.length; ++i) {
-      String s = tk[i].trim();
-      if (s.equals("VAR")) break;
-    }
-    if (i == tk.length) return;
-    ++i; // skip "VAR";
-
-    Vector<HexPoint> var = new Vector<HexPoint>();
-    Vector<HexColor> col = new Vector<HexColor>();
-    for (; i < tk.length; ) {
-      String s = tk[i].trim();
-      if (s.equals("INFLUENCE")) break;
-      ++i; // skip 'B' and 'W'
-
-      col.add((s.charAt(0) == 'B') ? HexColor.BLACK : HexColor.WHITE);
-      HexPoint point = HexPoint.get(tk[i++].trim());
-      var.add(point);
-    }
-
-    m_guiboard.setColor(var.get(0), col.get(0));
-    m_guiboard.setAlphaColor(var.get(0), Color.cyan);
-    if (var.size() > 1) {
-      m_guiboard.setColor(var.get(1), col.get(1));
-      m_guiboard.setAlphaColor(var.get(1), Color.blue);
-    }
-
-    /////////////////////////////////////////
-    // display score/search counts
-
-    TreeMap<HexPoint, String> map = new TreeMap<HexPoint, String>();
-
-    ++i; // skip 'INFLUENCE'
-    for (; i < tk.length; ) {
-      String s = tk[i].trim();
-      if (s.equals("LABEL")) break;
-
-      HexPoint point = HexPoint.get(tk[i++].trim());
-      String score = tk[i++].trim();
-      map.put(point, score);
-      if (score.equals("W")) m_guiboard.setAlphaColor(point, Color.green);
-      else if (score.equals("L")) m_guiboard.setAlphaColor(point, Color.red);
-    }
-
-    ++i; // skip "LABEL";
-    for (; i < tk.length; ) {
-      String s = tk[i].trim();
-      if (s.equals("TEXT")) break;
-
-      HexPoint point = HexPoint.get(tk[i++].trim());
-
-      String old = map.get(point);
-      if (old == null) old = "";
-      map.put(point, old + "@" + tk[i++].trim());
-    }
-
-    Iterator<Map.Entry<HexPoint, String>> it = map.entrySet().iterator();
-    while (it.hasNext()) {
-      Map.Entry<HexPoint, String> e = it.next();
-      m_guiboard.setText(e.getKey(), e.getValue());
-    }
-
-    m_guiboard.repaint();
-    m_statusbar.setMessage(fx.substring(fx.indexOf("TEXT") + 5));
-  }
-
-  private void guifx_ab(String fx) {
-    m_guiboard.clearMarks();
-    m_guiboard.aboutToDirtyStones();
-
-    int var = fx.indexOf("VAR");
-    int label = fx.indexOf("LABEL");
-    int text = fx.indexOf("TEXT");
-
-    Vector<Pair<HexColor, HexPoint>> vr = StringUtils.parseVariation(fx.substring(var + 3, label));
-    if (vr.size() > 0) {
-      m_guiboard.setColor(vr.get(0).second, vr.get(0).first);
-      m_guiboard.setAlphaColor(vr.get(0).second, Color.green);
-      if (vr.size() >= 2) {
-        m_guiboard.setColor(vr.get(1).second, vr.get(1).first);
-        m_guiboard.setAlphaColor(vr.get(1).second, Color.red);
-      }
-    }
-    String label_str = fx.substring(label + 5, text).trim();
-    Vector<Pair<String, String>> labels = StringUtils.parseStringPairList(label_str);
-    for (int i = 0; i < labels.size(); ++i) {
-      HexPoint pt = HexPoint.get(labels.get(i).first);
-      m_guiboard.setText(pt, labels.get(i).second);
-    }
-    m_guiboard.repaint();
-    m_statusbar.setMessage(fx.substring(text + 5));
-  }
-
-  private void guifx_solver(String fx) {
-    m_guiboard.clearMarks();
-    m_guiboard.aboutToDirtyStones();
-    m_statusbar.setProgressVisible(true);
-
-    int var = fx.indexOf("VAR");
-    int label = fx.indexOf("LABEL");
-    int text = fx.indexOf("TEXT");
-
-    Vector<Pair<HexColor, HexPoint>> vr = StringUtils.parseVariation(fx.substring(var + 3, label));
-    for (int i = 0; i < vr.size(); ++i) {
-      m_guiboard.setColor(vr.get(i).second, vr.get(i).first);
-      m_guiboard.setText(vr.get(i).second, Integer.toString(i + 1));
-    }
-
-    String label_str = fx.substring(label + 5, text).trim();
-    showInferiorCells(label_str);
-
-    String prog_str = fx.substring(text + 4).trim();
-    String[] levels = prog_str.split(" ");
-
-    double contribution = 1.0;
-    double progress = 0.0;
-    for (int i = 0; i < levels.length; ++i) {
-      String[] nums = levels[i].trim().split("/");
-      int cur = Integer.decode(nums[0]).intValue();
-      int max = Integer.decode(nums[1]).intValue();
-      progress += contribution * cur / max;
-      contribution *= 1.0 / max;
-    }
-    m_guiboard.repaint();
-    m_statusbar.setMessage(fx.substring(text + 5));
-    m_statusbar.setProgress(progress);
-  }
-
-  private void guifx_dfpn(String fx) {
-    m_guiboard.clearMarks();
-    m_guiboard.aboutToDirtyStones();
-
-    int var = fx.indexOf("VAR");
-    int label = fx.indexOf("LABEL");
-    int text = fx.indexOf("TEXT");
-
-    Vector<Pair<HexColor, HexPoint>> vr = StringUtils.parseVariation(fx.substring(var + 3, label));
-    for (int i = 0; i < vr.size(); ++i) {
-      m_guiboard.setColor(vr.get(i).second, vr.get(i).first);
-      m_guiboard.setText(vr.get(i).second, Integer.toString(i + 1));
-      m_guiboard.setAlphaColor(vr.get(i).second, Color.blue);
-    }
-    String label_str = fx.substring(label + 5, text).trim();
-    showDfpnBounds(label_str);
-
-    m_guiboard.repaint();
-    m_statusbar.setMessage(fx.substring(text + 5));
+    m_gfx.publish(fx);
   }
 
   private void showDfpnBounds(String str) {
-    Vector<Pair<String, String>> pairs = StringUtils.parseStringPairList(str);
-    for (int i = 0; i < pairs.size(); i++) {
-      HexPoint point = HexPoint.get(pairs.get(i).first);
-      String value = pairs.get(i).second;
-      m_guiboard.setText(point, value);
-      if (value.trim().equals("W")) m_guiboard.setAlphaColor(point, Color.green);
-      else if (value.trim().equals("L")) m_guiboard.setAlphaColor(point, Color.red);
-    }
+    GfxFrame frame = new GfxFrame();
+    frame.addDfpnBounds(str);
+    frame.draw(m_guiboard);
   }
 
   /** Draws the inferior cells to the gui board. */
   private void showInferiorCells(String str) {
-    Vector<Pair<String, String>> pairs = StringUtils.parseStringPairList(str);
-    for (int i = 0; i < pairs.size(); i++) {
-      HexPoint point = HexPoint.get(pairs.get(i).first);
-      String value = pairs.get(i).second;
-
-      if (value.charAt(0) == 'f') // fill-in
-      {
-        assert (3 == value.length());
-        if (value.charAt(1) == 'd') // dead
-        m_guiboard.setAlphaColor(point, Color.cyan);
-        else if (value.charAt(1) == 'p') // permanently inferior
-        m_guiboard.setAlphaColor(point, Color.gray);
-        else // captured
-        {
-          assert (value.charAt(1) == 'c');
-          m_guiboard.setAlphaColor(point, Color.red);
-        }
-        if (value.charAt(2) == 'b') m_guiboard.setColor(point, HexColor.BLACK);
-        else {
-          assert (value.charAt(2) == 'w');
-          m_guiboard.setColor(point, HexColor.WHITE);
-        }
-      } else if (value.charAt(0) == 'i') // ignorable
-      {
-        assert (4 <= value.length());
-        if (value.charAt(1) == 'v') // vulnerable
-        m_guiboard.setAlphaColor(point, Color.green);
-        else if (value.charAt(1) == 'r') // reversible
-        m_guiboard.setAlphaColor(point, Color.magenta);
-        else // dominated
-        {
-          assert (value.charAt(1) == 'd');
-          m_guiboard.setAlphaColor(point, Color.yellow);
-        }
-        assert (value.charAt(2) == '[' && value.charAt(value.length() - 1) == ']');
-        String pts = value.substring(3, value.length() - 1);
-        Vector<HexPoint> pp = StringUtils.parsePointList(pts, "-");
-        for (int j = 0; j < pp.size(); ++j) m_guiboard.addArrow(point, pp.get(j));
-      } else // not in consider set
-      {
-        assert (value.charAt(0) == 'x');
-        m_guiboard.setAlphaColor(point, Color.gray);
-      }
-    }
+    GfxFrame frame = new GfxFrame();
+    frame.addInferiorCells(str);
+    frame.draw(m_guiboard);
   }
 
   // ------------------------------------------------------------
@@ -1708,10 +1563,12 @@ public final class HexGui extends JFrame
 
   public void humanMove(Move move) {
     play(move);
-    htpPlay(move);
+    htpSynchronize();
     htpShowboard();
-    if (!m_guiboard.isBoardFull() && m_preferences.getBoolean("auto-respond") && m_program != null)
-      htpGenMove(m_tomove);
+    if (!m_guiboard.isBoardFull()
+        && getWinner() == HexColor.EMPTY
+        && m_preferences.getBoolean("auto-respond")
+        && m_program != null) htpGenMove(m_tomove);
   }
 
   /**
@@ -1726,10 +1583,42 @@ public final class HexGui extends JFrame
     } else {
       m_guiboard.setColor(move.getPoint(), move.getColor());
     }
+    trackMove(move);
     m_guiboard.clearMarks();
     markLastPlayedStone();
   }
 
+  /** Feeds a move that was just played on the board to the win detector. */
+  private void trackMove(Move move) {
+    if (move.getPoint() == HexPoint.SWAP_PIECES) getWinDetector().reset();
+    else getWinDetector().play(move.getPoint(), move.getColor());
+  }
+
+  /**
+   * Returns the win detector for the board, creating a new one if the board has been resized or
+   * changed type since it was last used.
+   */
+  private WinDetector getWinDetector() {
+    Position position = m_guiboard.getPosition();
+    if (m_winDetector == null || !m_winDetector.isFor(position)) {
+      m_winDetector = new WinDetector(position);
+    }
+    return m_winDetector;
+  }
+
+  /**
+   * Returns the winner of the game in the current node, or EMPTY if the game is not over. A player
+   * wins by completing a connection, or when the opponent resigns or forfeits.
+   */
+  private HexColor getWinner() {
+    if (m_current.hasMove()) {
+      Move move = m_current.getMove();
+      if (move.getPoint() == HexPoint.RESIGN || move.getPoint() == HexPoint.FORFEIT)
+        return move.getColor().otherColor();
+    }
+    return getWinDetector().getWinner();
+  }
+
   public boolean isSwapAllowed() {
     // Count the number of pieces on the board.
     int count = m_guiboard.numberOfPieces();
@@ -1739,19 +1628,21 @@ public final class HexGui extends JFrame
   }
 
   private void play(Move move) {
-    // see if variation already exists; if so, do not add a duplicate
-    int variation = -1;
-    for (int i = 0; i < m_current.numChildren(); i++) {
-      Node child = m_current.getChild(i);
-      if (child.hasMove() && move.equals(child.getMove())) {
-        variation = i;
-        break;
-      }
-    }
-
-    if (variation != -1) {
+    // Compute the key of the position after the move, and use it
+    // to see if the variation already exists; if so, do not add a
+    // duplicate.
+    m_guiboard.clearMarks();
+    m_gfx.invalidate();
+    Node node = new Node(move);
+    node.setParent(m_current);
+    Position position = new Position(m_guiboard.getPosition());
+    TranspositionIndex.play(position, move);
+    long key = TranspositionIndex.getKey(position, node.getPlayerToMove());
+    Node variation = getTranspositions().getChild(m_current, key, move);
+
+    if (variation != null) {
       // variation already exists
-      m_current = m_current.getChild(variation);
+      m_current = variation;
 
     } else {
       if (move.getPoint() == HexPoint.SWAP_SIDES || move.getPoint() == HexPoint.SWAP_PIECES) {
@@ -1776,8 +1667,8 @@ public final class HexGui extends JFrame
       }
 
       // add new node
-      Node node = new Node(move);
       m_current.addChild(node);
+      getTranspositions().add(node, key);
       m_current = node;
     }
     m_current.markRecent();
@@ -1796,8 +1687,16 @@ public final class HexGui extends JFrame
     guiPlay(move);
     m_toolbar.updateButtonStates(m_current, this);
     m_menubar.updateMenuStates(this);
-    m_statusbar.setMessage(
-        m_current.getDepth() + " " + move.getColor().toString() + " " + move.getPoint().toString());
+    String msg =
+        m_current.getDepth() + " " + move.getColor().toString() + " " + move.getPoint().toString();
+    HexColor winner = getWinner();
+    if (winner != HexColor.EMPTY) {
+      stopClock();
+      msg += " - " + winner.toString() + " wins";
+    }
+    int transpositions = getTranspositions().numTranspositions(m_current);
+    if (transpositions > 0) msg += " - transposition (" + transpositions + " more)";
+    m_statusbar.setMessage(msg);
     setComment(m_current);
 
     setFrameTitle();
@@ -1814,10 +1713,15 @@ public final class HexGui extends JFrame
    * consecutive setup nodes.
    */
   private void addSetupNode() {
+    m_gfx.invalidate();
+    // Get the index first, or a new index would already contain the node.
+    TranspositionIndex transpositions = getTranspositions();
     Node setup = new Node();
     setup.setPlayerToMove(m_tomove);
     m_current.addChild(setup);
     m_current = setup;
+    long key = TranspositionIndex.getKey(m_guiboard.getPosition(), m_current.getPlayerToMove());
+    transpositions.add(m_current, key);
     m_current.markRecent();
     refreshGuiForBoardState();
     m_statusbar.setMessage("Added a new setup node");
@@ -1834,14 +1738,17 @@ public final class HexGui extends JFrame
     }
 
     m_guiboard.clearMarks();
+    m_gfx.invalidate();
 
     // add the setup stone to the set of setup stones
     m_current.addSetup(move.getColor(), move.getPoint());
 
     m_guiboard.setColor(move.getPoint(), move.getColor());
+    getWinDetector().reset();
+    getTranspositions().update(m_current, m_guiboard.getPosition());
     m_guiboard.paintImmediately();
 
-    htpSetUpCurrentBoard();
+    htpSynchronize();
     htpShowboard();
 
     setFrameTitle();
@@ -1885,11 +1792,7 @@ public final class HexGui extends JFrame
       HexPoint point = empty.get(j);
       m_guiboard.setColor(point, HexColor.EMPTY);
     }
-  }
-
-  private void playSetup(Node node) {
-    guiPlaySetup(node);
-    htpSetUpCurrentBoard();
+    getWinDetector().reset();
   }
 
   // Undo the setup moves of the given node. Since the setup moves
@@ -1909,6 +1812,7 @@ public final class HexGui extends JFrame
       if (move.getPoint() == HexPoint.SWAP_PIECES) {
         m_guiboard.swapPieces();
       }
+      trackMove(move);
       m_statusbar.setMessage(
           node.getDepth() + " " + move.getColor().toString() + " " + move.getPoint().toString());
     }
@@ -1917,25 +1821,6 @@ public final class HexGui extends JFrame
     }
   }
 
-  // Play the given node in the Gui and HTP. For HTP, setup moves
-  // and swap-pieces moves are special cases, as they aren't in
-  // general supported by HTP. So we rebuild the board from scratch
-  // in these cases.
-  private void playNode(Node node) {
-    guiPlayNode(node);
-    if (node.hasMove()) {
-      Move move = node.getMove();
-      if (move.getPoint() == HexPoint.SWAP_PIECES) {
-        htpSetUpCurrentBoard();
-      } else {
-        htpPlay(move);
-      }
-    }
-    if (node.hasSetup()) {
-      htpSetUpCurrentBoard();
-    }
-  }
-
   private void undoNode(Node node) {
     if (node.hasMove()) {
       Move move = node.getMove();
@@ -1945,11 +1830,10 @@ public final class HexGui extends JFrame
         m_guiboard.swapPieces();
       } else {
         m_guiboard.setColor(move.getPoint(), HexColor.EMPTY);
+        if (!getWinDetector().undo(move.getPoint())) getWinDetector().reset();
       }
       if (move.getPoint() == HexPoint.SWAP_PIECES) {
         replayUpToNode(node.getParent());
-      } else {
-        htpUndo(move);
       }
     }
     if (node.hasSetup()) {
@@ -1959,6 +1843,7 @@ public final class HexGui extends JFrame
   }
 
   private void refreshGuiForBoardState() {
+    checkLoadError();
     markLastPlayedStone();
     m_guiboard.repaint();
     m_toolbar.updateButtonStates(m_current, this);
@@ -1966,19 +1851,23 @@ public final class HexGui extends JFrame
     setFrameTitle();
 
     setComment(m_current);
+    String msg;
     if (m_current.hasMove()) {
       Move move = m_current.getMove();
-      m_statusbar.setMessage(
+      msg =
           m_current.getDepth()
               + " "
               + move.getColor().toString()
               + " "
-              + move.getPoint().toString());
+              + move.getPoint().toString();
     } else if (m_current.hasSetup()) {
-      m_statusbar.setMessage(m_current.getDepth() + " " + "setup");
+      msg = m_current.getDepth() + " " + "setup";
     } else {
-      m_statusbar.setMessage(m_current.getDepth() + "");
+      msg = m_current.getDepth() + "";
     }
+    HexColor winner = getWinner();
+    if (winner != HexColor.EMPTY) msg += " - " + winner.toString() + " wins";
+    m_statusbar.setMessage(msg);
     if (m_current.hasLabel()) displayLabels(m_current);
     if (m_current.hasCount()) System.out.println("Count: " + m_current.getCount());
     determineColorToMove();
@@ -1993,14 +1882,16 @@ public final class HexGui extends JFrame
   /** Forward by n moves, or to the very end if n == -1 */
   private void forward(int n) {
     m_guiboard.clearMarks();
+    m_gfx.invalidate();
 
     for (int i = 0; i < n || n == -1; ++i) {
       Node child = m_current.getRecentChild();
       if (child == null) break;
 
-      playNode(child);
+      guiPlayNode(child);
       m_current = child;
     }
+    htpSynchronize();
     stopClock();
     refreshGuiForBoardState();
   }
@@ -2008,6 +1899,7 @@ public final class HexGui extends JFrame
   /** Rewind by n moves, or to the very start if n == -1 */
   private void backward(int n) {
     m_guiboard.clearMarks();
+    m_gfx.invalidate();
 
     for (int i = 0; i < n || n == -1; ++i) {
       if (m_current == m_root) break;
@@ -2015,6 +1907,7 @@ public final class HexGui extends JFrame
       undoNode(m_current);
       m_current = m_current.getParent();
     }
+    htpSynchronize();
     stopClock();
     refreshGuiForBoardState();
   }
@@ -2022,9 +1915,11 @@ public final class HexGui extends JFrame
   private void down() {
     if (m_current.getNext() != null) {
       m_guiboard.clearMarks();
+      m_gfx.invalidate();
       undoNode(m_current);
       m_current = m_current.getNext();
-      playNode(m_current);
+      guiPlayNode(m_current);
+      htpSynchronize();
 
       stopClock();
       refreshGuiForBoardState();
@@ -2034,9 +1929,11 @@ public final class HexGui extends JFrame
   private void up() {
     if (m_current.getPrev() != null) {
       m_guiboard.clearMarks();
+      m_gfx.invalidate();
       undoNode(m_current);
       m_current = m_current.getPrev();
-      playNode(m_current);
+      guiPlayNode(m_current);
+      htpSynchronize();
 
       stopClock();
       refreshGuiForBoardState();
@@ -2054,6 +1951,7 @@ public final class HexGui extends JFrame
     backward(1);
 
     to_be_deleted.removeSelf();
+    getTranspositions().remove(to_be_deleted);
     m_toolbar.updateButtonStates(m_current, this);
     m_menubar.updateMenuStates(this);
     setFrameTitle();
@@ -2064,6 +1962,53 @@ public final class HexGui extends JFrame
     refreshGuiForBoardState();
   }
 
+  /** Jumps to the next node in the tree with the same position as the current node. */
+  private void cmdNextTransposition() {
+    Node node = getTranspositions().getNext(m_current);
+    if (node == null) {
+      m_statusbar.setMessage("Position does not occur elsewhere in the tree");
+      return;
+    }
+    m_guiboard.clearMarks();
+    m_gfx.invalidate();
+    replayUpToNode(node);
+    for (Node cur = node; cur != null; cur = cur.getParent()) cur.markRecent();
+    m_current = node;
+    htpSynchronize();
+    stopClock();
+    refreshGuiForBoardState();
+  }
+
+  /**
+   * Moves the variations below the current node to the next node with the same position, merging
+   * them with the variations there, and jumps to that node.
+   */
+  private void cmdMergeTransposition() {
+    TranspositionIndex transpositions = getTranspositions();
+    Node node = transpositions.getNext(m_current);
+    if (node == null) {
+      m_statusbar.setMessage("Position does not occur elsewhere in the tree");
+      return;
+    }
+    if (!transpositions.merge(m_current, node)) {
+      m_statusbar.setMessage("Cannot merge a variation into a position below it");
+      return;
+    }
+    cmdNextTransposition();
+  }
+
+  /**
+   * Returns the transposition index of the game tree, building it first if the tree or the board
+   * has changed since it was last used.
+   */
+  private TranspositionIndex getTranspositions() {
+    Position position = m_guiboard.getPosition();
+    if (m_transpositions == null || !m_transpositions.isFor(m_root, position)) {
+      m_transpositions = new TranspositionIndex(m_root, position);
+    }
+    return m_transpositions;
+  }
+
   private void determineColorToMove() {
     // Usually the game tree determines the color to move.
     HexColor color = m_current.getPlayerToMove();
@@ -2109,30 +2054,25 @@ public final class HexGui extends JFrame
     }
   }
 
-  // Record a snapshot of the current game state. This can later be
-  // used to check if the game has changed or not.
+  // Mark the current game as unchanged. gameChanged() then tells
+  // if it has changed since.
   private void resetGameChanged() {
-    ByteArrayOutputStream out = new ByteArrayOutputStream();
-    new SgfWriter(out, m_root, m_gameinfo);
-
-    m_gameSnapshot = out.toString();
+    m_root.markUnmodified();
+    m_gameinfo.markUnmodified();
   }
 
   private boolean gameChanged() {
-    if (m_gameSnapshot == null) {
+    if (m_root == null) {
       return false;
     }
-
-    ByteArrayOutputStream out = new ByteArrayOutputStream();
-    new SgfWriter(out, m_root, m_gameinfo);
-
-    return !m_gameSnapshot.equals(out.toString());
+    return m_root.isModified() || m_gameinfo.isModified();
   }
 
   private void setFrameTitle() {
     String filename = "untitled";
     if (m_file != null) filename = m_file.getName();
     if (gameChanged()) filename = filename + "*";
+    if (isTreeIncomplete()) filename = filename + " (incomplete)";
     String name = "HexGui " + Version.id;
     if (m_white != null) name += " - [" + m_white_name + " " + m_white_version + "]";
     setTitle(name + " - " + filename);
@@ -2181,6 +2121,20 @@ public final class HexGui extends JFrame
   }
 
   private boolean save_tree(File file, Node root, GameInfo gameinfo) {
+    // The tree may be parsed lazily from the file we are about to
+    // overwrite; read the rest of it before truncating the file.
+    root.loadAll();
+    if (root == m_root && isTreeIncomplete()) {
+      checkLoadError();
+      if (isSameFile(file, m_sgfFile)) {
+        ShowError.msg(
+            this,
+            "The game tree could not be read completely from this file.\n"
+                + "Save it to another file to keep the original.");
+        return false;
+      }
+    }
+
     FileOutputStream out;
     try {
       out = new FileOutputStream(file);
@@ -2193,23 +2147,69 @@ public final class HexGui extends JFrame
     return true;
   }
 
-  /* Load game from file. */
+  /** Returns true if the current tree was cut short by an error while it was read lazily. */
+  private boolean isTreeIncomplete() {
+    return m_sgf != null && m_sgf.getLoadError() != null;
+  }
+
+  /** Tells the user the first time the current tree was cut short by an error while reading it. */
+  private void checkLoadError() {
+    if (isTreeIncomplete() && !m_loadErrorShown) {
+      m_loadErrorShown = true;
+      setFrameTitle();
+      ShowError.msg(
+          this,
+          "Error reading SGF file:\n \""
+              + m_sgf.getLoadError()
+              + "\"\nThe rest of the game tree could not be read.");
+    }
+  }
+
+  private static boolean isSameFile(File a, File b) {
+    try {
+      return a.getCanonicalFile().equals(b.getCanonicalFile());
+    } catch (IOException e) {
+      return a.getAbsoluteFile().equals(b.getAbsoluteFile());
+    }
+  }
+
+  /**
+   * Load game from file. If the file is a collection of several games, ask the user which one to
+   * read. Only that game is parsed, lazily into a <code>CompactGameTree</code>: the nodes of the
+   * returned game tree are parsed and created as they are visited.
+   */
   private SgfReader load(File file) {
-    FileInputStream in;
+    SgfCollection collection;
     try {
-      in = new FileInputStream(file);
+      collection = new SgfCollection(file);
     } catch (FileNotFoundException e) {
       ShowError.msg(this, "File not found!");
       return null;
+    } catch (IOException e) {
+      ShowError.msg(this, "Error reading file:\n \"" + e.getMessage() + "\"");
+      return null;
+    }
+
+    int game = 0;
+    if (collection.getNumGames() == 0) {
+      ShowError.msg(this, "Error reading SGF file:\n \"No game tree found!\"");
+      return null;
+    } else if (collection.getNumGames() > 1) {
+      game = GameSelectDialog.show(this, collection.getNumGames());
+      if (game < 0) return null;
     }
 
     SgfReader sgf;
     try {
-      sgf = new SgfReader(in);
+      sgf = collection.getGame(game, new CompactGameTree(), true);
     } catch (SgfReader.SgfError e) {
       ShowError.msg(this, "Error reading SGF file:\n \"" + e.getMessage() + "\"");
       return null;
     }
+    System.out.println(
+        format(
+            "Parsed {0} bytes in {1,number,0.0} ms ({2,number,0.0} MB/s)",
+            sgf.getBytesRead(), sgf.getParseTime() / 1e6, sgf.getThroughput()));
     return sgf;
   }
 
@@ -2317,15 +2317,19 @@ public final class HexGui extends JFrame
     System.out.println("Loading sgf from file: " + file.getName());
     SgfReader sgf = load(file);
     if (sgf != null) {
+      m_gfx.invalidate();
       m_root = sgf.getGameTree();
       m_gameinfo = sgf.getGameInfo();
       m_current = m_root;
+      m_sgf = sgf;
+      m_sgfFile = file;
+      m_loadErrorShown = false;
 
       m_guiboard.initSize(m_gameinfo.getBoardSize());
       htpBoardsize(m_guiboard.getBoardSize());
 
       // Play the root node, since it may contain setup.
-      playNode(m_root);
+      guiPlayNode(m_root);
 
       forward(-1);
 
@@ -2347,11 +2351,16 @@ public final class HexGui extends JFrame
     setIconImage(new ImageIcon(url).getImage());
   }
 
+  private static final Log s_log = Log.get("gui");
+
   private AboutDialog m_about;
   private GuiPreferences m_preferences;
   private GuiBoard m_guiboard;
   private GuiToolBar m_toolbar;
   private StatusBar m_statusbar;
+  private GfxPipeline m_gfx;
+  private HtpStatistics m_statistics;
+  private StatisticsDialog m_statisticsDialog;
   private GuiMenuBar m_menubar;
   private HtpShell m_shell;
   private AnalyzeDialog m_analyzeDialog;
@@ -2363,9 +2372,10 @@ public final class HexGui extends JFrame
   private Node m_current;
   private GameInfo m_gameinfo;
   private HexColor m_tomove;
+  private WinDetector m_winDetector;
+  private TranspositionIndex m_transpositions;
   private Clock m_blackClock;
   private Clock m_whiteClock;
-  private String m_gameSnapshot;
 
   private ArrayList<AnalyzeDefinition> m_analyzeCommands;
 
@@ -2381,13 +2391,21 @@ public final class HexGui extends JFrame
   private ArrayBlockingQueue<HtpCommand> m_htp_queue;
   private Semaphore m_semaphore;
   private HtpController m_white;
+  private HtpSynchronizer m_sync;
+  private EnginePool m_pool;
+
   private String m_white_name;
   private String m_white_version;
-  private AnalyzeCommand m_curAnalyzeCommand;
   private Process m_white_process;
   private Socket m_white_socket;
 
   private File m_file;
+
+  /** Reader and file of the current tree if it was loaded from a file, for lazy parse errors. */
+  private SgfReader m_sgf;
+
+  private File m_sgfFile;
+  private boolean m_loadErrorShown;
 }
 
 // ----------------------------------------------------------------------------
@@ -6,28 +6,57 @@ package hexgui.gui;
 
 import hexgui.hex.*;
 import hexgui.htp.HtpController;
+import hexgui.util.Log;
+import hexgui.util.RotatingFileWriter;
 import java.awt.*;
 import java.awt.event.*;
+import java.io.File;
+import java.io.IOException;
 import javax.swing.*;
-import javax.swing.text.*;
-
-/** Non-modal dialog displaying the communication between HexGui and a HTP compatible program. */
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+
+/**
+ * Non-modal dialog displaying the communication between HexGui and a HTP compatible program.
+ *
+ * <p>The shell keeps the last <code>shell-max-lines</code> lines; older lines are written to the
+ * file <code>shell-spill-file</code>, if set, which is rotated when it gets large.
+ */
 public class HtpShell extends JDialog implements ActionListener, HtpController.IOInterface {
   public interface Callback {
     void commandEntered(String str);
   }
 
-  public HtpShell(JFrame owner, Callback callback) {
+  /** Size at which the spill file is rotated. */
+  public static final long SPILL_FILE_SIZE = 16 * 1024 * 1024;
+
+  public HtpShell(JFrame owner, Callback callback, GuiPreferences preferences) {
     super(owner, "HexGui: Shell");
     m_callback = callback;
 
-    m_editor = new JTextPane();
-    m_editor.setEditable(false);
-    m_document = m_editor.getStyledDocument();
-    addStylesToDocument(m_document);
-
-    m_scrollpane = new JScrollPane(m_editor);
+    m_log = new ShellLog(preferences.getInt("shell-max-lines"), openSpillFile(owner, preferences));
+    m_list = new JList<ShellLog.Entry>(m_log);
+    m_list.setCellRenderer(new EntryRenderer());
+    m_font = new Font("Monospaced", Font.PLAIN, 12);
+    m_boldFont = m_font.deriveFont(Font.BOLD);
+    FontMetrics metrics = m_list.getFontMetrics(m_boldFont);
+    m_charWidth = metrics.charWidth('M');
+    // Fixed cell sizes let the list lay out only the lines in view.
+    m_list.setFixedCellHeight(metrics.getHeight());
+    m_list.setFixedCellWidth(m_charWidth);
+
+    m_scrollpane = new JScrollPane(m_list);
     m_scrollpane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_ALWAYS);
+    m_log.addListDataListener(
+        new ListDataListener() {
+          public void intervalAdded(ListDataEvent e) {
+            linesAdded();
+          }
+
+          public void intervalRemoved(ListDataEvent e) {}
+
+          public void contentsChanged(ListDataEvent e) {}
+        });
 
     Dimension size = owner.getSize();
     getContentPane().add(m_scrollpane, BorderLayout.CENTER);
@@ -45,54 +74,76 @@ public class HtpShell extends JDialog implements ActionListener, HtpController.I
   }
 
   public void appendText(String text) {
-    appendText(text, null);
-  }
-
-  public void appendText(String text, AttributeSet style) {
-    try {
-      m_document.insertString(m_document.getLength(), text, style);
-    } catch (BadLocationException e) {
-      System.out.println("Bad location!");
-    }
+    m_log.append(text, ShellLog.PLAIN);
   }
 
   /** HtpController.IOInterface */
   public void sentCommand(String str) {
-    appendText(str, m_document.getStyle("blue"));
+    m_log.append(str, ShellLog.SENT);
   }
 
   public void receivedResponse(String str) {
-    appendText(str, m_document.getStyle("bold"));
+    m_log.append(str, ShellLog.RESPONSE);
   }
 
   public void receivedError(String str) {
-    appendText(str, m_document.getStyle("red"));
+    m_log.append(str, ShellLog.ERROR);
   }
 
-  protected void addStylesToDocument(StyledDocument doc) {
-    Style def = StyleContext.getDefaultStyleContext().getStyle(StyleContext.DEFAULT_STYLE);
-
-    Style regular = doc.addStyle("regular", def);
-    StyleConstants.setFontFamily(def, "Monospaced");
-    StyleConstants.setFontSize(def, 12);
-
-    Style s = doc.addStyle("italic", regular);
-    StyleConstants.setItalic(s, true);
-
-    s = doc.addStyle("bold", regular);
-    StyleConstants.setBold(s, true);
-
-    s = doc.addStyle("blue", regular);
-    StyleConstants.setForeground(s, Color.blue);
+  public void dispose() {
+    super.dispose();
+    m_log.close();
+  }
 
-    s = doc.addStyle("red", regular);
-    StyleConstants.setForeground(s, Color.RED);
+  /**
+   * Opens the file for lines dropped from the shell, or returns null if none is set or it cannot be
+   * opened, which the user is told.
+   */
+  private static RotatingFileWriter openSpillFile(JFrame owner, GuiPreferences preferences) {
+    String name = preferences.get("shell-spill-file");
+    if (name.length() == 0) return null;
+    try {
+      return new RotatingFileWriter(new File(name), SPILL_FILE_SIZE);
+    } catch (IOException e) {
+      s_log.warn("could not open spill file '{}': {}", name, e.getMessage());
+      ShowError.msg(
+          owner,
+          "Could not open the shell spill file '"
+              + name
+              + "':\n"
+              + e.getMessage()
+              + "\nLines dropped from the shell will not be kept.");
+      return null;
+    }
+  }
 
-    s = doc.addStyle("gray", regular);
-    StyleConstants.setForeground(s, Color.gray);
+  /** Widens the list to the longest line, and follows the end of the log if it was in view. */
+  private void linesAdded() {
+    int width = (m_log.getMaxLength() + 1) * m_charWidth;
+    if (width > m_list.getFixedCellWidth()) m_list.setFixedCellWidth(width);
+    JScrollBar bar = m_scrollpane.getVerticalScrollBar();
+    if (bar.getValue() + bar.getVisibleAmount() < bar.getMaximum()) return;
+    SwingUtilities.invokeLater(
+        new Runnable() {
+          public void run() {
+            m_list.ensureIndexIsVisible(m_log.getSize() - 1);
+          }
+        });
+  }
 
-    s = doc.addStyle("yellow", regular);
-    StyleConstants.setForeground(s, Color.YELLOW);
+  /** Draws a line in the color and weight of its kind. */
+  private final class EntryRenderer extends DefaultListCellRenderer {
+    public Component getListCellRendererComponent(
+        JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+      super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+      int style = ((ShellLog.Entry) value).getStyle();
+      setFont((style == ShellLog.RESPONSE) ? m_boldFont : m_font);
+      if (isSelected) return this;
+      if (style == ShellLog.SENT) setForeground(Color.blue);
+      else if (style == ShellLog.ERROR) setForeground(Color.RED);
+      else setForeground(list.getForeground());
+      return this;
+    }
   }
 
   public void actionPerformed(ActionEvent e) {
@@ -104,9 +155,14 @@ public class HtpShell extends JDialog implements ActionListener, HtpController.I
     }
   }
 
-  JTextPane m_editor;
+  private static final Log s_log = Log.get("shell");
+
+  ShellLog m_log;
+  JList<ShellLog.Entry> m_list;
+  Font m_font;
+  Font m_boldFont;
+  int m_charWidth;
   JTextField m_field;
   JScrollPane m_scrollpane;
-  StyledDocument m_document;
   Callback m_callback;
 }
@@ -55,6 +55,9 @@ public final class PreferencesDialog extends JDialog implements ItemListener, Ac
     m_preferences.put(
         "analyze-show-on-connect", (showAnalyzeOnConnect.getSelectedObjects() != null));
     m_preferences.put("auto-respond", (autoRespond.getSelectedObjects() != null));
+    m_preferences.put("engine-pool-size", (Integer) enginePoolSize.getValue());
+    m_preferences.put("shell-max-lines", (Integer) shellMaxLines.getValue());
+    m_preferences.put("shell-spill-file", shellSpillFile.getText().trim());
   }
 
   private JPanel createGeneralPanel() {
@@ -68,9 +71,33 @@ public final class PreferencesDialog extends JDialog implements ItemListener, Ac
 
     autoRespond = createCheckBox("Auto-respond", "auto-respond");
 
+    int poolSize = m_preferences.getInt("engine-pool-size");
+    enginePoolSize = new JSpinner(new SpinnerNumberModel(poolSize, 1, 64, 1));
+    JPanel poolPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+    poolPanel.add(new JLabel("Program instances for analysis"));
+    poolPanel.add(enginePoolSize);
+    poolPanel.setAlignmentX(Component.LEFT_ALIGNMENT);
+
+    int maxLines = m_preferences.getInt("shell-max-lines");
+    shellMaxLines = new JSpinner(new SpinnerNumberModel(maxLines, 100, 10000000, 1000));
+    JPanel linesPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+    linesPanel.add(new JLabel("Lines kept in Shell"));
+    linesPanel.add(shellMaxLines);
+    linesPanel.setAlignmentX(Component.LEFT_ALIGNMENT);
+
+    shellSpillFile = new JTextField(m_preferences.get("shell-spill-file"), 20);
+    shellSpillFile.setToolTipText("Older Shell lines are written to this file; empty for none");
+    JPanel spillPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+    spillPanel.add(new JLabel("Shell log file"));
+    spillPanel.add(shellSpillFile);
+    spillPanel.setAlignmentX(Component.LEFT_ALIGNMENT);
+
     panel.add(showShellOnConnect);
     panel.add(showAnalyzeOnConnect);
     panel.add(autoRespond);
+    panel.add(poolPanel);
+    panel.add(linesPanel);
+    panel.add(spillPanel);
 
     return panel;
   }
@@ -122,6 +149,9 @@ public final class PreferencesDialog extends JDialog implements ItemListener, Ac
   JCheckBox autoRespond;
 
   JSpinner fieldAlpha;
+  JSpinner enginePoolSize;
+  JSpinner shellMaxLines;
+  JTextField shellSpillFile;
 
   GuiPreferences m_preferences;
 }
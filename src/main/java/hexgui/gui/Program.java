@@ -5,6 +5,9 @@
 package hexgui.gui;
 
 import hexgui.util.PrefUtil;
+import hexgui.util.StringUtils;
+import java.io.File;
+import java.io.IOException;
 import java.util.Vector;
 import java.util.prefs.Preferences;
 
@@ -26,6 +29,38 @@ public class Program {
     return m_name;
   }
 
+  /**
+   * Starts a new process running the program, in its working directory if it has one.
+   *
+   * @throws IOException if the working directory does not exist or the program cannot be started
+   */
+  public Process start() throws IOException {
+    File working = null;
+    if (m_working != null && !m_working.trim().equals("")) {
+      working = new File(m_working.trim());
+      if (!working.isDirectory())
+        throw new IOException("Invalid working directory: '" + m_working + "'");
+    }
+
+    // Create command array with StringUtil::splitArguments
+    // because Runtime.exec(String) uses a default StringTokenizer
+    // which does not respect ".
+    String[] cmdArray = StringUtils.splitArguments(m_command);
+    // Make file name absolute, if working directory is not current
+    // directory. With Java 1.5, it seems that Runtime.exec succeeds
+    // if the relative path is valid from the current, but not from
+    // the given working directory, but the process is not usable
+    // (reading from its input stream immediately returns
+    // end-of-stream)
+    if (cmdArray.length > 0) {
+      File file = new File(cmdArray[0]);
+      // Only replace if executable is a path to a file, not
+      // an executable in the exec-path
+      if (file.exists()) cmdArray[0] = file.getAbsolutePath();
+    }
+    return Runtime.getRuntime().exec(cmdArray, null, working);
+  }
+
   // ------------------------------------------------------------------------
 
   public static Vector<Program> load() {
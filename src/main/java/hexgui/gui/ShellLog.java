@@ -0,0 +1,158 @@
+// ----------------------------------------------------------------------------
+// $Id$
+// ----------------------------------------------------------------------------
+
+package hexgui.gui;
+
+import hexgui.util.RotatingFileWriter;
+import java.util.Vector;
+import javax.swing.AbstractListModel;
+import javax.swing.SwingUtilities;
+
+// ----------------------------------------------------------------------------
+
+/**
+ * The lines of the HTP shell, kept in a ring buffer of fixed capacity.
+ *
+ * <p>Text may be appended in any thread; it is split into lines and added to the buffer in the
+ * event dispatch thread, together with the other text that arrived in the meantime. When the
+ * buffer is full the oldest lines are dropped, after writing them to the spill file if there is
+ * one. As a list model it can be shown in a <code>JList</code>, which only lays out the lines in
+ * view.
+ */
+public final class ShellLog extends AbstractListModel<ShellLog.Entry> {
+  public static final int PLAIN = 0;
+  public static final int SENT = 1;
+  public static final int RESPONSE = 2;
+  public static final int ERROR = 3;
+
+  /** One line of the log. */
+  public static final class Entry {
+    public Entry(String text, int style) {
+      m_text = text;
+      m_style = style;
+    }
+
+    public String getText() {
+      return m_text;
+    }
+
+    /** Returns one of PLAIN, SENT, RESPONSE and ERROR. */
+    public int getStyle() {
+      return m_style;
+    }
+
+    /** Returns the text, which is what gets copied to the clipboard. */
+    public String toString() {
+      return m_text;
+    }
+
+    private final String m_text;
+    private final int m_style;
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param capacity maximum number of lines kept
+   * @param spill file receiving the dropped lines, or null
+   */
+  public ShellLog(int capacity, RotatingFileWriter spill) {
+    m_entries = new Entry[Math.max(1, capacity)];
+    m_spill = spill;
+    m_incoming = new Vector<Entry>();
+    m_flush =
+        new Runnable() {
+          public void run() {
+            flush();
+          }
+        };
+  }
+
+  /** Appends text, which may contain several lines. May be called in any thread. */
+  public void append(String text, int style) {
+    String lines[] = text.split("\n", -1);
+    // Drop the empty string after a final newline.
+    int count = lines.length;
+    if (count > 1 && lines[count - 1].length() == 0) count--;
+    synchronized (m_incoming) {
+      for (int i = 0; i < count; i++) m_incoming.add(new Entry(lines[i], style));
+      if (m_flushScheduled) return;
+      m_flushScheduled = true;
+    }
+    SwingUtilities.invokeLater(m_flush);
+  }
+
+  public int getSize() {
+    return m_size;
+  }
+
+  public Entry getElementAt(int index) {
+    return m_entries[(m_first + index) % m_entries.length];
+  }
+
+  /** Returns the number of characters of the longest line added so far. */
+  public int getMaxLength() {
+    return m_maxLength;
+  }
+
+  /** Writes the remaining lines to the spill file and closes it. */
+  public void close() {
+    flush();
+    if (m_spill == null) return;
+    for (int i = 0; i < m_size; i++) m_spill.println(getElementAt(i).getText());
+    m_spill.close();
+  }
+
+  // ------------------------------------------------------------
+
+  /** Moves the incoming lines to the buffer. Called in the event dispatch thread. */
+  private void flush() {
+    Vector<Entry> incoming;
+    synchronized (m_incoming) {
+      incoming = new Vector<Entry>(m_incoming);
+      m_incoming.clear();
+      m_flushScheduled = false;
+    }
+    if (incoming.isEmpty()) return;
+
+    int oldSize = m_size;
+    int removed = 0;
+    for (int i = 0; i < incoming.size(); i++) {
+      Entry entry = incoming.get(i);
+      if (m_size == m_entries.length) {
+        if (m_spill != null) m_spill.println(m_entries[m_first].getText());
+        m_entries[m_first] = null;
+        m_first = (m_first + 1) % m_entries.length;
+        m_size--;
+        removed++;
+      }
+      m_entries[(m_first + m_size) % m_entries.length] = entry;
+      m_size++;
+      m_maxLength = Math.max(m_maxLength, entry.getText().length());
+    }
+    if (m_spill != null && removed > 0) m_spill.flush();
+
+    // Lines added and dropped in the same flush were never in the model.
+    int removedOld = Math.min(removed, oldSize);
+    if (removedOld > 0) fireIntervalRemoved(this, 0, removedOld - 1);
+    fireIntervalAdded(this, oldSize - removedOld, m_size - 1);
+  }
+
+  private final Entry m_entries[];
+  private final RotatingFileWriter m_spill;
+
+  /** Index of the oldest line in m_entries. */
+  private int m_first;
+
+  private int m_size;
+  private int m_maxLength;
+
+  /** Lines appended since the last flush; also guards m_flushScheduled. */
+  private final Vector<Entry> m_incoming;
+
+  private boolean m_flushScheduled;
+  private final Runnable m_flush;
+}
+
+// ----------------------------------------------------------------------------
@@ -0,0 +1,180 @@
+// ----------------------------------------------------------------------------
+// $Id$
+// ----------------------------------------------------------------------------
+
+package hexgui.gui;
+
+import hexgui.htp.CommandStatistics;
+import hexgui.htp.HtpStatistics;
+import java.awt.*;
+import java.awt.event.*;
+import java.util.Vector;
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+
+// ----------------------------------------------------------------------------
+
+/**
+ * Non-modal dialog showing the HTP statistics of the attached program, updated every second while
+ * it is visible.
+ *
+ * <p>Queue wait is the time a command spent in the queue of the GUI before it was sent; latency is
+ * the time from sending it to the response. A long queue wait with a short latency points at the
+ * GUI, a long latency at the program.
+ */
+public final class StatisticsDialog extends JDialog implements ActionListener {
+  public StatisticsDialog(Frame owner, HtpStatistics statistics, GfxPipeline gfx) {
+    super(owner, "HexGui: Statistics");
+    m_statistics = statistics;
+    m_gfx = gfx;
+
+    m_summary = new JLabel();
+    m_summary.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+    getContentPane().add(m_summary, BorderLayout.NORTH);
+
+    m_model = new CommandTableModel();
+    JTable table = new JTable(m_model);
+    table.setAutoCreateRowSorter(true);
+    getContentPane().add(new JScrollPane(table), BorderLayout.CENTER);
+
+    JPanel buttons = new JPanel();
+    JButton button = new JButton("Reset");
+    button.addActionListener(this);
+    button.setActionCommand("reset");
+    buttons.add(button);
+    button = new JButton("Close");
+    button.addActionListener(this);
+    button.setActionCommand("close");
+    buttons.add(button);
+    getContentPane().add(buttons, BorderLayout.SOUTH);
+
+    m_timer = new Timer(1000, this);
+    m_timer.setActionCommand("refresh");
+
+    setPreferredSize(new Dimension(700, 350));
+    pack();
+  }
+
+  public void setVisible(boolean visible) {
+    if (visible) {
+      refresh();
+      m_timer.start();
+    } else {
+      m_timer.stop();
+    }
+    super.setVisible(visible);
+  }
+
+  public void dispose() {
+    m_timer.stop();
+    super.dispose();
+  }
+
+  public void actionPerformed(ActionEvent e) {
+    String cmd = e.getActionCommand();
+    if (cmd.equals("refresh")) {
+      refresh();
+    } else if (cmd.equals("reset")) {
+      m_statistics.reset();
+      refresh();
+    } else if (cmd.equals("close")) {
+      setVisible(false);
+    }
+  }
+
+  // ------------------------------------------------------------
+
+  private void refresh() {
+    m_summary.setText(
+        "<html>Commands: "
+            + m_statistics.getCommands()
+            + "&nbsp;&nbsp;Errors: "
+            + m_statistics.getErrors()
+            + "&nbsp;&nbsp;Sent: "
+            + m_statistics.getBytesSent()
+            + " bytes&nbsp;&nbsp;Received: "
+            + m_statistics.getBytesReceived()
+            + " bytes<br>Queue: "
+            + m_statistics.getQueueDepth()
+            + " (max "
+            + m_statistics.getMaxQueueDepth()
+            + ")&nbsp;&nbsp;Gfx: "
+            + m_statistics.getGfxLinesPerSecond()
+            + " lines/s, "
+            + m_gfx.getRendered()
+            + " of "
+            + m_gfx.getReceived()
+            + " frames drawn</html>");
+    m_model.setCommands(m_statistics.getCommandList());
+  }
+
+  /** Rounds to a tenth of a millisecond. */
+  private static Double round(double millis) {
+    return Math.round(millis * 10) / 10.0;
+  }
+
+  /** One row per command, times in milliseconds. */
+  private static final class CommandTableModel extends AbstractTableModel {
+    public void setCommands(Vector<CommandStatistics> commands) {
+      m_commands = commands;
+      fireTableDataChanged();
+    }
+
+    public int getRowCount() {
+      return m_commands.size();
+    }
+
+    public int getColumnCount() {
+      return s_columns.length;
+    }
+
+    public String getColumnName(int column) {
+      return s_columns[column];
+    }
+
+    public Class<?> getColumnClass(int column) {
+      return (column == 0) ? String.class : Number.class;
+    }
+
+    public Object getValueAt(int row, int column) {
+      CommandStatistics command = m_commands.get(row);
+      switch (column) {
+        case 0:
+          return command.getName();
+        case 1:
+          return command.getCount();
+        case 2:
+          return command.getErrors();
+        case 3:
+          return round(command.getQueueWait50());
+        case 4:
+          return round(command.getQueueWait99());
+        case 5:
+          return round(command.getLatencyMean());
+        case 6:
+          return round(command.getLatency50());
+        case 7:
+          return round(command.getLatency90());
+        case 8:
+          return round(command.getLatency99());
+        default:
+          return round(command.getLatencyMax());
+      }
+    }
+
+    private static final String s_columns[] = {
+      "Command", "Count", "Errors", "Wait 50% ms", "Wait 99% ms", "Mean ms", "50% ms", "90% ms",
+      "99% ms", "Max ms"
+    };
+
+    private Vector<CommandStatistics> m_commands = new Vector<CommandStatistics>();
+  }
+
+  private final HtpStatistics m_statistics;
+  private final GfxPipeline m_gfx;
+  private final JLabel m_summary;
+  private final CommandTableModel m_model;
+  private final Timer m_timer;
+}
+
+// ----------------------------------------------------------------------------
@@ -0,0 +1,103 @@
+// ----------------------------------------------------------------------------
+// $Id$
+// ----------------------------------------------------------------------------
+
+package hexgui.gui;
+
+import hexgui.hex.HexColor;
+import hexgui.util.RadialGradientPaint;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// ----------------------------------------------------------------------------
+
+/**
+ * Pre-rendered stone images.
+ *
+ * <p>The radial gradient of a stone is computed pixel by pixel, so it is rendered once into a
+ * translucent image for each color, field size and device scale, and stones are drawn by copying
+ * that image. A resize only adds the images of the new size; the least recently used ones are
+ * dropped when there are more than <code>CAPACITY</code> of them. Images are shared by all boards
+ * and may be used from any thread.
+ */
+final class StoneSprites {
+  /** Returns the image of a stone of color <code>color</code> on a field of the given size. */
+  public static synchronized BufferedImage get(
+      HexColor color, int width, int height, double scale) {
+    int scaled = (int) Math.round(scale * 100);
+    long key =
+        ((long) (color == HexColor.BLACK ? 1 : 0) << 56)
+            | ((long) (scaled & 0xffff) << 40)
+            | ((long) (width & 0xfffff) << 20)
+            | (height & 0xfffff);
+    BufferedImage sprite = s_sprites.get(key);
+    if (sprite == null) {
+      sprite = render(color, width, height, scaled / 100.0);
+      s_sprites.put(key, sprite);
+    }
+    return sprite;
+  }
+
+  /** Drops all images, for instance after the stone colors have changed. */
+  public static synchronized void clear() {
+    s_sprites.clear();
+  }
+
+  /** Images kept; enough for both colors on a few boards while the window is resized. */
+  private static final int CAPACITY = 16;
+
+  private static final Map<Long, BufferedImage> s_sprites =
+      new LinkedHashMap<Long, BufferedImage>(CAPACITY, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<Long, BufferedImage> eldest) {
+          return size() > CAPACITY;
+        }
+      };
+
+  private StoneSprites() {}
+
+  /**
+   * Draws a stone of color <code>color</code> on a field of the given size at the origin of
+   * <code>graphics</code>. This is what the images show; graphics that are not images, such as
+   * <code>SvgGraphics</code>, draw stones with it directly.
+   */
+  public static void paint(Graphics2D graphics, HexColor color, int width, int height) {
+    Color normal, bright;
+    if (color == HexColor.BLACK) {
+      normal = GuiField.COLOR_STONE_BLACK;
+      bright = GuiField.COLOR_STONE_BLACK_BRIGHT;
+    } else {
+      normal = GuiField.COLOR_STONE_WHITE;
+      bright = GuiField.COLOR_STONE_WHITE_BRIGHT;
+    }
+    int size = (width < height) ? width : height;
+    int radius = Math.max(size / 3, 1);
+    Point2D.Double centerPoint = new Point2D.Double(width / 2 - size / 6, height / 2 - size / 6);
+    Point2D.Double radiusPoint = new Point2D.Double(radius, radius);
+    graphics.setPaint(new RadialGradientPaint(centerPoint, bright, radiusPoint, normal));
+
+    int stone = ((width < height) ? width / 2 : height / 2);
+    stone -= GuiField.getStoneMargin(stone * 2);
+    graphics.fillOval(width / 2 - stone, height / 2 - stone, stone * 2, stone * 2);
+  }
+
+  private static BufferedImage render(HexColor color, int width, int height, double scale) {
+    BufferedImage sprite =
+        new BufferedImage(
+            Math.max((int) Math.ceil(width * scale), 1),
+            Math.max((int) Math.ceil(height * scale), 1),
+            BufferedImage.TYPE_INT_ARGB);
+    Graphics2D graphics = sprite.createGraphics();
+    graphics.scale(scale, scale);
+    graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+    paint(graphics, color, width, height);
+    graphics.dispose();
+    return sprite;
+  }
+}
+
+// ----------------------------------------------------------------------------
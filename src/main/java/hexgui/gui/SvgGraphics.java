@@ -0,0 +1,753 @@
+// ----------------------------------------------------------------------------
+// $Id$
+// ----------------------------------------------------------------------------
+
+package hexgui.gui;
+
+import hexgui.util.RadialGradientPaint;
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Paint;
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Arc2D;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.geom.RoundRectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.awt.image.ColorModel;
+import java.awt.image.ImageObserver;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.awt.image.renderable.RenderableImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.AttributedCharacterIterator;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import javax.imageio.ImageIO;
+
+// ----------------------------------------------------------------------------
+
+/**
+ * Graphics context that records what is drawn as an SVG document, so that the board drawers and
+ * <code>GuiField</code> can draw diagrams as vector graphics with their own draw methods.
+ *
+ * <p>Shapes are written with the current transform applied to their coordinates. Colors,
+ * <code>AlphaComposite</code> opacity, <code>BasicStroke</code> widths and
+ * <code>hexgui.util.RadialGradientPaint</code> gradients are kept; images are embedded as PNG.
+ * Text is written as text, placed with the metrics of the AWT font. Clips are only tracked for
+ * <code>hitClip()</code>, not applied, and rendering hints have no effect. XOR mode draws in paint
+ * mode, and <code>copyArea()</code> does nothing. Graphics created from this one write to the same
+ * document. Call <code>write()</code> when done.
+ */
+final class SvgGraphics extends Graphics2D {
+  /** Creates an empty document of the given size in pixels. */
+  public SvgGraphics(int width, int height) {
+    m_document = new Document(width, height);
+    m_color = Color.black;
+    m_paint = m_color;
+    m_background = Color.white;
+    m_composite = AlphaComposite.SrcOver;
+    m_stroke = new BasicStroke();
+    m_font = new Font(Font.DIALOG, Font.PLAIN, 12);
+    m_transform = new AffineTransform();
+    m_hints = new RenderingHints(null);
+  }
+
+  /** Writes the document. */
+  public void write(Writer out) throws IOException {
+    Document d = m_document;
+    out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    out.write("<svg xmlns=\"http://www.w3.org/2000/svg\" ");
+    out.write("xmlns:xlink=\"http://www.w3.org/1999/xlink\" width=\"" + d.m_width);
+    out.write("\" height=\"" + d.m_height + "\" viewBox=\"0 0 " + d.m_width + " " + d.m_height);
+    out.write("\">\n");
+    if (d.m_defs.length() > 0) {
+      out.write("<defs>\n");
+      out.write(d.m_defs.toString());
+      out.write("</defs>\n");
+    }
+    out.write(d.m_body.toString());
+    out.write("</svg>\n");
+  }
+
+  // ------------------------------------------------------------
+  // Shapes
+
+  public void draw(Shape shape) {
+    appendShape(shape, false);
+  }
+
+  public void fill(Shape shape) {
+    appendShape(shape, true);
+  }
+
+  public void drawLine(int x1, int y1, int x2, int y2) {
+    draw(new Line2D.Float(x1, y1, x2, y2));
+  }
+
+  public void fillRect(int x, int y, int width, int height) {
+    fill(new Rectangle(x, y, width, height));
+  }
+
+  public void clearRect(int x, int y, int width, int height) {
+    Paint paint = m_paint;
+    Composite composite = m_composite;
+    setPaint(m_background);
+    m_composite = AlphaComposite.SrcOver;
+    fillRect(x, y, width, height);
+    m_paint = paint;
+    m_composite = composite;
+  }
+
+  public void drawRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+    draw(new RoundRectangle2D.Float(x, y, width, height, arcWidth, arcHeight));
+  }
+
+  public void fillRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+    fill(new RoundRectangle2D.Float(x, y, width, height, arcWidth, arcHeight));
+  }
+
+  public void drawOval(int x, int y, int width, int height) {
+    draw(new Ellipse2D.Float(x, y, width, height));
+  }
+
+  public void fillOval(int x, int y, int width, int height) {
+    fill(new Ellipse2D.Float(x, y, width, height));
+  }
+
+  public void drawArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+    draw(new Arc2D.Float(x, y, width, height, startAngle, arcAngle, Arc2D.OPEN));
+  }
+
+  public void fillArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+    fill(new Arc2D.Float(x, y, width, height, startAngle, arcAngle, Arc2D.PIE));
+  }
+
+  public void drawPolyline(int xPoints[], int yPoints[], int nPoints) {
+    if (nPoints < 2) return;
+    Path2D.Float path = new Path2D.Float();
+    path.moveTo(xPoints[0], yPoints[0]);
+    for (int i = 1; i < nPoints; i++) path.lineTo(xPoints[i], yPoints[i]);
+    draw(path);
+  }
+
+  public void drawPolygon(int xPoints[], int yPoints[], int nPoints) {
+    draw(new Polygon(xPoints, yPoints, nPoints));
+  }
+
+  public void fillPolygon(int xPoints[], int yPoints[], int nPoints) {
+    fill(new Polygon(xPoints, yPoints, nPoints));
+  }
+
+  public boolean hit(Rectangle rect, Shape shape, boolean onStroke) {
+    if (onStroke) shape = m_stroke.createStrokedShape(shape);
+    return m_transform.createTransformedShape(shape).intersects(rect);
+  }
+
+  // ------------------------------------------------------------
+  // Text
+
+  public void drawString(String str, int x, int y) {
+    drawString(str, (float) x, (float) y);
+  }
+
+  public void drawString(String str, float x, float y) {
+    if (str.isEmpty()) return;
+    Point2D p = m_transform.transform(new Point2D.Float(x, y), null);
+    double size = m_font.getSize2D() * Math.sqrt(Math.abs(m_transform.getDeterminant()));
+    StringBuilder svg = m_document.m_body;
+    svg.append("<text x=\"").append(format(p.getX())).append("\" y=\"");
+    svg.append(format(p.getY())).append("\" font-family=\"").append(getFamily(m_font));
+    svg.append("\" font-size=\"").append(format(size)).append('"');
+    if (m_font.isBold()) svg.append(" font-weight=\"bold\"");
+    if (m_font.isItalic()) svg.append(" font-style=\"italic\"");
+    appendPaint(svg, "fill", m_transform);
+    svg.append('>');
+    for (int i = 0; i < str.length(); i++) {
+      char c = str.charAt(i);
+      if (c == '<') svg.append("&lt;");
+      else if (c == '>') svg.append("&gt;");
+      else if (c == '&') svg.append("&amp;");
+      else svg.append(c);
+    }
+    svg.append("</text>\n");
+  }
+
+  public void drawString(AttributedCharacterIterator iterator, int x, int y) {
+    drawString(iterator, (float) x, (float) y);
+  }
+
+  public void drawString(AttributedCharacterIterator iterator, float x, float y) {
+    StringBuilder str = new StringBuilder();
+    for (char c = iterator.first(); c != AttributedCharacterIterator.DONE; c = iterator.next())
+      str.append(c);
+    drawString(str.toString(), x, y);
+  }
+
+  public void drawGlyphVector(GlyphVector glyphs, float x, float y) {
+    fill(glyphs.getOutline(x, y));
+  }
+
+  public Font getFont() {
+    return m_font;
+  }
+
+  public void setFont(Font font) {
+    if (font != null) m_font = font;
+  }
+
+  /** Metrics of the AWT font, which place the text as the raster output would. */
+  public FontMetrics getFontMetrics(Font font) {
+    return m_document.m_scratch.getFontMetrics(font);
+  }
+
+  public FontRenderContext getFontRenderContext() {
+    return m_document.m_scratch.getFontRenderContext();
+  }
+
+  // ------------------------------------------------------------
+  // Images
+
+  public boolean drawImage(Image img, AffineTransform xform, ImageObserver observer) {
+    BufferedImage image = toBufferedImage(img);
+    if (image == null) return true;
+    AffineTransform old = m_transform;
+    m_transform = new AffineTransform(old);
+    if (xform != null) m_transform.concatenate(xform);
+    appendImage(image, 0, 0, image.getWidth(), image.getHeight());
+    m_transform = old;
+    return true;
+  }
+
+  public void drawImage(BufferedImage img, BufferedImageOp op, int x, int y) {
+    BufferedImage image = (op == null) ? img : op.filter(img, null);
+    appendImage(image, x, y, image.getWidth(), image.getHeight());
+  }
+
+  public void drawRenderedImage(RenderedImage img, AffineTransform xform) {
+    if (img instanceof BufferedImage) {
+      drawImage((BufferedImage) img, xform, null);
+      return;
+    }
+    // Copy the image into a BufferedImage with the same color model,
+    // and draw it at the position of its first pixel.
+    ColorModel model = img.getColorModel();
+    WritableRaster raster = model.createCompatibleWritableRaster(img.getWidth(), img.getHeight());
+    img.copyData(raster.createWritableTranslatedChild(img.getMinX(), img.getMinY()));
+    BufferedImage image = new BufferedImage(model, raster, model.isAlphaPremultiplied(), null);
+    AffineTransform transform = new AffineTransform();
+    if (xform != null) transform.setTransform(xform);
+    transform.translate(img.getMinX(), img.getMinY());
+    drawImage(image, transform, null);
+  }
+
+  public void drawRenderableImage(RenderableImage img, AffineTransform xform) {
+    drawRenderedImage(img.createDefaultRendering(), xform);
+  }
+
+  public boolean drawImage(Image img, int x, int y, ImageObserver observer) {
+    BufferedImage image = toBufferedImage(img);
+    if (image != null) appendImage(image, x, y, image.getWidth(), image.getHeight());
+    return true;
+  }
+
+  public boolean drawImage(
+      Image img, int x, int y, int width, int height, ImageObserver observer) {
+    BufferedImage image = toBufferedImage(img);
+    if (image != null) appendImage(image, x, y, width, height);
+    return true;
+  }
+
+  public boolean drawImage(Image img, int x, int y, Color bgcolor, ImageObserver observer) {
+    BufferedImage image = toBufferedImage(img);
+    if (image == null) return true;
+    return drawImage(img, x, y, image.getWidth(), image.getHeight(), bgcolor, observer);
+  }
+
+  public boolean drawImage(
+      Image img, int x, int y, int width, int height, Color bgcolor, ImageObserver observer) {
+    if (bgcolor != null) {
+      Paint paint = m_paint;
+      setPaint(bgcolor);
+      fillRect(x, y, width, height);
+      m_paint = paint;
+    }
+    return drawImage(img, x, y, width, height, observer);
+  }
+
+  public boolean drawImage(
+      Image img,
+      int dx1,
+      int dy1,
+      int dx2,
+      int dy2,
+      int sx1,
+      int sy1,
+      int sx2,
+      int sy2,
+      ImageObserver observer) {
+    return drawImage(img, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, null, observer);
+  }
+
+  public boolean drawImage(
+      Image img,
+      int dx1,
+      int dy1,
+      int dx2,
+      int dy2,
+      int sx1,
+      int sy1,
+      int sx2,
+      int sy2,
+      Color bgcolor,
+      ImageObserver observer) {
+    BufferedImage image = toBufferedImage(img);
+    if (image == null) return true;
+    int x = Math.min(sx1, sx2);
+    int y = Math.min(sy1, sy2);
+    int w = Math.abs(sx2 - sx1);
+    int h = Math.abs(sy2 - sy1);
+    if (w == 0 || h == 0) return true;
+    BufferedImage part = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g = part.createGraphics();
+    g.drawImage(image, 0, 0, w, h, x, y, x + w, y + h, null);
+    g.dispose();
+    return drawImage(
+        part,
+        Math.min(dx1, dx2),
+        Math.min(dy1, dy2),
+        Math.abs(dx2 - dx1),
+        Math.abs(dy2 - dy1),
+        bgcolor,
+        observer);
+  }
+
+  /** Does nothing, since what has been drawn is kept as SVG elements and not as pixels. */
+  public void copyArea(int x, int y, int width, int height, int dx, int dy) {}
+
+  // ------------------------------------------------------------
+  // State
+
+  public Graphics create() {
+    SvgGraphics g = new SvgGraphics(m_document);
+    g.m_color = m_color;
+    g.m_paint = m_paint;
+    g.m_background = m_background;
+    g.m_composite = m_composite;
+    g.m_stroke = m_stroke;
+    g.m_font = m_font;
+    g.m_transform = new AffineTransform(m_transform);
+    g.m_clip = m_clip;
+    g.m_hints = (RenderingHints) m_hints.clone();
+    return g;
+  }
+
+  public void dispose() {}
+
+  public GraphicsConfiguration getDeviceConfiguration() {
+    return m_document.m_scratch.getDeviceConfiguration();
+  }
+
+  public Color getColor() {
+    return m_color;
+  }
+
+  public void setColor(Color color) {
+    if (color == null) return;
+    m_color = color;
+    m_paint = color;
+  }
+
+  public Paint getPaint() {
+    return m_paint;
+  }
+
+  public void setPaint(Paint paint) {
+    if (paint == null) return;
+    m_paint = paint;
+    if (paint instanceof Color) m_color = (Color) paint;
+  }
+
+  public void setPaintMode() {
+    m_composite = AlphaComposite.SrcOver;
+  }
+
+  /** Same as <code>setPaintMode()</code>, since SVG has no XOR mode. */
+  public void setXORMode(Color color) {
+    setPaintMode();
+  }
+
+  public Composite getComposite() {
+    return m_composite;
+  }
+
+  public void setComposite(Composite composite) {
+    if (composite != null) m_composite = composite;
+  }
+
+  public Color getBackground() {
+    return m_background;
+  }
+
+  public void setBackground(Color color) {
+    m_background = color;
+  }
+
+  public Stroke getStroke() {
+    return m_stroke;
+  }
+
+  public void setStroke(Stroke stroke) {
+    if (stroke != null) m_stroke = stroke;
+  }
+
+  public void setRenderingHint(RenderingHints.Key key, Object value) {
+    m_hints.put(key, value);
+  }
+
+  public Object getRenderingHint(RenderingHints.Key key) {
+    return m_hints.get(key);
+  }
+
+  public void setRenderingHints(Map<?, ?> hints) {
+    m_hints.clear();
+    m_hints.putAll(hints);
+  }
+
+  public void addRenderingHints(Map<?, ?> hints) {
+    m_hints.putAll(hints);
+  }
+
+  public RenderingHints getRenderingHints() {
+    return (RenderingHints) m_hints.clone();
+  }
+
+  // ------------------------------------------------------------
+  // Transform
+
+  public void translate(int x, int y) {
+    m_transform.translate(x, y);
+  }
+
+  public void translate(double tx, double ty) {
+    m_transform.translate(tx, ty);
+  }
+
+  public void rotate(double theta) {
+    m_transform.rotate(theta);
+  }
+
+  public void rotate(double theta, double x, double y) {
+    m_transform.rotate(theta, x, y);
+  }
+
+  public void scale(double sx, double sy) {
+    m_transform.scale(sx, sy);
+  }
+
+  public void shear(double shx, double shy) {
+    m_transform.shear(shx, shy);
+  }
+
+  public void transform(AffineTransform tx) {
+    m_transform.concatenate(tx);
+  }
+
+  public void setTransform(AffineTransform tx) {
+    m_transform = new AffineTransform(tx);
+  }
+
+  public AffineTransform getTransform() {
+    return new AffineTransform(m_transform);
+  }
+
+  // ------------------------------------------------------------
+  // Clip, kept in device space
+
+  public Shape getClip() {
+    if (m_clip == null) return null;
+    try {
+      return m_transform.createInverse().createTransformedShape(m_clip);
+    } catch (NoninvertibleTransformException e) {
+      return null;
+    }
+  }
+
+  public Rectangle getClipBounds() {
+    Shape clip = getClip();
+    return (clip == null) ? null : clip.getBounds();
+  }
+
+  public void clip(Shape shape) {
+    if (shape == null) return;
+    Shape clip = m_transform.createTransformedShape(shape);
+    if (m_clip == null) {
+      m_clip = clip;
+    } else {
+      Area area = new Area(m_clip);
+      area.intersect(new Area(clip));
+      m_clip = area;
+    }
+  }
+
+  public void clipRect(int x, int y, int width, int height) {
+    clip(new Rectangle(x, y, width, height));
+  }
+
+  public void setClip(int x, int y, int width, int height) {
+    setClip(new Rectangle(x, y, width, height));
+  }
+
+  public void setClip(Shape shape) {
+    m_clip = (shape == null) ? null : m_transform.createTransformedShape(shape);
+  }
+
+  // ------------------------------------------------------------
+
+  /** Output shared by a graphics context and the ones created from it. */
+  private static final class Document {
+    public Document(int width, int height) {
+      m_width = width;
+      m_height = height;
+      m_defs = new StringBuilder();
+      m_body = new StringBuilder(16384);
+      m_gradients = new HashMap<String, String>();
+      m_scratch = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+    }
+
+    final int m_width, m_height;
+    final StringBuilder m_defs;
+    final StringBuilder m_body;
+
+    /** Id of each gradient definition, by its attributes. */
+    final Map<String, String> m_gradients;
+
+    /** Provides font metrics and a device configuration. */
+    final Graphics2D m_scratch;
+  }
+
+  private SvgGraphics(Document document) {
+    m_document = document;
+  }
+
+  /** Appends a shape as a path, or as a circle or ellipse if it is one after the transform. */
+  private void appendShape(Shape shape, boolean fill) {
+    StringBuilder svg = m_document.m_body;
+    AffineTransform transform = m_transform;
+    boolean group = false;
+    if (m_paint instanceof RadialGradientPaint
+        && transform.getType() == AffineTransform.TYPE_TRANSLATION) {
+      // Shapes drawn at the same place relative to a translated origin,
+      // such as the stones of GuiField, then share one gradient.
+      svg.append("<g transform=\"translate(").append(format(transform.getTranslateX()));
+      svg.append(',').append(format(transform.getTranslateY())).append(")\">");
+      transform = new AffineTransform();
+      group = true;
+    }
+    boolean axisAligned = transform.getShearX() == 0 && transform.getShearY() == 0;
+    if (shape instanceof Ellipse2D && axisAligned) {
+      Rectangle2D r = transform.createTransformedShape(shape).getBounds2D();
+      double rx = r.getWidth() / 2;
+      double ry = r.getHeight() / 2;
+      svg.append(rx == ry ? "<circle" : "<ellipse");
+      svg.append(" cx=\"").append(format(r.getCenterX()));
+      svg.append("\" cy=\"").append(format(r.getCenterY())).append('"');
+      if (rx == ry) {
+        svg.append(" r=\"").append(format(rx)).append('"');
+      } else {
+        svg.append(" rx=\"").append(format(rx)).append("\" ry=\"").append(format(ry));
+        svg.append('"');
+      }
+    } else {
+      svg.append("<path d=\"");
+      appendPath(svg, shape.getPathIterator(transform));
+      svg.append('"');
+    }
+    if (fill) {
+      appendPaint(svg, "fill", transform);
+    } else {
+      svg.append(" fill=\"none\"");
+      appendPaint(svg, "stroke", transform);
+      if (m_stroke instanceof BasicStroke) {
+        BasicStroke stroke = (BasicStroke) m_stroke;
+        double width = stroke.getLineWidth() * Math.sqrt(Math.abs(transform.getDeterminant()));
+        if (width != 1) svg.append(" stroke-width=\"").append(format(width)).append('"');
+      }
+    }
+    svg.append(group ? "/></g>\n" : "/>\n");
+  }
+
+  private static void appendPath(StringBuilder svg, PathIterator it) {
+    double coords[] = new double[6];
+    boolean first = true;
+    for (; !it.isDone(); it.next()) {
+      int type = it.currentSegment(coords);
+      if (!first) svg.append(' ');
+      first = false;
+      if (type == PathIterator.SEG_MOVETO) {
+        svg.append('M').append(format(coords[0])).append(',').append(format(coords[1]));
+      } else if (type == PathIterator.SEG_LINETO) {
+        svg.append('L').append(format(coords[0])).append(',').append(format(coords[1]));
+      } else if (type == PathIterator.SEG_QUADTO) {
+        svg.append('Q').append(format(coords[0])).append(',').append(format(coords[1]));
+        svg.append(' ').append(format(coords[2])).append(',').append(format(coords[3]));
+      } else if (type == PathIterator.SEG_CUBICTO) {
+        svg.append('C').append(format(coords[0])).append(',').append(format(coords[1]));
+        svg.append(' ').append(format(coords[2])).append(',').append(format(coords[3]));
+        svg.append(' ').append(format(coords[4])).append(',').append(format(coords[5]));
+      } else {
+        svg.append('Z');
+      }
+    }
+  }
+
+  /**
+   * Appends the current paint and opacity as the <code>fill</code> or <code>stroke</code>, for
+   * coordinates written with <code>transform</code>.
+   */
+  private void appendPaint(StringBuilder svg, String attribute, AffineTransform transform) {
+    double opacity = 1;
+    if (m_composite instanceof AlphaComposite) opacity = ((AlphaComposite) m_composite).getAlpha();
+    if (m_paint instanceof RadialGradientPaint) {
+      svg.append(' ').append(attribute).append("=\"url(#");
+      svg.append(getGradient((RadialGradientPaint) m_paint, transform)).append(")\"");
+    } else {
+      Color color = (m_paint instanceof Color) ? (Color) m_paint : m_color;
+      svg.append(' ').append(attribute).append("=\"").append(toHex(color)).append('"');
+      opacity *= color.getAlpha() / 255.0;
+    }
+    if (opacity < 1) {
+      svg.append(' ').append(attribute).append("-opacity=\"").append(format(opacity));
+      svg.append('"');
+    }
+  }
+
+  /** Returns the id of the definition of a gradient, adding it if there is none yet. */
+  private String getGradient(RadialGradientPaint paint, AffineTransform transform) {
+    Point2D center = transform.transform(paint.getPoint(), null);
+    double radius = transform.deltaTransform(paint.getRadius(), null).distance(0, 0);
+    StringBuilder key = new StringBuilder();
+    key.append("cx=\"").append(format(center.getX())).append("\" cy=\"");
+    key.append(format(center.getY())).append("\" r=\"").append(format(radius)).append("\"");
+    key.append('>');
+    appendStop(key, 0, paint.getPointColor());
+    appendStop(key, 1, paint.getBackgroundColor());
+    String id = m_document.m_gradients.get(key.toString());
+    if (id == null) {
+      id = "gradient" + m_document.m_gradients.size();
+      m_document.m_gradients.put(key.toString(), id);
+      StringBuilder defs = m_document.m_defs;
+      defs.append("<radialGradient id=\"").append(id);
+      defs.append("\" gradientUnits=\"userSpaceOnUse\" ").append(key);
+      defs.append("</radialGradient>\n");
+    }
+    return id;
+  }
+
+  private static void appendStop(StringBuilder svg, int offset, Color color) {
+    svg.append("<stop offset=\"").append(offset).append("\" stop-color=\"").append(toHex(color));
+    svg.append('"');
+    if (color.getAlpha() < 255) {
+      svg.append(" stop-opacity=\"").append(format(color.getAlpha() / 255.0)).append('"');
+    }
+    svg.append("/>");
+  }
+
+  private void appendImage(BufferedImage image, int x, int y, int width, int height) {
+    ByteArrayOutputStream png = new ByteArrayOutputStream();
+    try {
+      ImageIO.write(image, "png", png);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    StringBuilder svg = m_document.m_body;
+    svg.append("<image x=\"").append(x).append("\" y=\"").append(y);
+    svg.append("\" width=\"").append(width).append("\" height=\"").append(height).append('"');
+    if (!m_transform.isIdentity()) {
+      double m[] = new double[6];
+      m_transform.getMatrix(m);
+      svg.append(" transform=\"matrix(");
+      for (int i = 0; i < m.length; i++) svg.append(i > 0 ? " " : "").append(format(m[i]));
+      svg.append(")\"");
+    }
+    if (m_composite instanceof AlphaComposite) {
+      float alpha = ((AlphaComposite) m_composite).getAlpha();
+      if (alpha < 1) svg.append(" opacity=\"").append(format(alpha)).append('"');
+    }
+    svg.append(" preserveAspectRatio=\"none\" xlink:href=\"data:image/png;base64,");
+    svg.append(Base64.getEncoder().encodeToString(png.toByteArray())).append("\"/>\n");
+  }
+
+  /** Returns the image as a BufferedImage, or <code>null</code> if it is not loaded. */
+  private static BufferedImage toBufferedImage(Image img) {
+    if (img instanceof BufferedImage) return (BufferedImage) img;
+    int width = img.getWidth(null);
+    int height = img.getHeight(null);
+    if (width <= 0 || height <= 0) return null;
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g = image.createGraphics();
+    g.drawImage(img, 0, 0, null);
+    g.dispose();
+    return image;
+  }
+
+  /** Returns the SVG font family of an AWT font, mapping the logical fonts to generic ones. */
+  private static String getFamily(Font font) {
+    String family = font.getFamily(Locale.ENGLISH);
+    if (family.equals(Font.DIALOG) || family.equals(Font.SANS_SERIF)) return "sans-serif";
+    if (family.equals(Font.SERIF)) return "serif";
+    if (family.equals(Font.MONOSPACED) || family.equals(Font.DIALOG_INPUT)) return "monospace";
+    return family.replace("&", "&amp;").replace("\"", "&quot;");
+  }
+
+  private static String format(double value) {
+    if (value == Math.rint(value)) return Long.toString((long) value);
+    return String.format(Locale.ENGLISH, "%.3f", value);
+  }
+
+  private static String toHex(Color color) {
+    return String.format("#%02x%02x%02x", color.getRed(), color.getGreen(), color.getBlue());
+  }
+
+  private final Document m_document;
+  private Color m_color;
+  private Paint m_paint;
+  private Color m_background;
+  private Composite m_composite;
+  private Stroke m_stroke;
+  private Font m_font;
+  private AffineTransform m_transform;
+
+  /** Clip in device space, or <code>null</code> for none. */
+  private Shape m_clip;
+
+  private RenderingHints m_hints;
+}
+
+// ----------------------------------------------------------------------------
@@ -1,5 +1,7 @@
 package hexgui.hex;
 
+import java.util.HashMap;
+import java.util.Locale;
 
 /**
  * A cell on a Hex board. In addition to each playable cell, HexPoints are created for each edge of
@@ -32,6 +34,9 @@ public final class HexPoint implements Comparable {
 
   private static HexPoint s_points[];
 
+  /** Points by lower-case name, for <code>get(String)</code>. */
+  private static HashMap<String, HexPoint> s_names;
+
   static {
     s_points = new HexPoint[MAX_POINTS];
 
@@ -53,6 +58,10 @@ public final class HexPoint implements Comparable {
         s_points[10 + y * MAX_WIDTH + x] = new HexPoint(x, y, name);
       }
     }
+
+    s_names = new HashMap<String, HexPoint>();
+    for (int i = 0; i < MAX_POINTS; i++) s_names.put(s_points[i].toString(), s_points[i]);
+    s_names.put("swap", SWAP_SIDES);
   }
 
   /**
@@ -92,15 +101,26 @@ public final class HexPoint implements Comparable {
    * @return the point or <code>null</code> if <code>name</code> is invalid.
    */
   public static HexPoint get(String name) {
-    if (name.equalsIgnoreCase("swap")) return SWAP_SIDES;
+    HexPoint point = s_names.get(name.toLowerCase(Locale.ENGLISH));
+    assert (point != null);
+    return point;
+  }
 
-    for (int x = 0; x < MAX_POINTS; x++) {
-      if (name.equalsIgnoreCase(s_points[x].toString())) {
-        return s_points[x];
-      }
-    }
-    assert (false);
-    return null;
+  /**
+   * Returns the point with the given string representation, or <code>null</code> if there is none.
+   * Unlike <code>get(String)</code>, this is meant for names that come from outside the program and
+   * may be invalid.
+   */
+  public static HexPoint find(String name) {
+    return s_names.get(name.toLowerCase(Locale.ENGLISH));
+  }
+
+  /**
+   * Returns the index of this point. This is the inverse of <code>get(int)</code>; indices are
+   * dense in <code>[0, MAX_POINTS)</code> and can be used to index arrays and bitsets.
+   */
+  public int getIndex() {
+    return m_index;
   }
 
   /** Returns the string representation of the point. */
@@ -136,12 +156,14 @@ public final class HexPoint implements Comparable {
   private HexPoint(int p, String name) {
     this.x = -1;
     this.y = p - 10;
+    m_index = p;
     m_string = name;
   }
 
   private HexPoint(int x, int y, String name) {
     this.x = x;
     this.y = y;
+    m_index = 10 + y * MAX_WIDTH + x;
     m_string = name;
   }
 
@@ -159,6 +181,7 @@ public final class HexPoint implements Comparable {
   }
 
   public final int x, y;
+  private final int m_index;
   private final String m_string;
 }
 
@@ -0,0 +1,268 @@
+// ----------------------------------------------------------------------------
+// $Id$
+// ----------------------------------------------------------------------------
+
+package hexgui.hex;
+
+import java.util.Arrays;
+
+// ----------------------------------------------------------------------------
+
+/**
+ * Stones on a Hex or Y board.
+ *
+ * <p>The position is stored as two bitboards, one for black and one for white, indexed by <code>
+ * HexPoint.getIndex()</code>. Looking up or changing a single cell is O(1); counting, swapping and
+ * checking for a full board work on whole words at a time. The edge points <code>NORTH</code>,
+ * <code>SOUTH</code>, <code>EAST</code> and <code>WEST</code> are part of the position so that
+ * they can be colored like the fields drawn for them.
+ *
+ * <p>A Zobrist hash of the stones on the cells is kept up to date as the position changes; see
+ * <code>getHash()</code>.
+ */
+public final class Position {
+  public static final int HEXBOARD = 0;
+  public static final int YBOARD = 1;
+
+  private static final int WORDS = (HexPoint.MAX_POINTS + 63) / 64;
+
+  /**
+   * Creates an empty position.
+   *
+   * @param mode type of board (HEXBOARD or YBOARD)
+   * @param width width of the board in cells
+   * @param height height of the board in cells; ignored for Y boards
+   */
+  public Position(int mode, int width, int height) {
+    m_mode = mode;
+    m_width = width;
+    m_height = height;
+    m_black = new long[WORDS];
+    m_white = new long[WORDS];
+    m_cells = new long[WORDS];
+
+    if (m_mode == HEXBOARD) {
+      for (int y = 0; y < height; y++) {
+        for (int x = 0; x < width; x++) set(m_cells, HexPoint.get(x, y).getIndex());
+      }
+    } else {
+      for (int y = 0; y < width; y++) {
+        for (int x = 0; x <= y; x++) set(m_cells, HexPoint.get(x, y).getIndex());
+      }
+    }
+    clear();
+  }
+
+  /** Creates a copy of the given position. */
+  public Position(Position other) {
+    m_mode = other.m_mode;
+    m_width = other.m_width;
+    m_height = other.m_height;
+    m_black = other.m_black.clone();
+    m_white = other.m_white.clone();
+    m_cells = other.m_cells;
+    m_hash = other.m_hash;
+  }
+
+  /**
+   * Overwrites this position with the stones of <code>other</code>, which must be the same size.
+   */
+  public void copyFrom(Position other) {
+    assert (other.m_cells == m_cells || Arrays.equals(other.m_cells, m_cells));
+    System.arraycopy(other.m_black, 0, m_black, 0, WORDS);
+    System.arraycopy(other.m_white, 0, m_white, 0, WORDS);
+    m_hash = other.m_hash;
+  }
+
+  public int getWidth() {
+    return m_width;
+  }
+
+  public int getHeight() {
+    return m_height;
+  }
+
+  public boolean isHexBoard() {
+    return m_mode == HEXBOARD;
+  }
+
+  public boolean isYBoard() {
+    return m_mode == YBOARD;
+  }
+
+  /**
+   * Returns the Zobrist hash of the stones on the cells of the board. Edges and the player to move
+   * are not included.
+   */
+  public long getHash() {
+    return m_hash;
+  }
+
+  /** Returns true if <code>point</code> is a cell of this board. */
+  public boolean isCell(HexPoint point) {
+    return test(m_cells, point.getIndex());
+  }
+
+  /**
+   * Removes all stones. On a Hex board the edges are colored with the player that connects them;
+   * on a Y board they are left empty.
+   */
+  public void clear() {
+    for (int i = 0; i < WORDS; i++) {
+      m_black[i] = 0;
+      m_white[i] = 0;
+    }
+    if (m_mode == HEXBOARD) {
+      set(m_black, HexPoint.NORTH.getIndex());
+      set(m_black, HexPoint.SOUTH.getIndex());
+      set(m_white, HexPoint.WEST.getIndex());
+      set(m_white, HexPoint.EAST.getIndex());
+    }
+    m_hash = 0;
+  }
+
+  public HexColor getColor(HexPoint point) {
+    int i = point.getIndex();
+    if (test(m_black, i)) return HexColor.BLACK;
+    if (test(m_white, i)) return HexColor.WHITE;
+    return HexColor.EMPTY;
+  }
+
+  public void setColor(HexPoint point, HexColor color) {
+    int i = point.getIndex();
+    int word = i >>> 6;
+    long bit = 1L << i;
+    if (test(m_cells, i)) m_hash ^= Zobrist.get(i, getColor(point)) ^ Zobrist.get(i, color);
+    m_black[word] &= ~bit;
+    m_white[word] &= ~bit;
+    if (color == HexColor.BLACK) m_black[word] |= bit;
+    else if (color == HexColor.WHITE) m_white[word] |= bit;
+  }
+
+  /** Returns true if every cell of the board holds a stone. Edges are ignored. */
+  public boolean isFull() {
+    for (int i = 0; i < WORDS; i++) {
+      if (((m_black[i] | m_white[i]) & m_cells[i]) != m_cells[i]) return false;
+    }
+    return true;
+  }
+
+  /** Returns the number of stones on the cells of the board. Edges are ignored. */
+  public int numberOfPieces() {
+    int count = 0;
+    for (int i = 0; i < WORDS; i++) count += Long.bitCount((m_black[i] | m_white[i]) & m_cells[i]);
+    return count;
+  }
+
+  /** Returns the number of stones of the given color on the cells of the board. */
+  public int numberOfPieces(HexColor color) {
+    long[] bits = bits(color);
+    int count = 0;
+    for (int i = 0; i < WORDS; i++) count += Long.bitCount(bits[i] & m_cells[i]);
+    return count;
+  }
+
+  /** Changes the stones' colors without moving them. Edges are left alone. */
+  public void swapColors() {
+    for (int i = 0; i < WORDS; i++) {
+      long black = m_black[i];
+      long white = m_white[i];
+      m_black[i] = (black & ~m_cells[i]) | (white & m_cells[i]);
+      m_white[i] = (white & ~m_cells[i]) | (black & m_cells[i]);
+    }
+    m_hash = computeHash();
+  }
+
+  /**
+   * Reflects all stones across the long diagonal, i.e. moves the stone on <code>(x,y)</code> to
+   * <code>(y,x)</code>. Stones that would leave a non-square board are dropped.
+   */
+  public void reflect() {
+    long[] black = reflect(m_black);
+    long[] white = reflect(m_white);
+    for (int i = 0; i < WORDS; i++) {
+      m_black[i] = (m_black[i] & ~m_cells[i]) | black[i];
+      m_white[i] = (m_white[i] & ~m_cells[i]) | white[i];
+    }
+    m_hash = computeHash();
+  }
+
+  /** Changes the stones' colors and reflects them; this is the Hex swap-pieces move. */
+  public void swapPieces() {
+    swapColors();
+    reflect();
+  }
+
+  /** Returns the cells holding a stone of the given color, in index order. */
+  public PointList getStones(HexColor color) {
+    long[] bits = bits(color);
+    PointList list = new PointList(numberOfPieces(color));
+    for (int i = 0; i < WORDS; i++) {
+      long word = bits[i] & m_cells[i];
+      while (word != 0) {
+        list.add(HexPoint.get((i << 6) + Long.numberOfTrailingZeros(word)));
+        word &= word - 1;
+      }
+    }
+    return list;
+  }
+
+  // ------------------------------------------------------------
+
+  private long[] bits(HexColor color) {
+    assert (color == HexColor.BLACK || color == HexColor.WHITE);
+    return (color == HexColor.BLACK) ? m_black : m_white;
+  }
+
+  private long computeHash() {
+    long hash = 0;
+    for (int i = 0; i < WORDS; i++) {
+      long black = m_black[i] & m_cells[i];
+      while (black != 0) {
+        hash ^= Zobrist.get((i << 6) + Long.numberOfTrailingZeros(black), HexColor.BLACK);
+        black &= black - 1;
+      }
+      long white = m_white[i] & m_cells[i];
+      while (white != 0) {
+        hash ^= Zobrist.get((i << 6) + Long.numberOfTrailingZeros(white), HexColor.WHITE);
+        white &= white - 1;
+      }
+    }
+    return hash;
+  }
+
+  private long[] reflect(long[] bits) {
+    long[] out = new long[WORDS];
+    for (int i = 0; i < WORDS; i++) {
+      long word = bits[i] & m_cells[i];
+      while (word != 0) {
+        HexPoint p = HexPoint.get((i << 6) + Long.numberOfTrailingZeros(word));
+        int r = p.reflect().getIndex();
+        if (test(m_cells, r)) set(out, r);
+        word &= word - 1;
+      }
+    }
+    return out;
+  }
+
+  private static boolean test(long[] bits, int i) {
+    return (bits[i >>> 6] & (1L << i)) != 0;
+  }
+
+  private static void set(long[] bits, int i) {
+    bits[i >>> 6] |= 1L << i;
+  }
+
+  private final int m_mode;
+  private final int m_width, m_height;
+
+  private final long[] m_black;
+  private final long[] m_white;
+
+  /** Mask of the cells that are on the board; shared between copies. */
+  private final long[] m_cells;
+
+  private long m_hash;
+}
+
+// ----------------------------------------------------------------------------
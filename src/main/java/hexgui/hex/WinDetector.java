@@ -0,0 +1,260 @@
+// ----------------------------------------------------------------------------
+// $Id$
+// ----------------------------------------------------------------------------
+
+package hexgui.hex;
+
+import java.util.Arrays;
+
+// ----------------------------------------------------------------------------
+
+/**
+ * Detects a winning connection on a Hex or Y board.
+ *
+ * <p>Stones are kept in a union-find structure over the cells of the board and, on Hex boards, the
+ * edge points <code>NORTH</code>, <code>SOUTH</code>, <code>EAST</code> and <code>WEST</code>. Each
+ * group root stores the set of board sides the group touches, so checking for a winner after a
+ * move only looks at the group of the new stone. Groups are merged by size and never compressed,
+ * which keeps each <code>find()</code> logarithmic and lets <code>undo()</code> take back a move by
+ * replaying a rollback log of the merges it caused.
+ *
+ * <p>The detector keeps its own copy of the stones; it is fed moves with <code>play()</code> and
+ * <code>undo()</code>, and rebuilt from its position with <code>reset()</code> when the position
+ * changes in any other way (setup stones, swap-pieces, clearing the board).
+ */
+public final class WinDetector {
+  private static final int NORTH_SIDE = 1;
+  private static final int SOUTH_SIDE = 2;
+  private static final int WEST_SIDE = 4;
+  private static final int EAST_SIDE = 8;
+
+  /** Creates a detector for the given position and loads its stones. */
+  public WinDetector(Position position) {
+    m_position = position;
+    m_color = new HexColor[HexPoint.MAX_POINTS];
+    m_parent = new int[HexPoint.MAX_POINTS];
+    m_size = new int[HexPoint.MAX_POINTS];
+    m_sides = new int[HexPoint.MAX_POINTS];
+    m_cellSides = new int[HexPoint.MAX_POINTS];
+    m_neighbors = new int[HexPoint.MAX_POINTS][];
+    m_log = new int[3 * 64];
+    m_moves = new int[64];
+    m_marks = new int[64];
+    m_winners = new HexColor[64];
+    computeNeighbors();
+    reset();
+  }
+
+  /** Returns true if this detector was created for <code>position</code>. */
+  public boolean isFor(Position position) {
+    return m_position == position;
+  }
+
+  /** Reloads all stones from the position and forgets the undo history. */
+  public void reset() {
+    Arrays.fill(m_color, HexColor.EMPTY);
+    for (int i = 0; i < HexPoint.MAX_POINTS; i++) {
+      m_parent[i] = i;
+      m_size[i] = 1;
+      m_sides[i] = 0;
+    }
+    if (m_position.isHexBoard()) {
+      initEdge(HexPoint.NORTH, HexColor.BLACK, NORTH_SIDE);
+      initEdge(HexPoint.SOUTH, HexColor.BLACK, SOUTH_SIDE);
+      initEdge(HexPoint.WEST, HexColor.WHITE, WEST_SIDE);
+      initEdge(HexPoint.EAST, HexColor.WHITE, EAST_SIDE);
+    }
+    m_logSize = 0;
+    m_numMoves = 0;
+    m_winner = HexColor.EMPTY;
+
+    PointList black = m_position.getStones(HexColor.BLACK);
+    for (int i = 0; i < black.size(); i++) play(black.get(i), HexColor.BLACK);
+    PointList white = m_position.getStones(HexColor.WHITE);
+    for (int i = 0; i < white.size(); i++) play(white.get(i), HexColor.WHITE);
+    m_logSize = 0;
+    m_numMoves = 0;
+  }
+
+  /**
+   * Adds a stone of the given color on an empty cell. Points that are not cells of the board
+   * (swap, pass, resign, etc) are ignored.
+   */
+  public void play(HexPoint point, HexColor color) {
+    int p = point.getIndex();
+    if (!m_position.isCell(point) || m_color[p] != HexColor.EMPTY) return;
+    assert (color == HexColor.BLACK || color == HexColor.WHITE);
+
+    pushMove(p);
+    m_color[p] = color;
+    m_parent[p] = p;
+    m_size[p] = 1;
+    m_sides[p] = m_cellSides[p];
+
+    int[] nbs = m_neighbors[p];
+    for (int i = 0; i < nbs.length; i++) {
+      if (m_color[nbs[i]] == color) union(p, nbs[i]);
+    }
+
+    if (m_winner == HexColor.EMPTY && isWinning(color, m_sides[find(p)])) m_winner = color;
+  }
+
+  /**
+   * Takes back the last stone played on <code>point</code>. Returns false if that stone is not the
+   * most recent one played since the last <code>reset()</code>; the caller must then reset the
+   * detector from the position.
+   */
+  public boolean undo(HexPoint point) {
+    if (m_numMoves == 0 || m_moves[m_numMoves - 1] != point.getIndex()) return false;
+
+    m_numMoves--;
+    int mark = m_marks[m_numMoves];
+    while (m_logSize > mark) {
+      m_logSize -= 3;
+      int child = m_log[m_logSize];
+      int root = m_parent[child];
+      m_parent[child] = child;
+      m_size[root] -= m_size[child];
+      m_sides[root] = m_log[m_logSize + 1];
+      assert (m_log[m_logSize + 2] == root);
+    }
+    m_color[point.getIndex()] = HexColor.EMPTY;
+    m_winner = m_winners[m_numMoves];
+    return true;
+  }
+
+  /** Returns the color that has completed a winning connection, or EMPTY if there is none. */
+  public HexColor getWinner() {
+    return m_winner;
+  }
+
+  // ------------------------------------------------------------
+
+  private void computeNeighbors() {
+    int w = m_position.getWidth();
+    int h = m_position.getHeight();
+    int[] nb = new int[6];
+    if (m_position.isHexBoard()) {
+      for (int y = 0; y < h; y++) {
+        for (int x = 0; x < w; x++) {
+          int n = 0;
+          n = addNeighbor(nb, n, x - 1, y);
+          n = addNeighbor(nb, n, x + 1, y);
+          n = addNeighbor(nb, n, x, y - 1);
+          n = addNeighbor(nb, n, x, y + 1);
+          n = addNeighbor(nb, n, x + 1, y - 1);
+          n = addNeighbor(nb, n, x - 1, y + 1);
+          if (y == 0) nb[n++] = HexPoint.NORTH.getIndex();
+          if (y == h - 1) nb[n++] = HexPoint.SOUTH.getIndex();
+          if (x == 0) nb[n++] = HexPoint.WEST.getIndex();
+          if (x == w - 1) nb[n++] = HexPoint.EAST.getIndex();
+          m_neighbors[HexPoint.get(x, y).getIndex()] = Arrays.copyOf(nb, n);
+        }
+      }
+    } else {
+      for (int y = 0; y < w; y++) {
+        for (int x = 0; x <= y; x++) {
+          int n = 0;
+          n = addNeighbor(nb, n, x - 1, y);
+          n = addNeighbor(nb, n, x + 1, y);
+          n = addNeighbor(nb, n, x - 1, y - 1);
+          n = addNeighbor(nb, n, x, y - 1);
+          n = addNeighbor(nb, n, x, y + 1);
+          n = addNeighbor(nb, n, x + 1, y + 1);
+          int p = HexPoint.get(x, y).getIndex();
+          m_neighbors[p] = Arrays.copyOf(nb, n);
+          if (x == 0) m_cellSides[p] |= WEST_SIDE;
+          if (x == y) m_cellSides[p] |= EAST_SIDE;
+          if (y == w - 1) m_cellSides[p] |= SOUTH_SIDE;
+        }
+      }
+    }
+  }
+
+  private int addNeighbor(int[] nb, int n, int x, int y) {
+    if (x < 0 || y < 0 || x >= HexPoint.MAX_WIDTH || y >= HexPoint.MAX_HEIGHT) return n;
+    HexPoint point = HexPoint.get(x, y);
+    if (m_position.isCell(point)) nb[n++] = point.getIndex();
+    return n;
+  }
+
+  private void initEdge(HexPoint edge, HexColor color, int side) {
+    int p = edge.getIndex();
+    m_color[p] = color;
+    m_sides[p] = side;
+  }
+
+  private boolean isWinning(HexColor color, int sides) {
+    int goal;
+    if (m_position.isYBoard()) goal = WEST_SIDE | EAST_SIDE | SOUTH_SIDE;
+    else if (color == HexColor.BLACK) goal = NORTH_SIDE | SOUTH_SIDE;
+    else goal = WEST_SIDE | EAST_SIDE;
+    return (sides & goal) == goal;
+  }
+
+  private int find(int p) {
+    while (m_parent[p] != p) p = m_parent[p];
+    return p;
+  }
+
+  private void union(int a, int b) {
+    int ra = find(a);
+    int rb = find(b);
+    if (ra == rb) return;
+    if (m_size[ra] < m_size[rb]) {
+      int t = ra;
+      ra = rb;
+      rb = t;
+    }
+    if (m_logSize + 3 > m_log.length) m_log = Arrays.copyOf(m_log, 2 * m_log.length);
+    m_log[m_logSize++] = rb;
+    m_log[m_logSize++] = m_sides[ra];
+    m_log[m_logSize++] = ra;
+
+    m_parent[rb] = ra;
+    m_size[ra] += m_size[rb];
+    m_sides[ra] |= m_sides[rb];
+  }
+
+  private void pushMove(int p) {
+    if (m_numMoves == m_moves.length) {
+      m_moves = Arrays.copyOf(m_moves, 2 * m_moves.length);
+      m_marks = Arrays.copyOf(m_marks, 2 * m_marks.length);
+      m_winners = Arrays.copyOf(m_winners, 2 * m_winners.length);
+    }
+    m_moves[m_numMoves] = p;
+    m_marks[m_numMoves] = m_logSize;
+    m_winners[m_numMoves] = m_winner;
+    m_numMoves++;
+  }
+
+  private final Position m_position;
+
+  private final HexColor m_color[];
+  private final int m_parent[];
+  private final int m_size[];
+
+  /** Sides touched by the group rooted at each point; only valid at roots. */
+  private final int m_sides[];
+
+  /** Sides of a Y board each cell lies on. */
+  private final int m_cellSides[];
+
+  private final int m_neighbors[][];
+
+  /** Rollback log of merges: (child root, old sides of parent root, parent root) triples. */
+  private int m_log[];
+
+  private int m_logSize;
+
+  /** Point, log position and previous winner of each move since the last reset. */
+  private int m_moves[];
+
+  private int m_marks[];
+  private HexColor m_winners[];
+  private int m_numMoves;
+
+  private HexColor m_winner;
+}
+
+// ----------------------------------------------------------------------------
@@ -0,0 +1,56 @@
+// ----------------------------------------------------------------------------
+// $Id$
+// ----------------------------------------------------------------------------
+
+package hexgui.hex;
+
+import java.util.Random;
+
+// ----------------------------------------------------------------------------
+
+/**
+ * Zobrist keys for hashing positions.
+ *
+ * <p>Every (point, color) pair has a random 64-bit key, and the hash of a position is the
+ * exclusive-or of the keys of its stones. Keys are generated from a fixed seed, so hashes are the
+ * same across runs.
+ */
+public final class Zobrist {
+  /** Key xor-ed into the hash of a position when white is to move. */
+  public static final long WHITE_TO_MOVE;
+
+  private static final long s_black[];
+  private static final long s_white[];
+
+  static {
+    Random random = new Random(0x4865784755494cL);
+    s_black = new long[HexPoint.MAX_POINTS];
+    s_white = new long[HexPoint.MAX_POINTS];
+    for (int i = 0; i < HexPoint.MAX_POINTS; i++) {
+      s_black[i] = random.nextLong();
+      s_white[i] = random.nextLong();
+    }
+    WHITE_TO_MOVE = random.nextLong();
+  }
+
+  /** Returns the key of a stone of the given color on the point with the given index. */
+  public static long get(int index, HexColor color) {
+    if (color == HexColor.BLACK) return s_black[index];
+    if (color == HexColor.WHITE) return s_white[index];
+    return 0;
+  }
+
+  /** Returns the key of a stone of the given color on <code>point</code>. */
+  public static long get(HexPoint point, HexColor color) {
+    return get(point.getIndex(), color);
+  }
+
+  /** Returns the key for the player to move. */
+  public static long toMove(HexColor color) {
+    return (color == HexColor.WHITE) ? WHITE_TO_MOVE : 0;
+  }
+
+  private Zobrist() {}
+}
+
+// ----------------------------------------------------------------------------
@@ -0,0 +1,102 @@
+// CommandStatistics.java
+
+package hexgui.htp;
+
+import hexgui.util.Histogram;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics of one HTP command: how long commands waited in the queue of the GUI before they
+ * were sent, how long the program took to respond, and how many responses were errors. Times are
+ * recorded in nanoseconds and reported in milliseconds.
+ */
+public final class CommandStatistics implements CommandStatisticsMBean {
+  public CommandStatistics(String name) {
+    m_name = name;
+    m_latency = new Histogram();
+    m_queueWait = new Histogram();
+    m_errors = new AtomicLong();
+  }
+
+  /** The command waited <code>nanos</code> before it was sent. */
+  public void queued(long nanos) {
+    m_queueWait.record(nanos);
+  }
+
+  /** The response came <code>nanos</code> after the command was sent. */
+  public void finished(long nanos, boolean success) {
+    m_latency.record(nanos);
+    if (!success) m_errors.incrementAndGet();
+  }
+
+  /** The command got no valid response. */
+  public void failed() {
+    m_errors.incrementAndGet();
+  }
+
+  public Histogram getLatency() {
+    return m_latency;
+  }
+
+  public Histogram getQueueWait() {
+    return m_queueWait;
+  }
+
+  public String getName() {
+    return m_name;
+  }
+
+  public long getCount() {
+    return m_latency.getCount();
+  }
+
+  public long getErrors() {
+    return m_errors.get();
+  }
+
+  public double getLatencyMean() {
+    return m_latency.getMean() / 1e6;
+  }
+
+  public double getLatency50() {
+    return m_latency.getPercentile(50) / 1e6;
+  }
+
+  public double getLatency90() {
+    return m_latency.getPercentile(90) / 1e6;
+  }
+
+  public double getLatency99() {
+    return m_latency.getPercentile(99) / 1e6;
+  }
+
+  public double getLatencyMax() {
+    return m_latency.getMax() / 1e6;
+  }
+
+  public double getQueueWait50() {
+    return m_queueWait.getPercentile(50) / 1e6;
+  }
+
+  public double getQueueWait99() {
+    return m_queueWait.getPercentile(99) / 1e6;
+  }
+
+  public double getQueueWaitMax() {
+    return m_queueWait.getMax() / 1e6;
+  }
+
+  public void reset() {
+    m_latency.reset();
+    m_queueWait.reset();
+    m_errors.set(0);
+  }
+
+  private final String m_name;
+
+  private final Histogram m_latency;
+
+  private final Histogram m_queueWait;
+
+  private final AtomicLong m_errors;
+}
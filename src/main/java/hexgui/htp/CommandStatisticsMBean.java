@@ -0,0 +1,30 @@
+// CommandStatisticsMBean.java
+
+package hexgui.htp;
+
+/** JMX view of the statistics of one HTP command. Times are in milliseconds. */
+public interface CommandStatisticsMBean {
+  String getName();
+
+  long getCount();
+
+  long getErrors();
+
+  double getLatencyMean();
+
+  double getLatency50();
+
+  double getLatency90();
+
+  double getLatency99();
+
+  double getLatencyMax();
+
+  double getQueueWait50();
+
+  double getQueueWait99();
+
+  double getQueueWaitMax();
+
+  void reset();
+}
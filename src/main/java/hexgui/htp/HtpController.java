@@ -4,6 +4,7 @@
 
 package hexgui.htp;
 
+import hexgui.util.Log;
 import hexgui.util.StringUtils;
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -11,10 +12,14 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 // ----------------------------------------------------------------------------
 
-/** Sends HTP commands and parses the response. */
+/** Sends HTP commands and parses the responses. */
 public class HtpController {
   public interface IOInterface {
     void sentCommand(String str);
@@ -32,125 +37,265 @@ public class HtpController {
 
   // ------------------------------------------------------------
 
-  /** Constructor */
+  /** Response to a command. */
+  public static class Response {
+    public Response(int id, boolean success, String text) {
+      m_id = id;
+      m_success = success;
+      m_text = text;
+    }
+
+    /** Returns the numeric id of the command, or -1 if it was sent without one. */
+    public int getId() {
+      return m_id;
+    }
+
+    public boolean isSuccess() {
+      return m_success;
+    }
+
+    /** Returns the text of the response, without the leading "= " or "? ". */
+    public String getText() {
+      return m_text;
+    }
+
+    private final int m_id;
+    private final boolean m_success;
+    private final String m_text;
+  }
+
+  // ------------------------------------------------------------
+
+  /**
+   * Constructor. Starts a thread that reads the responses of the program; responses are matched
+   * to the commands in the order they were sent, or by their numeric ids, see <code>setUseIds()
+   * </code>.
+   */
   public HtpController(InputStream in, OutputStream out, IOInterface io, GuiFxCallback guifx) {
-    System.out.println("controller: in constructor.");
+    s_log.debug("in constructor.");
     m_in = new BufferedReader(new InputStreamReader(in));
     m_out = new PrintStream(out);
     m_io = io;
     m_guifx = guifx;
     m_connected = true;
-    m_waiting = false;
+    m_pending = new LinkedList<Pending>();
+    m_nextId = 1;
+
+    Thread reader =
+        new Thread(
+            new Runnable() {
+              public void run() {
+                readResponses();
+              }
+            },
+            "HtpController reader");
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  /**
+   * Sends every command with a numeric id ("12 genmove b"), and matches responses to commands by
+   * id. Responses that carry no id are still matched in order.
+   */
+  public void setUseIds(boolean useIds) {
+    m_useIds = useIds;
+  }
+
+  /** Records the traffic with the program in <code>statistics</code>; null records nothing. */
+  public void setStatistics(HtpStatistics statistics) {
+    m_statistics = statistics;
   }
 
   public void interrupt() {
-    System.out.println("Sending interrupt");
-    m_out.print("# interrupt\n");
-    m_out.flush();
-    m_io.sentCommand("# interrupt");
+    s_log.info("sending interrupt");
+    synchronized (m_pending) {
+      m_out.print("# interrupt\n");
+      m_out.flush();
+      m_io.sentCommand("# interrupt");
+    }
   }
 
   /**
-   * Sends command over the htp channel.
+   * Sends command over the htp channel without waiting for the response. Commands can be sent
+   * back to back; the program processes them in order, so a sequence of commands costs about one
+   * round trip instead of one per command.
    *
-   * <p>Note this method is synchronized, and so HtpController will process only a single command at
-   * a time.
+   * @return future completed with the response, or completed exceptionally with an <code>HtpError
+   *     </code> if the program disconnects or does not follow the protocol.
    */
-  public synchronized void sendCommand(String cmd) throws HtpError {
-    if (!m_connected) return;
+  public CompletableFuture<Response> send(String cmd) {
+    Pending pending = new Pending();
+    synchronized (m_pending) {
+      if (!m_connected) {
+        pending.future.completeExceptionally(new HtpError("Program Disconnected."));
+        return pending.future;
+      }
+      s_log.debug("sending '{}'", cmd);
+      HtpStatistics statistics = m_statistics;
+      if (statistics != null) {
+        pending.statistics = statistics.sent(cmd);
+        pending.sent = System.nanoTime();
+      }
+      if (m_useIds) {
+        pending.id = m_nextId++;
+        m_out.print(pending.id + " " + cmd);
+      } else {
+        m_out.print(cmd);
+      }
+      m_out.flush();
+      // Logged under the lock, so that commands are logged in the
+      // order they were written and before their responses.
+      m_io.sentCommand(cmd);
+      m_pending.add(pending);
+    }
+    return pending.future;
+  }
 
-    System.out.println("controller: sending '" + cmd.trim() + "'");
-    m_out.print(cmd);
-    m_out.flush();
-    m_io.sentCommand(cmd);
-    handleResponse();
+  /**
+   * Sends command over the htp channel and waits for its response. Commands sent earlier with
+   * <code>send()</code> are answered first. May be called from several threads at once.
+   *
+   * @return the response; an error response is returned, not thrown
+   * @throws HtpError if the program is disconnected or does not follow the protocol
+   */
+  public Response sendCommand(String cmd) throws HtpError {
+    try {
+      return send(cmd).get();
+    } catch (InterruptedException e) {
+      throw new HtpError("Interrupted waiting for response!");
+    } catch (ExecutionException e) {
+      throw (HtpError) e.getCause();
+    }
   }
 
+  /** Returns true if some command has not been answered yet. */
   public boolean cmdInProgress() {
-    return m_waiting;
+    synchronized (m_pending) {
+      return !m_pending.isEmpty();
+    }
   }
 
-  public boolean wasSuccess() {
-    return m_success;
-  }
+  // ------------------------------------------------------------
 
-  public String getResponse() {
-    return m_response;
+  /** A command waiting for its response. */
+  private static class Pending {
+    public int id = -1;
+    public CommandStatistics statistics;
+    public long sent;
+    public final CompletableFuture<Response> future = new CompletableFuture<Response>();
   }
 
-  private void handleResponse() throws HtpError {
-    m_waiting = true;
-
-    while (m_waiting) {
-
+  /** Reads responses until the program disconnects. Runs in the reader thread. */
+  private void readResponses() {
+    while (true) {
       String response;
       try {
         response = waitResponse();
       } catch (IOException e) {
-        m_waiting = false;
-        throw new HtpError("IOException waiting for response!");
+        s_log.warn("IOException waiting for response: {}", e.getMessage());
+        m_connected = false;
+        response = null;
       }
+      if (!m_connected) {
+        failPending(new HtpError("Program Disconnected."));
+        return;
+      }
+      handleResponse(response);
+    }
+  }
 
-      // Since the response must, by definition of the GTP
-      // protocol, always end with two newline characters,
-      // remove them.
-      response = response.replaceAll("[\n\r]$", "");
+  private void handleResponse(String response) {
+    // Since the response must, by definition of the GTP
+    // protocol, always end with two newline characters,
+    // remove them.
+    response = response.replaceAll("[\n\r]$", "");
 
-      // System.out.println("got: '" + response + "'");
+    if (response.length() < 2) {
+      failNext(new HtpError("Response length too short! '" + response + "'"));
+      return;
+    }
+    if (response.length() > 10 && response.substring(0, 10).equals("gogui-gfx:")) {
+      String fx = StringUtils.cleanWhiteSpace(response.substring(10).trim());
+      s_log.trace("gfx: '{}'", fx);
+      HtpStatistics statistics = m_statistics;
+      if (statistics != null) statistics.gfxLine(response.length());
+      m_guifx.guifx(fx);
+      return;
+    }
 
-      if (!m_connected) {
-        m_success = false;
-        m_response = "";
-        m_waiting = false;
-        throw new HtpError("Program Disconnected.");
-      } else if (response == null) {
-        m_success = false;
-        m_response = "";
-        m_waiting = false;
-        throw new HtpError("Null response received!");
-      } else if (response.length() < 2) {
-        m_success = false;
-        m_response = response;
-        m_waiting = false;
-        throw new HtpError("Response length too short! '" + response + "'");
-      } else if (response.length() > 10 && response.substring(0, 10).equals("gogui-gfx:")) {
-
-        String fx = StringUtils.cleanWhiteSpace(response.substring(10).trim());
-
-        m_guifx.guifx(fx);
-
-      } else if (response.substring(0, 2).equals("= ")) {
-        m_success = true;
-        m_response = response.substring(2);
-        System.out.print("controller: success: ");
-        m_io.receivedResponse(response);
-        m_waiting = false;
-      } else if (response.substring(0, 2).equals("? ")) {
-        m_success = false;
-        m_response = response.substring(2);
-        System.out.print("controller: error: ");
-        m_io.receivedError(response);
-        m_waiting = false;
-      } else {
-        m_response = response;
-        m_success = false;
-        System.out.print("controller: invalid: ");
-        m_waiting = false;
-        throw new HtpError("Invalid HTP response:'" + response + "'.");
+    char status = response.charAt(0);
+    int id = -1;
+    int i = 1;
+    while (i < response.length() && Character.isDigit(response.charAt(i))) i++;
+    if (i > 1) id = Integer.parseInt(response.substring(1, i));
+    boolean valid = i == response.length() || Character.isWhitespace(response.charAt(i));
+    if ((status != '=' && status != '?') || !valid) {
+      s_log.warn("invalid: '{}'", response);
+      failNext(new HtpError("Invalid HTP response:'" + response + "'."));
+      return;
+    }
+    if (i < response.length() && response.charAt(i) == ' ') i++;
+    String text = response.substring(i);
+
+    Pending pending = removePending(id);
+    if (pending == null) {
+      s_log.warn("unexpected response: '{}'", response);
+      return;
+    }
+    if (pending.statistics != null) {
+      pending.statistics.finished(System.nanoTime() - pending.sent, status == '=');
+    }
+    HtpStatistics statistics = m_statistics;
+    if (statistics != null) statistics.received(response.length());
+    if (status == '=') {
+      s_log.debug("success: '{}'", text);
+      m_io.receivedResponse(response);
+    } else {
+      s_log.debug("error: '{}'", text);
+      m_io.receivedError(response);
+    }
+    pending.future.complete(new Response(pending.id, status == '=', text));
+  }
+
+  /**
+   * Removes the command with the given id from the pending commands, or the oldest command if
+   * <code>id</code> is -1 or no command has that id.
+   */
+  private Pending removePending(int id) {
+    synchronized (m_pending) {
+      if (id >= 0) {
+        Iterator<Pending> it = m_pending.iterator();
+        while (it.hasNext()) {
+          Pending pending = it.next();
+          if (pending.id == id) {
+            it.remove();
+            return pending;
+          }
+        }
       }
+      return m_pending.poll();
     }
+  }
 
-    System.out.println("'" + m_response.trim() + "'");
+  private void failNext(HtpError error) {
+    Pending pending = removePending(-1);
+    if (pending == null) return;
+    if (pending.statistics != null) pending.statistics.failed();
+    pending.future.completeExceptionally(error);
+  }
+
+  private void failPending(HtpError error) {
+    synchronized (m_pending) {
+      while (!m_pending.isEmpty()) m_pending.poll().future.completeExceptionally(error);
+    }
   }
 
   private String waitResponse() throws IOException {
     StringBuilder ret = new StringBuilder();
     while (true) {
-      // System.out.println("blocking on response");
       String line = m_in.readLine();
-      // System.out.println("readline: '" + line + "'");
       if (line == null) {
-        System.out.println("controller: Disconnected!");
+        s_log.info("disconnected.");
         m_connected = false;
         break;
       }
@@ -160,7 +305,6 @@ public class HtpController {
 
       if (clean.equals("")) break;
     }
-    System.out.println("controller: done waiting on response.");
     return ret.toString();
   }
 
@@ -180,16 +324,20 @@ public class HtpController {
     return m_connected;
   }
 
-  private boolean m_connected;
+  private static final Log s_log = Log.get("htp");
+
+  private volatile boolean m_connected;
   private BufferedReader m_in;
   private PrintStream m_out;
   private IOInterface m_io;
   private GuiFxCallback m_guifx;
+  private volatile HtpStatistics m_statistics;
 
-  private boolean m_waiting;
+  /** Commands sent but not answered yet, oldest first. Also guards writing to m_out. */
+  private final LinkedList<Pending> m_pending;
 
-  private String m_response;
-  private boolean m_success;
+  private volatile boolean m_useIds;
+  private int m_nextId;
 }
 
 // ----------------------------------------------------------------------------
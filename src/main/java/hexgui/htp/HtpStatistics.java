@@ -0,0 +1,219 @@
+// HtpStatistics.java
+
+package hexgui.htp;
+
+import hexgui.util.Log;
+import java.lang.management.ManagementFactory;
+import java.util.TreeMap;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Statistics of the HTP traffic with a program, kept per command name.
+ *
+ * <p>Recording is cheap and thread safe, so that the controller can record every command and
+ * every <code>gogui-gfx</code> line. After <code>register()</code> the totals and each command
+ * are also available as MBeans under the JMX domain <code>hexgui</code>.
+ */
+public final class HtpStatistics implements HtpStatisticsMBean {
+  public HtpStatistics() {
+    m_commands = new TreeMap<String, CommandStatistics>();
+    m_bytesSent = new AtomicLong();
+    m_bytesReceived = new AtomicLong();
+    m_gfxLines = new AtomicLong();
+  }
+
+  /**
+   * Registers the statistics with the platform MBean server as <code>
+   * hexgui:type=HtpStatistics,name=</code><i>name</i>, and each command as <code>
+   * hexgui:type=HtpCommand,program=</code><i>name</i><code>,name=</code><i>command</i>. Errors are
+   * logged and otherwise ignored.
+   */
+  public synchronized void register(String name) {
+    m_name = name;
+    registerBean(this, "HtpStatistics", null);
+    for (CommandStatistics command : m_commands.values()) {
+      registerBean(command, "HtpCommand", command.getName());
+    }
+  }
+
+  /** Removes the MBeans registered by <code>register()</code>. */
+  public synchronized void unregister() {
+    if (m_name == null) return;
+    unregisterBean("HtpStatistics", null);
+    for (String command : m_commands.keySet()) unregisterBean("HtpCommand", command);
+    m_name = null;
+  }
+
+  /** Returns the statistics of the command of <code>cmd</code>, a complete command line. */
+  public synchronized CommandStatistics getCommand(String cmd) {
+    String name = getName(cmd);
+    CommandStatistics command = m_commands.get(name);
+    if (command == null) {
+      command = new CommandStatistics(name);
+      m_commands.put(name, command);
+      if (m_name != null) registerBean(command, "HtpCommand", name);
+    }
+    return command;
+  }
+
+  /** Returns the statistics of all commands seen so far, sorted by name. */
+  public synchronized Vector<CommandStatistics> getCommandList() {
+    return new Vector<CommandStatistics>(m_commands.values());
+  }
+
+  /** <code>cmd</code> was written to the program; returns the statistics of its command. */
+  public CommandStatistics sent(String cmd) {
+    m_bytesSent.addAndGet(cmd.length());
+    return getCommand(cmd);
+  }
+
+  /** A response of <code>bytes</code> bytes was read from the program. */
+  public void received(int bytes) {
+    m_bytesReceived.addAndGet(bytes);
+  }
+
+  /** A <code>gogui-gfx</code> line of <code>bytes</code> bytes was read from the program. */
+  public void gfxLine(int bytes) {
+    m_bytesReceived.addAndGet(bytes);
+    m_gfxLines.incrementAndGet();
+    long second = System.nanoTime() / 1000000000L;
+    synchronized (m_gfxLines) {
+      if (second != m_gfxSecond) {
+        m_gfxLastSecond = (second == m_gfxSecond + 1) ? m_gfxThisSecond : 0;
+        m_gfxSecond = second;
+        m_gfxThisSecond = 0;
+      }
+      m_gfxThisSecond++;
+    }
+  }
+
+  /** The queue of commands waiting to be sent holds <code>depth</code> commands. */
+  public void queueDepth(int depth) {
+    m_queueDepth = depth;
+    if (depth > m_maxQueueDepth) m_maxQueueDepth = depth;
+  }
+
+  // ------------------------------------------------------------
+
+  public long getCommands() {
+    long count = 0;
+    Vector<CommandStatistics> commands = getCommandList();
+    for (int i = 0; i < commands.size(); i++) count += commands.get(i).getCount();
+    return count;
+  }
+
+  public long getErrors() {
+    long count = 0;
+    Vector<CommandStatistics> commands = getCommandList();
+    for (int i = 0; i < commands.size(); i++) count += commands.get(i).getErrors();
+    return count;
+  }
+
+  public long getBytesSent() {
+    return m_bytesSent.get();
+  }
+
+  public long getBytesReceived() {
+    return m_bytesReceived.get();
+  }
+
+  public long getGfxLines() {
+    return m_gfxLines.get();
+  }
+
+  /** Returns the number of gfx lines received in the last full second. */
+  public long getGfxLinesPerSecond() {
+    long second = System.nanoTime() / 1000000000L;
+    synchronized (m_gfxLines) {
+      if (second == m_gfxSecond) return m_gfxLastSecond;
+      if (second == m_gfxSecond + 1) return m_gfxThisSecond;
+      return 0;
+    }
+  }
+
+  public int getQueueDepth() {
+    return m_queueDepth;
+  }
+
+  public int getMaxQueueDepth() {
+    return m_maxQueueDepth;
+  }
+
+  public void reset() {
+    Vector<CommandStatistics> commands = getCommandList();
+    for (int i = 0; i < commands.size(); i++) commands.get(i).reset();
+    m_bytesSent.set(0);
+    m_bytesReceived.set(0);
+    m_gfxLines.set(0);
+    m_maxQueueDepth = m_queueDepth;
+  }
+
+  // ------------------------------------------------------------
+
+  /** Returns the command name of a command line, without a numeric id. */
+  private static String getName(String cmd) {
+    cmd = cmd.trim();
+    int start = 0;
+    while (start < cmd.length() && Character.isDigit(cmd.charAt(start))) start++;
+    if (start == 0 || start == cmd.length() || cmd.charAt(start) != ' ') start = 0;
+    while (start < cmd.length() && cmd.charAt(start) == ' ') start++;
+    int end = start;
+    while (end < cmd.length() && !Character.isWhitespace(cmd.charAt(end))) end++;
+    return cmd.substring(start, end);
+  }
+
+  private ObjectName getObjectName(String type, String command) throws Exception {
+    String name = "hexgui:type=" + type;
+    if (command != null) name += ",program=" + ObjectName.quote(m_name);
+    name += ",name=" + ObjectName.quote((command != null) ? command : m_name);
+    return new ObjectName(name);
+  }
+
+  private void registerBean(Object bean, String type, String command) {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = getObjectName(type, command);
+      if (server.isRegistered(name)) server.unregisterMBean(name);
+      server.registerMBean(bean, name);
+    } catch (Exception e) {
+      s_log.warn("could not register {} MBean: {}", type, e);
+    }
+  }
+
+  private void unregisterBean(String type, String command) {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = getObjectName(type, command);
+      if (server.isRegistered(name)) server.unregisterMBean(name);
+    } catch (Exception e) {
+      s_log.warn("could not unregister {} MBean: {}", type, e);
+    }
+  }
+
+  private static final Log s_log = Log.get("htp");
+
+  /** Name under which the MBeans are registered, or null. */
+  private String m_name;
+
+  private final TreeMap<String, CommandStatistics> m_commands;
+
+  private final AtomicLong m_bytesSent;
+
+  private final AtomicLong m_bytesReceived;
+
+  /** Number of gfx lines; also guards the per-second counts. */
+  private final AtomicLong m_gfxLines;
+
+  private long m_gfxSecond;
+
+  private long m_gfxThisSecond;
+
+  private long m_gfxLastSecond;
+
+  private volatile int m_queueDepth;
+
+  private volatile int m_maxQueueDepth;
+}
@@ -0,0 +1,24 @@
+// HtpStatisticsMBean.java
+
+package hexgui.htp;
+
+/** JMX view of the totals of the HTP connections to a program. */
+public interface HtpStatisticsMBean {
+  long getCommands();
+
+  long getErrors();
+
+  long getBytesSent();
+
+  long getBytesReceived();
+
+  long getGfxLines();
+
+  long getGfxLinesPerSecond();
+
+  int getQueueDepth();
+
+  int getMaxQueueDepth();
+
+  void reset();
+}
@@ -0,0 +1,230 @@
+// ----------------------------------------------------------------------------
+// $Id$
+// ----------------------------------------------------------------------------
+
+package hexgui.htp;
+
+import hexgui.game.Node;
+import hexgui.game.TranspositionIndex;
+import hexgui.hex.HexColor;
+import hexgui.hex.HexPoint;
+import hexgui.hex.Move;
+import hexgui.hex.PointList;
+import hexgui.hex.Position;
+import java.util.Vector;
+
+// ----------------------------------------------------------------------------
+
+/**
+ * Keeps the position of a program in sync with a node of the game tree.
+ *
+ * <p>The synchronizer remembers the position it has set up in the program: a base position set up
+ * on a cleared board, and the moves played on top of it. To go to another node it only undoes the
+ * moves that are not on the path to the node and plays the missing ones, so stepping through a
+ * game tree costs a command or two per step, whatever the depth of the node.
+ *
+ * <p>Setup stones and swap-pieces moves cannot be expressed with <code>play</code> and <code>undo
+ * </code>, so they start a new base position. A base position is set up with a single <code>
+ * gogui-setup</code> command if the program supports it, and with one <code>play</code> per stone
+ * otherwise. Resign, forfeit, swap-sides and pass moves are not sent to the program.
+ */
+public class HtpSynchronizer {
+  public interface Callback {
+    /** Sends a command to the program. */
+    void sendCommand(String cmd);
+  }
+
+  public HtpSynchronizer(Callback callback) {
+    m_callback = callback;
+    m_moves = new Vector<Move>();
+    // Until list_commands has answered, positions are set up from
+    // a cleared board.
+    m_supportsUndo = false;
+    m_supportsSetup = false;
+    m_valid = false;
+  }
+
+  /** Sets the commands supported by the program from the response to <code>list_commands</code>. */
+  public void setSupportedCommands(String commands) {
+    m_supportsUndo = false;
+    m_supportsSetup = false;
+    String lines[] = commands.split("\n");
+    for (int i = 0; i < lines.length; i++) {
+      String cmd = lines[i].trim();
+      if (cmd.equals("undo")) m_supportsUndo = true;
+      else if (cmd.equals("gogui-setup")) m_supportsSetup = true;
+    }
+  }
+
+  public boolean supportsSetup() {
+    return m_supportsSetup;
+  }
+
+  /** The program has an empty board, for example after <code>boardsize</code>. */
+  public void reset() {
+    m_base = null;
+    m_moves.clear();
+    m_valid = true;
+  }
+
+  /** The position of the program is not known; the next synchronization starts from scratch. */
+  public void invalidate() {
+    m_valid = false;
+  }
+
+  /** Returns true if <code>cmd</code> may change the position of the program. */
+  public static boolean changesPosition(String cmd) {
+    String name = cmd.trim().split("\\s+")[0];
+    return name.equals("play")
+        || name.equals("undo")
+        || name.equals("genmove")
+        || name.equals("clear_board")
+        || name.equals("boardsize")
+        || name.equals("gogui-setup")
+        || name.equals("loadsgf");
+  }
+
+  /** The program played <code>move</code> by itself, in response to <code>genmove</code>. */
+  public void played(Move move) {
+    if (!m_valid) return;
+    if (move.getPoint() == HexPoint.SWAP_PIECES) {
+      if (m_board == null) {
+        m_valid = false;
+        return;
+      }
+      Position position = getPosition();
+      TranspositionIndex.play(position, move);
+      m_base = position;
+      m_moves.clear();
+    } else if (isSent(move)) {
+      m_moves.add(move);
+    }
+  }
+
+  /**
+   * Sends the commands that bring the program to the position after <code>node</code>.
+   *
+   * @param board a position with the type and size of the board; its stones are ignored
+   */
+  public void synchronize(Node node, Position board) {
+    Vector<Node> path = new Vector<Node>();
+    for (Node cur = node; cur != null; cur = cur.getParent()) path.add(cur);
+
+    // Find the last base position on the path to the node, and the
+    // moves after it.
+    m_board = new Position(board);
+    m_board.clear();
+    Position position = new Position(m_board);
+    Position base = null;
+    Vector<Move> moves = new Vector<Move>();
+    for (int i = path.size() - 1; i >= 0; i--) {
+      Node cur = path.get(i);
+      TranspositionIndex.play(position, cur);
+      if (cur.hasSetup() || (cur.hasMove() && cur.getMove().getPoint() == HexPoint.SWAP_PIECES)) {
+        base = new Position(position);
+        moves.clear();
+      } else if (cur.hasMove() && isSent(cur.getMove())) {
+        moves.add(cur.getMove());
+      }
+    }
+
+    int common = 0;
+    if (m_valid && getHash(m_base) == getHash(base)) {
+      while (common < m_moves.size()
+          && common < moves.size()
+          && m_moves.get(common).equals(moves.get(common))) common++;
+      int undos = m_moves.size() - common;
+      int delta = undos + moves.size() - common;
+      if ((undos == 0 || m_supportsUndo) && delta <= 1 + getSetupCost(base) + moves.size()) {
+        for (int i = 0; i < undos; i++) {
+          m_callback.sendCommand("undo\n");
+          m_moves.remove(m_moves.size() - 1);
+        }
+        for (int i = common; i < moves.size(); i++) play(moves.get(i));
+        return;
+      }
+    }
+
+    m_callback.sendCommand("clear_board\n");
+    m_base = base;
+    m_moves.clear();
+    m_valid = true;
+    if (base != null) setUp(base);
+    for (int i = 0; i < moves.size(); i++) play(moves.get(i));
+  }
+
+  // ------------------------------------------------------------
+
+  private void play(Move move) {
+    m_callback.sendCommand(
+        "play " + move.getColor().toString() + " " + move.getPoint().toString() + "\n");
+    m_moves.add(move);
+  }
+
+  /** Sets up the stones of <code>base</code> on the cleared board of the program. */
+  private void setUp(Position base) {
+    PointList black = base.getStones(HexColor.BLACK);
+    PointList white = base.getStones(HexColor.WHITE);
+    if (m_supportsSetup) {
+      StringBuilder cmd = new StringBuilder("gogui-setup");
+      for (int i = 0; i < black.size(); i++) cmd.append(" black ").append(black.get(i));
+      for (int i = 0; i < white.size(); i++) cmd.append(" white ").append(white.get(i));
+      m_callback.sendCommand(cmd.append('\n').toString());
+    } else {
+      for (int i = 0; i < black.size(); i++) {
+        m_callback.sendCommand("play black " + black.get(i) + "\n");
+      }
+      for (int i = 0; i < white.size(); i++) {
+        m_callback.sendCommand("play white " + white.get(i) + "\n");
+      }
+    }
+  }
+
+  /** Returns the number of commands needed to set up <code>base</code>. */
+  private int getSetupCost(Position base) {
+    if (base == null) return 0;
+    if (m_supportsSetup) return 1;
+    return base.numberOfPieces();
+  }
+
+  /** Returns the position of the program, which must be known. */
+  private Position getPosition() {
+    Position position = new Position((m_base != null) ? m_base : m_board);
+    for (int i = 0; i < m_moves.size(); i++) TranspositionIndex.play(position, m_moves.get(i));
+    return position;
+  }
+
+  private static long getHash(Position base) {
+    if (base == null) return 0;
+    return base.getHash();
+  }
+
+  /** Returns true if <code>move</code> is sent to the program with <code>play</code>. */
+  private static boolean isSent(Move move) {
+    HexPoint point = move.getPoint();
+    return point != HexPoint.RESIGN
+        && point != HexPoint.FORFEIT
+        && point != HexPoint.SWAP_SIDES
+        && point != HexPoint.PASS
+        && point != HexPoint.SWAP_PIECES;
+  }
+
+  private final Callback m_callback;
+
+  /** Empty board of the last synchronization. */
+  private Position m_board;
+
+  /** Position set up on the cleared board of the program, or null if none. */
+  private Position m_base;
+
+  /** Moves played by the program after setting up <code>m_base</code>. */
+  private final Vector<Move> m_moves;
+
+  /** False if the position of the program is not known. */
+  private boolean m_valid;
+
+  private boolean m_supportsUndo;
+  private boolean m_supportsSetup;
+}
+
+// ----------------------------------------------------------------------------
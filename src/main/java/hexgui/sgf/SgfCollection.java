@@ -0,0 +1,116 @@
+// ----------------------------------------------------------------------------
+// $Id$
+// ----------------------------------------------------------------------------
+
+package hexgui.sgf;
+
+import hexgui.game.CompactGameTree;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+// ----------------------------------------------------------------------------
+
+/**
+ * SGF collection reader. An SGF file may contain any number of game trees one after the other.
+ * The file is memory-mapped and scanned once for the byte range of each game tree; games are then
+ * parsed only when asked for with <code>getGame()</code>, so opening a large archive does not
+ * parse anything and reading game n does not re-read the games before it.
+ *
+ * <p>Files must be smaller than 2 GB.
+ */
+public final class SgfCollection {
+  /** Constructor. Map the file and index its game trees. */
+  public SgfCollection(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) throw new IOException("File too large: " + file.getName());
+      m_buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    } finally {
+      // The mapping stays valid after the channel is closed.
+      raf.close();
+    }
+    m_start = new int[16];
+    m_end = new int[16];
+    buildIndex();
+  }
+
+  /** Returns the number of game trees in the file. */
+  public int getNumGames() {
+    return m_numGames;
+  }
+
+  /** Returns the offset of the '(' that starts game <code>n</code>. */
+  public int getStart(int n) {
+    return m_start[n];
+  }
+
+  /** Returns the offset just after the ')' that ends game <code>n</code>. */
+  public int getEnd(int n) {
+    return m_end[n];
+  }
+
+  /** Parses game <code>n</code>. */
+  public SgfReader getGame(int n) throws SgfReader.SgfError {
+    if (n < 0 || n >= m_numGames) throw new IndexOutOfBoundsException("No game " + n);
+    return new SgfReader(getBytes(n));
+  }
+
+  /**
+   * Parses game <code>n</code> into <code>tree</code>, which must contain only its root, lazily if
+   * <code>lazy</code> is true. See <code>SgfReader</code>.
+   */
+  public SgfReader getGame(int n, CompactGameTree tree, boolean lazy) throws SgfReader.SgfError {
+    if (n < 0 || n >= m_numGames) throw new IndexOutOfBoundsException("No game " + n);
+    return new SgfReader(getBytes(n), tree, lazy);
+  }
+
+  /** Returns the bytes of game <code>n</code>, without copying them. */
+  public ByteBuffer getBytes(int n) {
+    ByteBuffer buffer = m_buffer.duplicate();
+    buffer.limit(m_end[n]);
+    buffer.position(m_start[n]);
+    return buffer.slice();
+  }
+
+  // ------------------------------------------------------------
+
+  /**
+   * Find the byte range of every game tree. Brackets inside property values (including escaped
+   * ones) are skipped, so that only the parentheses of the tree structure are counted. An
+   * unfinished last game runs to the end of the file; the parser reports the error.
+   */
+  private void buildIndex() {
+    int size = m_buffer.limit();
+    for (int i = 0; i < size; i++) {
+      if (m_buffer.get(i) == '(') {
+        int end = SgfLexer.skipTree(m_buffer, i, size);
+        addGame(i, end);
+        i = end - 1;
+      }
+    }
+  }
+
+  private void addGame(int start, int end) {
+    if (m_numGames == m_start.length) {
+      m_start = Arrays.copyOf(m_start, 2 * m_start.length);
+      m_end = Arrays.copyOf(m_end, 2 * m_end.length);
+    }
+    m_start[m_numGames] = start;
+    m_end[m_numGames] = end;
+    m_numGames++;
+  }
+
+  private final MappedByteBuffer m_buffer;
+  private int m_start[];
+  private int m_end[];
+  private int m_numGames;
+}
+
+// ----------------------------------------------------------------------------
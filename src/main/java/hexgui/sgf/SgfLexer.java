@@ -0,0 +1,305 @@
+// ----------------------------------------------------------------------------
+// $Id$
+// ----------------------------------------------------------------------------
+
+package hexgui.sgf;
+
+import hexgui.hex.HexPoint;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+// ----------------------------------------------------------------------------
+
+/**
+ * Byte-level tokenizer for SGF files.
+ *
+ * <p>Reads the input through a fixed-size byte window that is refilled either from an <code>
+ * InputStream</code> or from a <code>ByteBuffer</code> (which may be memory-mapped). Property
+ * values are unescaped into a reusable byte buffer and only decoded into a <code>String</code> when
+ * asked for; point values can be resolved to a <code>HexPoint</code> straight from the bytes.
+ * Line breaks ("\n", "\r" and "\r\n") are all read as '\n', as with <code>LineNumberReader</code>.
+ */
+final class SgfLexer {
+  /** Token type returned at the end of the input. */
+  public static final int EOF = -1;
+
+  /** Token type of a property name; see <code>getWord()</code>. */
+  public static final int WORD = -2;
+
+  private static final int WINDOW_SIZE = 64 * 1024;
+
+  public SgfLexer(InputStream in) {
+    this(in, null);
+  }
+
+  /** Reads the bytes between the position and the limit of <code>buffer</code>. */
+  public SgfLexer(ByteBuffer buffer) {
+    this(null, buffer);
+  }
+
+  private SgfLexer(InputStream in, ByteBuffer buffer) {
+    m_in = in;
+    m_buffer = buffer;
+    m_window = new byte[WINDOW_SIZE];
+    m_value = new byte[256];
+    m_word = new byte[16];
+    m_names = new String[27 * 27];
+    m_pushedBack = false;
+  }
+
+  /**
+   * Starts reading the bytes between the position and the limit of <code>buffer</code>, dropping
+   * any input not read yet. The byte and line counts start again from zero.
+   */
+  public void reset(ByteBuffer buffer) {
+    m_in = null;
+    m_buffer = buffer;
+    m_pos = 0;
+    m_limit = 0;
+    m_offset = 0;
+    m_line = 0;
+    m_pushedBack = false;
+  }
+
+  /**
+   * Returns the offset just after the ')' that closes the game tree starting with the '(' at
+   * <code>start</code>, or <code>limit</code> if the tree is not closed before it. Property values
+   * are skipped, so brackets inside them are not counted.
+   */
+  public static int skipTree(ByteBuffer buffer, int start, int limit) {
+    int depth = 0;
+    boolean invalue = false;
+    for (int i = start; i < limit; i++) {
+      byte c = buffer.get(i);
+      if (invalue) {
+        if (c == '\\') i++;
+        else if (c == ']') invalue = false;
+      } else if (c == '[') {
+        invalue = true;
+      } else if (c == '(') {
+        depth++;
+      } else if (c == ')') {
+        depth--;
+        if (depth == 0) return i + 1;
+      }
+    }
+    return limit;
+  }
+
+  /**
+   * Returns the next token: one of the characters '(', ')', ';' and '[', <code>WORD</code>, <code>
+   * EOF</code>, or any other non-whitespace character as itself. Reading a '[' token does not read
+   * the value after it; call <code>readValue()</code> for that.
+   */
+  public int nextToken() throws IOException {
+    if (m_pushedBack) {
+      m_pushedBack = false;
+      return m_token;
+    }
+    int c = read();
+    while (isWhitespace(c)) c = read();
+    if (isLetter(c)) {
+      m_word[0] = (byte) c;
+      int len = 1;
+      while (true) {
+        c = peek();
+        if (!isLetter(c) && !(c >= '0' && c <= '9')) break;
+        m_pos++;
+        if (len == m_word.length) m_word = grow(m_word);
+        m_word[len++] = (byte) c;
+      }
+      m_wordLength = len;
+      m_token = WORD;
+    } else {
+      m_token = c;
+    }
+    return m_token;
+  }
+
+  /** Makes the next call to <code>nextToken()</code> return the current token again. */
+  public void pushBack() {
+    m_pushedBack = true;
+  }
+
+  /** Returns the name read by the last <code>WORD</code> token. */
+  public String getWord() {
+    // Property names are almost always one or two upper case
+    // letters; share the strings for those.
+    if (m_wordLength <= 2) {
+      int a = m_word[0] - 'A' + 1;
+      int b = (m_wordLength == 2) ? m_word[1] - 'A' + 1 : 0;
+      if (a > 0 && a < 27 && b >= 0 && b < 27) {
+        int i = a * 27 + b;
+        if (m_names[i] == null) m_names[i] = new String(m_word, 0, m_wordLength);
+        return m_names[i];
+      }
+    }
+    return new String(m_word, 0, m_wordLength);
+  }
+
+  /**
+   * Reads a property value up to the closing ']', after its '[' has been read by <code>nextToken()
+   * </code>. Escapes are resolved and whitespace is converted following the SGF rules for
+   * SimpleText, or for Text if <code>text</code> is true.
+   *
+   * @return false if the input ended before the closing ']'
+   */
+  public boolean readValue(boolean text) throws IOException {
+    int len = 0;
+    boolean quoted = false;
+    while (true) {
+      int c = read();
+      if (c < 0) return false;
+
+      if (!quoted) {
+        if (c == ']') break;
+        if (c == '\\') {
+          quoted = true;
+          continue;
+        }
+        // The spec says "Whitespaces other than space must be
+        // converted to space" for SimpleText, and "White spaces
+        // other than linebreaks are converted to space" for Text.
+        if (isWhitespace(c) && !(text && c == '\n')) c = ' ';
+      } else {
+        quoted = false;
+        // Soft line breaks in Text are removed; any other char
+        // following "\" is inserted verbatim, except that
+        // whitespace still has to be converted to space.
+        if (text && c == '\n') continue;
+        if (isWhitespace(c)) c = ' ';
+      }
+      if (len == m_value.length) m_value = grow(m_value);
+      m_value[len++] = (byte) c;
+    }
+    m_valueLength = len;
+    return true;
+  }
+
+  /** Returns the last value read by <code>readValue()</code>, decoded with the default charset. */
+  public String getValue() {
+    return new String(m_value, 0, m_valueLength);
+  }
+
+  /**
+   * Resolves the last value read by <code>readValue()</code> as a point. Both standard SGF
+   * notation for Hex (a1, ...) and Go-like notation used by Little Golem (aa, ...) are supported.
+   *
+   * @return the point, or <code>null</code> if the value is not a point on the largest board
+   */
+  public HexPoint getPointValue() {
+    int start = 0;
+    int end = m_valueLength;
+    while (start < end && m_value[start] == ' ') start++;
+    while (end > start && m_value[end - 1] == ' ') end--;
+    if (end - start < 2) return null;
+
+    int x = lower(m_value[start]) - 'a';
+    if (x < 0 || x >= HexPoint.MAX_WIDTH) return null;
+    int c = lower(m_value[start + 1]);
+    if (end - start == 2 && c >= 'a' && c <= 'z') {
+      int y = c - 'a';
+      if (y >= HexPoint.MAX_HEIGHT) return null;
+      return HexPoint.get(x, y);
+    }
+    int y = 0;
+    for (int i = start + 1; i < end; i++) {
+      int d = m_value[i] - '0';
+      if (d < 0 || d > 9) return null;
+      y = 10 * y + d;
+      if (y > HexPoint.MAX_HEIGHT) return null;
+    }
+    if (y < 1) return null;
+    return HexPoint.get(x, y - 1);
+  }
+
+  /** Returns the number of line breaks read so far. */
+  public int getLineNumber() {
+    return m_line;
+  }
+
+  /** Returns the number of bytes read so far. */
+  public long getBytesRead() {
+    return m_offset + m_pos;
+  }
+
+  // ------------------------------------------------------------
+
+  /** Returns the next byte, with line breaks converted to '\n', or -1 at the end of the input. */
+  private int read() throws IOException {
+    if (m_pos == m_limit && !fill()) return -1;
+    int c = m_window[m_pos++] & 0xff;
+    if (c == '\r') {
+      if (m_pos < m_limit || fill()) {
+        if (m_window[m_pos] == '\n') m_pos++;
+      }
+      c = '\n';
+    }
+    if (c == '\n') m_line++;
+    return c;
+  }
+
+  /** Returns the next byte without consuming it, or -1 at the end of the input. */
+  private int peek() throws IOException {
+    if (m_pos == m_limit && !fill()) return -1;
+    return m_window[m_pos] & 0xff;
+  }
+
+  private boolean fill() throws IOException {
+    m_offset += m_limit;
+    m_pos = 0;
+    m_limit = 0;
+    if (m_buffer != null) {
+      int n = Math.min(m_window.length, m_buffer.remaining());
+      m_buffer.get(m_window, 0, n);
+      m_limit = n;
+    } else if (m_in != null) {
+      int n = m_in.read(m_window, 0, m_window.length);
+      if (n > 0) m_limit = n;
+    }
+    return m_limit > 0;
+  }
+
+  private static boolean isLetter(int c) {
+    return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+  }
+
+  private static boolean isWhitespace(int c) {
+    return c == ' ' || (c >= 0x09 && c <= 0x0D) || (c >= 0x1C && c <= 0x1F);
+  }
+
+  private static int lower(int c) {
+    return (c >= 'A' && c <= 'Z') ? c + ('a' - 'A') : c;
+  }
+
+  private static byte[] grow(byte[] b) {
+    byte[] ret = new byte[2 * b.length];
+    System.arraycopy(b, 0, ret, 0, b.length);
+    return ret;
+  }
+
+  private InputStream m_in;
+  private ByteBuffer m_buffer;
+
+  private final byte m_window[];
+  private int m_pos;
+  private int m_limit;
+
+  /** Number of bytes in the windows before the current one. */
+  private long m_offset;
+
+  private int m_line;
+
+  private int m_token;
+  private boolean m_pushedBack;
+
+  private byte m_word[];
+  private int m_wordLength;
+  private final String m_names[];
+
+  private byte m_value[];
+  private int m_valueLength;
+}
+
+// ----------------------------------------------------------------------------
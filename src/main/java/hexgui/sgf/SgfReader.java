@@ -6,20 +6,31 @@ package hexgui.sgf;
 
 import static java.text.MessageFormat.format;
 
+import hexgui.game.CompactGameTree;
 import hexgui.game.GameInfo;
 import hexgui.game.Node;
 import hexgui.hex.HexColor;
 import hexgui.hex.HexPoint;
 import hexgui.hex.Move;
+import hexgui.util.Log;
 import java.awt.Dimension;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 // ----------------------------------------------------------------------------
 
 /**
- * SGF reader. See https://www.red-bean.com/sgf/ for the SGF definition. NOTE: Uses StringBuilder
- * which requires Java 1.5.
+ * SGF reader. See https://www.red-bean.com/sgf/ for the SGF definition. The input is tokenized by
+ * <code>SgfLexer</code>, which works on bytes and resolves point values without creating strings.
+ *
+ * <p>When reading from a buffer into a <code>CompactGameTree</code>, the reader can parse lazily:
+ * only the root node is parsed up front, and the reader records the byte range of the subtree of
+ * every node it adds and parses its children when they are first asked for (see <code>
+ * CompactGameTree.Expander</code>). Errors found while parsing lazily cut the tree short at the
+ * point of the error; see <code>getLoadError()</code>. The buffer must stay valid, and a mapped
+ * file must not be modified, until the tree has been expanded completely, for instance with
+ * <code>Node.loadAll()</code> on the game tree.
  */
 public final class SgfReader {
   /** Sgf exception. */
@@ -33,19 +44,67 @@ public final class SgfReader {
 
   /** Constructor. Parse the input stream in sgf format. */
   public SgfReader(InputStream in) throws SgfError {
-    InputStreamReader reader = new InputStreamReader(in);
-    m_reader = new LineNumberReader(reader);
-    m_tokenizer = new StreamTokenizer(m_reader);
+    this(in, null);
+  }
+
+  /**
+   * Constructor. Parse the input stream in sgf format into <code>tree</code>, which must contain
+   * only its root. <code>getGameTree()</code> then returns a view of <code>tree</code>; see <code>
+   * CompactGameTree.getNode()</code>.
+   */
+  public SgfReader(InputStream in, CompactGameTree tree) throws SgfError {
+    this(new SgfLexer(in), null, tree);
+    try {
+      in.close();
+    } catch (IOException e) {
+      throw sgfError("IO error occurred while parsing file.");
+    }
+  }
+
+  /**
+   * Constructor. Parse the bytes between the position and the limit of the buffer in sgf format.
+   * The buffer may be memory-mapped.
+   */
+  public SgfReader(ByteBuffer buffer) throws SgfError {
+    this(new SgfLexer(buffer.duplicate()), null, null);
+  }
+
+  /**
+   * Constructor. Parse the bytes between the position and the limit of the buffer in sgf format
+   * into <code>tree</code>, which must contain only its root.
+   */
+  public SgfReader(ByteBuffer buffer, CompactGameTree tree) throws SgfError {
+    this(buffer, tree, false);
+  }
+
+  /**
+   * Constructor. Parse the bytes between the position and the limit of the buffer in sgf format
+   * into <code>tree</code>, which must contain only its root, lazily if <code>lazy</code> is true.
+   */
+  public SgfReader(ByteBuffer buffer, CompactGameTree tree, boolean lazy) throws SgfError {
+    this(new SgfLexer(buffer.duplicate()), lazy ? buffer.slice() : null, tree);
+  }
+
+  private SgfReader(SgfLexer lexer, ByteBuffer data, CompactGameTree tree) throws SgfError {
+    long start = System.nanoTime();
+    m_lexer = lexer;
+    m_data = data;
     m_gameinfo = new GameInfo();
     m_warnings = new Vector<String>();
     m_swap_bug = false;
     try {
       findGameTree();
-      m_gametree = parseGameTree(null, true);
-      m_reader.close();
+      if (tree != null) {
+        if (m_data != null) parseGameTreeLazy(tree);
+        else parseGameTree(tree);
+        m_gametree = tree.getNode(tree.getRoot());
+      } else {
+        m_gametree = parseGameTree();
+      }
     } catch (IOException e) {
       throw sgfError("IO error occurred while parsing file.");
     }
+    m_parseTime = System.nanoTime() - start;
   }
 
   public Node getGameTree() {
@@ -61,76 +120,353 @@ public final class SgfReader {
     return m_warnings;
   }
 
+  /**
+   * Returns the first error found while lazily parsing the tree after the constructor, or <code>
+   * null</code> if there was none. If there was one, the children of the node that was being
+   * loaded are missing or incomplete, so the tree must not be written over the file it was read
+   * from.
+   */
+  public String getLoadError() {
+    return m_loadError;
+  }
+
+  /** Returns the number of bytes parsed. */
+  public long getBytesRead() {
+    return m_lexer.getBytesRead();
+  }
+
+  /** Returns the time taken to parse the input, in nanoseconds. */
+  public long getParseTime() {
+    return m_parseTime;
+  }
+
+  /** Returns the parsing throughput in megabytes (10^6 bytes) per second. */
+  public double getThroughput() {
+    if (m_parseTime <= 0) return 0;
+    return getBytesRead() * 1000.0 / m_parseTime;
+  }
+
   // ------------------------------------------------------------
 
   /** Fast forward to the first "(". */
   private void findGameTree() throws SgfError, IOException {
     while (true) {
-      int ttype = m_tokenizer.nextToken();
-      if (ttype == StreamTokenizer.TT_EOF) throw sgfError("No game tree found!");
+      int ttype = m_lexer.nextToken();
+      if (ttype == SgfLexer.EOF) throw sgfError("No game tree found!");
 
       if (ttype == '(') {
-        m_tokenizer.pushBack();
+        m_lexer.pushBack();
         break;
       }
     }
   }
 
-  private Node parseGameTree(Node parent, boolean isroot) throws SgfError, IOException {
-    int ttype = m_tokenizer.nextToken();
+  /**
+   * Parse the game tree at the current position. The tree is parsed with an explicit stack of
+   * open variations rather than by recursion, so that very deep trees do not overflow the Java
+   * call stack.
+   */
+  private Node parseGameTree() throws SgfError, IOException {
+    int ttype = m_lexer.nextToken();
     if (ttype != '(') throw sgfError("Missing '(' at head of game tree.");
+    ttype = m_lexer.nextToken();
+    if (ttype != ';') throw sgfError("Error at head of node!");
 
-    Node node = parseNode(parent, isroot);
+    Node root = new Node();
+    Node node = root;
 
-    ttype = m_tokenizer.nextToken();
-    if (ttype != ')') throw sgfError("Game tree not closed!");
+    // The last child of the current node, so that children can be
+    // appended without walking the list of siblings.
+    Node last = null;
 
-    return node;
+    // Nodes that own the variations that are currently open, and
+    // the first node of each of those variations.
+    Vector<Node> variations = new Vector<Node>();
+    Vector<Node> heads = new Vector<Node>();
+
+    while (true) {
+      ttype = m_lexer.nextToken();
+      switch (ttype) {
+        case '(':
+          variations.add(node);
+          ttype = m_lexer.nextToken();
+          if (ttype != ';') throw sgfError("Error at head of node!");
+          node = addNode(node, last);
+          heads.add(node);
+          last = null;
+          break;
+
+        case ';':
+          node = addNode(node, last);
+          last = null;
+          break;
+
+        case ')':
+          if (variations.isEmpty()) return root;
+          last = heads.remove(heads.size() - 1);
+          node = variations.remove(variations.size() - 1);
+          break;
+
+        case SgfLexer.WORD:
+          parseProperty(node, node == root);
+          break;
+
+        case SgfLexer.EOF:
+          throw sgfError("Unexpected EOF in node!");
+
+        default:
+          throw sgfError("Error in SGF file.");
+      }
+    }
   }
 
-  private Node parseNode(Node parent, boolean isroot) throws SgfError, IOException {
-    int ttype = m_tokenizer.nextToken();
+  /**
+   * Parse the game tree at the current position into <code>tree</code>. Same as <code>
+   * parseGameTree()</code>, except that the properties of each node are parsed into a temporary
+   * <code>Node</code> and then moved into the tree.
+   */
+  private void parseGameTree(CompactGameTree tree) throws SgfError, IOException {
+    int ttype = m_lexer.nextToken();
+    if (ttype != '(') throw sgfError("Missing '(' at head of game tree.");
+    ttype = m_lexer.nextToken();
     if (ttype != ';') throw sgfError("Error at head of node!");
 
-    Node node = new Node();
-    node.setParent(parent);
-    if (parent != null) parent.addChild(node);
+    int root = tree.getRoot();
+    int node = root;
+    Node contents = new Node();
+    Vector<Integer> variations = new Vector<Integer>();
 
-    boolean done = false;
-    while (!done) {
-      ttype = m_tokenizer.nextToken();
+    while (true) {
+      ttype = m_lexer.nextToken();
       switch (ttype) {
         case '(':
-          m_tokenizer.pushBack();
-          parseGameTree(node, false);
+          if (tree.addContents(node, contents)) contents = new Node();
+          else contents.setMove(null);
+          variations.add(node);
+          ttype = m_lexer.nextToken();
+          if (ttype != ';') throw sgfError("Error at head of node!");
+          node = tree.addChild(node);
           break;
 
         case ';':
-          m_tokenizer.pushBack();
-          parseNode(node, false);
-          done = true;
+          if (tree.addContents(node, contents)) contents = new Node();
+          else contents.setMove(null);
+          node = tree.addChild(node);
           break;
 
         case ')':
-          m_tokenizer.pushBack();
-          done = true;
+          if (tree.addContents(node, contents)) contents = new Node();
+          else contents.setMove(null);
+          if (variations.isEmpty()) return;
+          node = variations.remove(variations.size() - 1);
           break;
 
-        case StreamTokenizer.TT_WORD:
-          parseProperty(node, isroot);
+        case SgfLexer.WORD:
+          parseProperty(contents, node == root);
           break;
 
-        case StreamTokenizer.TT_EOF:
+        case SgfLexer.EOF:
           throw sgfError("Unexpected EOF in node!");
 
         default:
           throw sgfError("Error in SGF file.");
       }
     }
+  }
 
+  /**
+   * Parse the root node of the game tree at the current position into <code>tree</code>, and leave
+   * the rest of the tree to be parsed when it is needed.
+   */
+  private void parseGameTreeLazy(CompactGameTree tree) throws SgfError, IOException {
+    int ttype = m_lexer.nextToken();
+    if (ttype != '(') throw sgfError("Missing '(' at head of game tree.");
+    ttype = m_lexer.nextToken();
+    if (ttype != ';') throw sgfError("Error at head of node!");
+
+    m_subtree = new Subtree();
+    tree.setExpander(m_subtree);
+    int root = tree.getRoot();
+    Node contents = new Node();
+    parseProperties(contents, true);
+    tree.addContents(root, contents);
+    setSubtree(tree, root, m_data.limit());
+  }
+
+  /**
+   * Parse the children of a node whose subtree runs from <code>start</code> to <code>end</code>
+   * into <code>tree</code>. Only the properties of the children are parsed; their own children are
+   * left for later.
+   */
+  private void parseChildren(CompactGameTree tree, int node, int start, int end)
+      throws SgfError, IOException {
+    seek(start, end);
+    Node contents = new Node();
+    while (true) {
+      int ttype = m_lexer.nextToken();
+      if (ttype == '(') {
+        int vend = findTreeEnd(getTokenOffset());
+        ttype = m_lexer.nextToken();
+        if (ttype != ';') throw sgfError("Error at head of node!");
+        int child = tree.addChild(node);
+        parseProperties(contents, false);
+        if (tree.addContents(child, contents)) contents = new Node();
+        else contents.setMove(null);
+        setSubtree(tree, child, vend - 1);
+        seek(vend, end);
+      } else if (ttype == ';') {
+        int child = tree.addChild(node);
+        parseProperties(contents, false);
+        tree.addContents(child, contents);
+        setSubtree(tree, child, end);
+        return;
+      } else if (ttype == ')' || ttype == SgfLexer.EOF) {
+        return;
+      } else {
+        throw sgfError("Error in SGF file.");
+      }
+    }
+  }
+
+  /** Parse the properties of a node, up to the token that follows them. */
+  private void parseProperties(Node node, boolean isroot) throws SgfError, IOException {
+    while (true) {
+      int ttype = m_lexer.nextToken();
+      if (ttype != SgfLexer.WORD) {
+        m_lexer.pushBack();
+        return;
+      }
+      parseProperty(node, isroot);
+    }
+  }
+
+  /**
+   * Mark a node whose properties have just been parsed as unexpanded, if the token after its
+   * properties starts any children. Its subtree ends at <code>end</code>.
+   */
+  private void setSubtree(CompactGameTree tree, int node, int end) throws IOException {
+    int ttype = m_lexer.nextToken();
+    m_lexer.pushBack();
+    if (ttype == '(' || ttype == ';') {
+      m_subtree.setRange(node, getTokenOffset(), end);
+      tree.setUnexpanded(node);
+    }
+  }
+
+  /**
+   * Returns the offset just after the ')' that matches the '(' at <code>start</code>. The offsets
+   * of all matching parentheses are found in one pass over the data the first time this is
+   * needed, so that finding the next variation does not scan the one before it again.
+   */
+  private int findTreeEnd(int start) {
+    if (m_open == null) {
+      int size = m_data.limit();
+      int open[] = new int[64];
+      int close[] = new int[64];
+      int stack[] = new int[64];
+      int num = 0;
+      int depth = 0;
+      boolean invalue = false;
+      for (int i = 0; i < size; i++) {
+        byte c = m_data.get(i);
+        if (invalue) {
+          if (c == '\\') i++;
+          else if (c == ']') invalue = false;
+        } else if (c == '[') {
+          invalue = true;
+        } else if (c == '(') {
+          if (num == open.length) {
+            open = Arrays.copyOf(open, 2 * num);
+            close = Arrays.copyOf(close, 2 * num);
+          }
+          if (depth == stack.length) stack = Arrays.copyOf(stack, 2 * depth);
+          open[num] = i;
+          close[num] = size;
+          stack[depth++] = num++;
+        } else if (c == ')' && depth > 0) {
+          close[stack[--depth]] = i + 1;
+        }
+      }
+      m_open = Arrays.copyOf(open, num);
+      m_close = Arrays.copyOf(close, num);
+    }
+    int i = Arrays.binarySearch(m_open, start);
+    assert (i >= 0);
+    return m_close[i];
+  }
+
+  /** Returns the offset in the data of the single-character token just read. */
+  private int getTokenOffset() {
+    return m_base + (int) m_lexer.getBytesRead() - 1;
+  }
+
+  private void seek(int start, int end) {
+    ByteBuffer buffer = m_data.duplicate();
+    buffer.limit(end);
+    buffer.position(start);
+    m_lexer.reset(buffer);
+    m_base = start;
+  }
+
+  /** Expander that parses the children of a node from the byte range of its subtree. */
+  private final class Subtree implements CompactGameTree.Expander {
+    public Subtree() {
+      m_start = new int[1024];
+      m_end = new int[1024];
+    }
+
+    /** Sets the byte range of the children of <code>node</code>. */
+    public void setRange(int node, int start, int end) {
+      if (node >= m_start.length) {
+        int capacity = Math.max(2 * m_start.length, node + 1);
+        m_start = Arrays.copyOf(m_start, capacity);
+        m_end = Arrays.copyOf(m_end, capacity);
+      }
+      m_start[node] = start;
+      m_end[node] = end;
+    }
+
+    public void expand(CompactGameTree tree, int node) {
+      try {
+        parseChildren(tree, node, m_start[node], m_end[node]);
+      } catch (SgfError e) {
+        loadError("Error in SGF file at offset " + m_start[node] + ": " + e.getMessage());
+      } catch (IOException e) {
+        loadError("IO error occurred while parsing file: " + e.getMessage());
+      }
+    }
+
+    private void loadError(String msg) {
+      s_log.error("{}", msg);
+      if (m_loadError == null) m_loadError = msg;
+    }
+
+    /** Byte ranges of the children of the nodes, indexed by handle. */
+    private int m_start[];
+
+    private int m_end[];
+  }
+
+  /** Adds a new node as the child of <code>parent</code> after its last child <code>last</code>. */
+  private Node addNode(Node parent, Node last) {
+    Node node = new Node();
+    if (last == null) {
+      parent.addChild(node);
+    } else {
+      node.setParent(parent);
+      node.setPrev(last);
+      last.setNext(node);
+    }
     return node;
   }
 
+  /** Parse the last value read as a point. */
+  private HexPoint parsePoint() throws SgfError {
+    HexPoint result = m_lexer.getPointValue();
+    if (result == null) result = parsePoint(m_lexer.getValue());
+    return result;
+  }
+
   /**
    * Parse a point or move value. Supports both standard SGF notation for Hex (a1, ...) and Go-like
    * notation used by Little Golem (aa, ...)
@@ -158,6 +494,13 @@ public final class SgfReader {
     return result;
   }
 
+  /** Parse the last value read as a move. */
+  private HexPoint parseMove() throws SgfError {
+    HexPoint result = m_lexer.getPointValue();
+    if (result == null) result = parseMove(m_lexer.getValue());
+    return result;
+  }
+
   private HexPoint parseMove(String s) throws SgfError {
     s = s.trim().toLowerCase(Locale.ENGLISH);
 
@@ -192,41 +535,49 @@ public final class SgfReader {
 
   private void parseProperty(Node node, boolean isroot) throws SgfError, IOException {
     int x, y;
-    String name = m_tokenizer.sval;
+    String name = m_lexer.getWord();
 
     boolean done = false;
     while (!done) {
 
-      int ttype = m_tokenizer.nextToken();
+      int ttype = m_lexer.nextToken();
       if (ttype != '[') {
         done = true;
       }
-      m_tokenizer.pushBack();
+      m_lexer.pushBack();
       if (done) {
         break;
       }
 
-      String val;
       if (name.equals("C")) {
-        val = parseComment();
+        parseComment();
       } else {
-        val = parseValue();
+        parseValue();
       }
-      // System.out.println(name + "[" + val + "]");
 
+      // Moves and setup stones are resolved without creating a
+      // string for the value.
       if (name.equals("W")) {
-        HexPoint point = parseMove(val);
-        node.setMove(new Move(point, HexColor.WHITE));
+        node.setMove(new Move(parseMove(), HexColor.WHITE));
+        continue;
       } else if (name.equals("B")) {
-        HexPoint point = parseMove(val);
-        node.setMove(new Move(point, HexColor.BLACK));
+        node.setMove(new Move(parseMove(), HexColor.BLACK));
+        continue;
       } else if (name.equals("AB")) {
-        node.addSetup(HexColor.BLACK, parsePoint(val));
+        node.addSetup(HexColor.BLACK, parsePoint());
+        continue;
       } else if (name.equals("AW")) {
-        node.addSetup(HexColor.WHITE, parsePoint(val));
+        node.addSetup(HexColor.WHITE, parsePoint());
+        continue;
       } else if (name.equals("AE")) {
-        node.addSetup(HexColor.EMPTY, parsePoint(val));
-      } else if (name.equals("LB")) {
+        node.addSetup(HexColor.EMPTY, parsePoint());
+        continue;
+      }
+
+      String val = m_lexer.getValue();
+      // System.out.println(name + "[" + val + "]");
+
+      if (name.equals("LB")) {
         node.addLabel(val);
       } else if (name.equals("FF")) {
         node.setSgfProperty(name, val);
@@ -265,113 +616,27 @@ public final class SgfReader {
     }
   }
 
-  // Parse an SGF "SimpleText" property value.
-  private String parseValue() throws SgfError, IOException {
-    int ttype = m_tokenizer.nextToken();
+  // Parse an SGF "SimpleText" property value into the lexer's value
+  // buffer.
+  private void parseValue() throws SgfError, IOException {
+    int ttype = m_lexer.nextToken();
     if (ttype != '[') {
       throw sgfError("Property missing opening '['.");
     }
-
-    StringBuilder sb = new StringBuilder(256);
-    boolean quoted = false;
-    while (true) {
-      int ch = m_reader.read();
-      if (ch < 0) {
-        throw sgfError("Property runs to EOF.");
-      }
-      // Don't rely on the default conversion, because
-      // sb.append(ch) would convert the integer to a string
-      // rather than a character.
-      char c = (char) ch;
-
-      if (!quoted) {
-        if (c == ']') {
-          break;
-        }
-        if (c == '\\') {
-          quoted = true;
-        } else {
-          if (Character.isWhitespace(c)) {
-            // The spec says "Whitespaces other than space
-            // must be converted to space".
-            sb.append(' ');
-          } else {
-            sb.append(c);
-          }
-        }
-      } else {
-        quoted = false;
-        if (Character.isWhitespace(c)) {
-          // The spec says "Any char following "\" is
-          // inserted verbatim (exception: whitespaces still
-          // have to be converted to space!)."
-          sb.append(' ');
-        } else {
-          sb.append(c);
-        }
-      }
+    if (!m_lexer.readValue(false)) {
+      throw sgfError("Property runs to EOF.");
     }
-
-    return sb.toString();
   }
 
-  // Parse an SGF "Text" property value.
-  private String parseComment() throws SgfError, IOException {
-    int ttype = m_tokenizer.nextToken();
+  // Parse an SGF "Text" property value into the lexer's value buffer.
+  private void parseComment() throws SgfError, IOException {
+    int ttype = m_lexer.nextToken();
     if (ttype != '[') {
       throw sgfError("Comment missing opening '['.");
     }
-
-    StringBuilder sb = new StringBuilder(4096);
-    boolean quoted = false;
-    while (true) {
-      int ch = m_reader.read();
-      if (ch < 0) {
-        throw sgfError("Comment runs to EOF.");
-      }
-      char c = (char) ch;
-
-      if (!quoted) {
-        if (c == ']') {
-          break;
-        }
-
-        if (c == '\\') {
-          quoted = true;
-        } else {
-          if (Character.isWhitespace(c) && c != '\n') {
-            // The spec says "White spaces other than
-            // linebreaks are converted to space (e.g. no
-            // tab, vertical tab, ..)."
-
-            // Also note that the LineNumberReader class
-            // already takes care of newline conversion,
-            // i.e., "\n", "\r", and "\r\n" are all
-            // converted to '\n'.
-            sb.append(' ');
-          } else {
-            sb.append(c);
-          }
-        }
-      } else {
-        quoted = false;
-        if (c == '\n') {
-          // Append nothing. The spec says: "Soft line
-          // break: linebreaks preceded by a "\" (soft
-          // linebreaks are converted to "", i.e. they are
-          // removed)".
-        } else if (Character.isWhitespace(c)) {
-          // The spec says: "Any char following "\" is
-          // inserted verbatim (exception: whitespaces still
-          // have to be converted to space!).
-          sb.append(' ');
-        } else {
-          sb.append(c);
-        }
-      }
+    if (!m_lexer.readValue(true)) {
+      throw sgfError("Comment runs to EOF.");
     }
-
-    return sb.toString();
   }
 
   private int parseInt(String str) throws SgfError {
@@ -393,15 +658,33 @@ public final class SgfReader {
   }
 
   private SgfError sgfError(String msg) {
-    return new SgfError("Line " + m_reader.getLineNumber() + ": " + msg);
+    return new SgfError("Line " + m_lexer.getLineNumber() + ": " + msg);
   }
 
   private void sgfWarning(String msg) {
-    m_warnings.add("Line " + m_reader.getLineNumber() + ": " + msg);
+    m_warnings.add("Line " + m_lexer.getLineNumber() + ": " + msg);
   }
 
-  private StreamTokenizer m_tokenizer;
-  private LineNumberReader m_reader;
+  private static final Log s_log = Log.get("sgf");
+
+  private SgfLexer m_lexer;
+  private long m_parseTime;
+
+  /** Data of a lazily parsed tree, and the offset in it the lexer started at. */
+  private ByteBuffer m_data;
+
+  private Subtree m_subtree;
+
+  private int m_base;
+
+  /** Offsets of the '(' in the data and of the ends of their trees; see findTreeEnd(). */
+  private int m_open[];
+
+  private int m_close[];
+
+  /** First error found by a <code>Subtree</code>; see getLoadError(). */
+  private volatile String m_loadError;
+
   private Node m_gametree;
   private GameInfo m_gameinfo;
   private Vector<String> m_warnings;
@@ -12,8 +12,10 @@ import hexgui.hex.Move;
 import hexgui.version.Version;
 import java.awt.Dimension;
 import java.io.*;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.Vector;
 
 // ----------------------------------------------------------------------------
@@ -27,40 +29,75 @@ public final class SgfWriter {
     m_buffer = new StringBuffer(128);
     m_gameinfo = game;
 
-    writeTree(root, true);
+    writeTree(root);
     print("\n");
     flushBuffer();
     m_out.flush();
     m_out.close();
   }
 
-  private void writeTree(Node root, boolean isroot) {
-    print("(");
-    writeNode(root, isroot);
-    print(")");
+  /**
+   * Write the tree rooted at <code>root</code>. Variations are kept on an explicit stack rather
+   * than written by recursion, so that very deep trees do not overflow the Java call stack.
+   */
+  private void writeTree(Node root) {
+    // Variations still to be written, in order from the top of the
+    // stack; a null entry stands for the ")" closing a variation.
+    Vector<Node> stack = new Vector<Node>();
+    stack.add(null);
+    stack.add(root);
+    while (!stack.isEmpty()) {
+      Node node = stack.remove(stack.size() - 1);
+      if (node == null) {
+        print(")");
+        continue;
+      }
+
+      print("(");
+      while (true) {
+        writeNode(node, node == root);
+        Node child = node.getChild();
+        if (child == null) break;
+        if (child.getNext() == null) {
+          node = child;
+          continue;
+        }
+
+        int first = stack.size();
+        for (; child != null; child = child.getNext()) {
+          stack.add(child);
+          stack.add(null);
+        }
+        Collections.reverse(stack.subList(first, stack.size()));
+        break;
+      }
+    }
   }
 
   private void writeNode(Node node, boolean isroot) {
     print(";");
 
+    Map<String, String> map = node.getProperties();
     if (isroot) {
+      // Written with the other properties in key order, but not
+      // stored in the node, so that saving does not change the tree.
+      map = new TreeMap<String, String>(map);
       String value;
 
-      node.setSgfProperty("FF", "4");
-      node.setSgfProperty("AP", "HexGui:" + Version.id);
-      node.setSgfProperty("GM", "11");
+      map.put("FF", "4");
+      map.put("AP", "HexGui:" + Version.id);
+      map.put("GM", "11");
 
       Dimension dim = m_gameinfo.getBoardSize();
       value = Integer.toString(dim.width);
       if (dim.width != dim.height) value += ":" + Integer.toString(dim.height);
-      node.setSgfProperty("SZ", value);
+      map.put("SZ", value);
     }
 
     if (node.getMove() != null) {
       printMove(node.getMove());
     }
 
-    Map<String, String> map = node.getProperties();
     Iterator<Map.Entry<String, String>> it = map.entrySet().iterator();
     while (it.hasNext()) {
       Map.Entry<String, String> e = it.next();
@@ -94,18 +131,6 @@ public final class SgfWriter {
         printPointList(list);
       }
     }
-
-    int num = node.numChildren();
-    if (num == 0) return;
-
-    if (num == 1) {
-      writeNode(node.getChild(), false);
-      return;
-    }
-
-    for (int i = 0; i < num; i++) {
-      writeTree(node.getChild(i), false);
-    }
   }
 
   private String escapeString(String s) {
@@ -0,0 +1,103 @@
+// Histogram.java
+
+package hexgui.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of non-negative <code>long</code> values with a bounded relative error.
+ *
+ * <p>Values are counted in buckets whose width grows with the value, as in HdrHistogram: values
+ * below 64 have a bucket each, and every larger power of two is split into 32 buckets, so a value
+ * is known to about 3%. All values of a <code>long</code> fit into 1888 buckets. Recording takes
+ * a few atomic operations and allocates nothing, and may be done from several threads at once.
+ */
+public final class Histogram {
+  private static final int SUB_BITS = 5;
+
+  private static final int SUB_COUNT = 1 << SUB_BITS;
+
+  private static final int BUCKETS = (63 - SUB_BITS) * SUB_COUNT + SUB_COUNT;
+
+  public Histogram() {
+    m_counts = new AtomicLongArray(BUCKETS);
+    m_count = new AtomicLong();
+    m_sum = new AtomicLong();
+    m_max = new AtomicLong();
+  }
+
+  /** Adds a value; negative values are counted as 0. */
+  public void record(long value) {
+    if (value < 0) value = 0;
+    m_counts.incrementAndGet(getIndex(value));
+    m_count.incrementAndGet();
+    m_sum.addAndGet(value);
+    long max = m_max.get();
+    while (value > max && !m_max.compareAndSet(max, value)) max = m_max.get();
+  }
+
+  public long getCount() {
+    return m_count.get();
+  }
+
+  public long getMax() {
+    return m_max.get();
+  }
+
+  public double getMean() {
+    long count = m_count.get();
+    if (count == 0) return 0;
+    return (double) m_sum.get() / count;
+  }
+
+  /**
+   * Returns the value below or at which <code>percentile</code> percent of the values are, up to
+   * the resolution of the buckets.
+   *
+   * @return 0 if no values were recorded
+   */
+  public long getPercentile(double percentile) {
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++) count += m_counts.get(i);
+    if (count == 0) return 0;
+    long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += m_counts.get(i);
+      if (seen >= target) return Math.min(getHighest(i), m_max.get());
+    }
+    return m_max.get();
+  }
+
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) m_counts.set(i, 0);
+    m_count.set(0);
+    m_sum.set(0);
+    m_max.set(0);
+  }
+
+  // ------------------------------------------------------------
+
+  private static int getIndex(long value) {
+    if (value < 2 * SUB_COUNT) return (int) value;
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+    return (shift << SUB_BITS) + (int) (value >>> shift);
+  }
+
+  /** Returns the largest value counted in bucket <code>index</code>. */
+  private static long getHighest(int index) {
+    if (index < 2 * SUB_COUNT) return index;
+    int shift = (index >>> SUB_BITS) - 1;
+    long mantissa = index - (shift << SUB_BITS);
+    return ((mantissa + 1) << shift) - 1;
+  }
+
+  private final AtomicLongArray m_counts;
+
+  private final AtomicLong m_count;
+
+  private final AtomicLong m_sum;
+
+  private final AtomicLong m_max;
+}
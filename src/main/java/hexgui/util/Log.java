@@ -0,0 +1,272 @@
+// Log.java
+
+package hexgui.util;
+
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Leveled logging with an asynchronous, bounded appender.
+ *
+ * <p>Messages are given as a pattern with <code>{}</code> placeholders and up to three arguments.
+ * A call on a disabled level returns after comparing two integers; it builds no string and, as
+ * long as the arguments already exist, allocates nothing. For an enabled level the pattern and
+ * arguments are queued and formatted by the appender thread, which writes them to standard
+ * output. Arguments are converted with <code>toString()</code> and trimmed, since most of them
+ * are protocol lines ending with a newline. If the queue is full the message is dropped and
+ * counted, so that a fast stream of messages never blocks the program.
+ *
+ * <p>The level is read from the system property <code>hexgui.log.level</code>, and for a single
+ * log from <code>hexgui.log.level.</code><i>name</i>: one of <code>trace</code>, <code>debug
+ * </code>, <code>info</code>, <code>warn</code>, <code>error</code> and <code>off</code>. The
+ * default is <code>info</code>.
+ */
+public final class Log {
+  public enum Level {
+    TRACE,
+    DEBUG,
+    INFO,
+    WARN,
+    ERROR,
+    OFF
+  }
+
+  /** Maximum number of messages waiting for the appender. */
+  public static final int QUEUE_SIZE = 8192;
+
+  /** Returns the log with the given name, which is printed with every message. */
+  public static Log get(String name) {
+    return new Log(name);
+  }
+
+  /** Sets the level of all logs that have no level of their own. */
+  public static void setDefaultLevel(Level level) {
+    s_defaultLevel = level.ordinal();
+  }
+
+  /** Returns the number of messages dropped because the queue was full. */
+  public static long getDropped() {
+    return s_dropped.get();
+  }
+
+  /** Sets the level of this log, overriding the default level. */
+  public void setLevel(Level level) {
+    m_level = level.ordinal();
+  }
+
+  public boolean isEnabled(Level level) {
+    int min = (m_level >= 0) ? m_level : s_defaultLevel;
+    return level.ordinal() >= min;
+  }
+
+  public boolean isDebugEnabled() {
+    return isEnabled(Level.DEBUG);
+  }
+
+  public void trace(String pattern) {
+    if (isEnabled(Level.TRACE)) log(Level.TRACE, pattern, null, null, null);
+  }
+
+  public void trace(String pattern, Object a) {
+    if (isEnabled(Level.TRACE)) log(Level.TRACE, pattern, a, null, null);
+  }
+
+  public void trace(String pattern, Object a, Object b) {
+    if (isEnabled(Level.TRACE)) log(Level.TRACE, pattern, a, b, null);
+  }
+
+  public void debug(String pattern) {
+    if (isEnabled(Level.DEBUG)) log(Level.DEBUG, pattern, null, null, null);
+  }
+
+  public void debug(String pattern, Object a) {
+    if (isEnabled(Level.DEBUG)) log(Level.DEBUG, pattern, a, null, null);
+  }
+
+  public void debug(String pattern, Object a, Object b) {
+    if (isEnabled(Level.DEBUG)) log(Level.DEBUG, pattern, a, b, null);
+  }
+
+  public void debug(String pattern, Object a, Object b, Object c) {
+    if (isEnabled(Level.DEBUG)) log(Level.DEBUG, pattern, a, b, c);
+  }
+
+  public void info(String pattern) {
+    if (isEnabled(Level.INFO)) log(Level.INFO, pattern, null, null, null);
+  }
+
+  public void info(String pattern, Object a) {
+    if (isEnabled(Level.INFO)) log(Level.INFO, pattern, a, null, null);
+  }
+
+  public void info(String pattern, Object a, Object b) {
+    if (isEnabled(Level.INFO)) log(Level.INFO, pattern, a, b, null);
+  }
+
+  public void warn(String pattern) {
+    if (isEnabled(Level.WARN)) log(Level.WARN, pattern, null, null, null);
+  }
+
+  public void warn(String pattern, Object a) {
+    if (isEnabled(Level.WARN)) log(Level.WARN, pattern, a, null, null);
+  }
+
+  public void warn(String pattern, Object a, Object b) {
+    if (isEnabled(Level.WARN)) log(Level.WARN, pattern, a, b, null);
+  }
+
+  public void error(String pattern, Object a) {
+    if (isEnabled(Level.ERROR)) log(Level.ERROR, pattern, a, null, null);
+  }
+
+  /** Waits until the appender has written all queued messages. */
+  public static void flush() {
+    synchronized (s_queue) {
+      while (s_unwritten.get() > 0) {
+        try {
+          s_queue.wait(100);
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+    }
+  }
+
+  // ------------------------------------------------------------
+
+  private Log(String name) {
+    m_name = name;
+    m_level = parseLevel(System.getProperty("hexgui.log.level." + name), -1);
+  }
+
+  /** A queued message. */
+  private static final class Record {
+    public Record(Level level, String name, String pattern, Object a, Object b, Object c) {
+      m_time = System.currentTimeMillis();
+      m_thread = Thread.currentThread().getName();
+      m_level = level;
+      m_name = name;
+      m_pattern = pattern;
+      m_a = a;
+      m_b = b;
+      m_c = c;
+    }
+
+    public String format(SimpleDateFormat time) {
+      StringBuilder buffer = new StringBuilder(m_pattern.length() + 64);
+      buffer.append(time.format(new Date(m_time)));
+      buffer.append(' ').append(m_level).append(" [").append(m_thread).append("] ");
+      buffer.append(m_name).append(": ");
+      Object args[] = {m_a, m_b, m_c};
+      int arg = 0;
+      int start = 0;
+      while (true) {
+        int pos = m_pattern.indexOf("{}", start);
+        if (pos < 0 || arg == args.length) break;
+        buffer.append(m_pattern, start, pos);
+        buffer.append(String.valueOf(args[arg++]).trim());
+        start = pos + 2;
+      }
+      buffer.append(m_pattern, start, m_pattern.length());
+      return buffer.toString();
+    }
+
+    private final long m_time;
+    private final String m_thread;
+    private final Level m_level;
+    private final String m_name;
+    private final String m_pattern;
+    private final Object m_a;
+    private final Object m_b;
+    private final Object m_c;
+  }
+
+  private void log(Level level, String pattern, Object a, Object b, Object c) {
+    s_unwritten.incrementAndGet();
+    if (!s_queue.offer(new Record(level, m_name, pattern, a, b, c))) {
+      s_unwritten.decrementAndGet();
+      s_dropped.incrementAndGet();
+    }
+  }
+
+  /** Appender thread. */
+  private static void append() {
+    SimpleDateFormat time = new SimpleDateFormat("HH:mm:ss.SSS", Locale.ENGLISH);
+    ArrayList<Record> records = new ArrayList<Record>();
+    long reported = 0;
+    while (true) {
+      try {
+        records.add(s_queue.take());
+      } catch (InterruptedException e) {
+        return;
+      }
+      s_queue.drainTo(records);
+      // Look up System.out each time, so that it can be redirected.
+      PrintStream out = System.out;
+      long dropped = s_dropped.get();
+      if (dropped != reported) {
+        out.println("log: " + (dropped - reported) + " messages dropped");
+        reported = dropped;
+      }
+      for (int i = 0; i < records.size(); i++) out.println(records.get(i).format(time));
+      out.flush();
+      s_unwritten.addAndGet(-records.size());
+      records.clear();
+      synchronized (s_queue) {
+        s_queue.notifyAll();
+      }
+    }
+  }
+
+  private static int parseLevel(String name, int defaultLevel) {
+    if (name == null) return defaultLevel;
+    try {
+      return Level.valueOf(name.trim().toUpperCase(Locale.ENGLISH)).ordinal();
+    } catch (IllegalArgumentException e) {
+      System.err.println("Unknown log level '" + name + "'");
+      return defaultLevel;
+    }
+  }
+
+  private final String m_name;
+
+  /** Ordinal of the minimum level, or -1 to use s_defaultLevel. */
+  private volatile int m_level;
+
+  private static volatile int s_defaultLevel =
+      parseLevel(System.getProperty("hexgui.log.level"), Level.INFO.ordinal());
+
+  private static final ArrayBlockingQueue<Record> s_queue =
+      new ArrayBlockingQueue<Record>(QUEUE_SIZE);
+
+  private static final AtomicLong s_dropped = new AtomicLong();
+
+  /** Number of messages queued or being written. */
+  private static final AtomicLong s_unwritten = new AtomicLong();
+
+  static {
+    Thread appender =
+        new Thread(
+            new Runnable() {
+              public void run() {
+                append();
+              }
+            },
+            "Log appender");
+    appender.setDaemon(true);
+    appender.start();
+    Runtime.getRuntime()
+        .addShutdownHook(
+            new Thread(
+                new Runnable() {
+                  public void run() {
+                    flush();
+                  }
+                }));
+  }
+}
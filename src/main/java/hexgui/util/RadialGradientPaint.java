@@ -55,6 +55,27 @@ public class RadialGradientPaint implements Paint {
     return m_transparency;
   }
 
+  /** Returns the center of the gradient. */
+  public Point2D getPoint() {
+    return m_point;
+  }
+
+  /**
+   * Returns the radius of the gradient as a vector; its length is the distance at which the
+   * background color is reached.
+   */
+  public Point2D getRadius() {
+    return m_radius;
+  }
+
+  public Color getPointColor() {
+    return m_pointColor;
+  }
+
+  public Color getBackgroundColor() {
+    return m_backgroundColor;
+  }
+
   private final int m_transparency;
 
   private Point2D m_transformedPoint;
@@ -0,0 +1,89 @@
+// RotatingFileWriter.java
+
+package hexgui.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Appends lines to a file of limited size. When the file reaches its maximum size, it is renamed
+ * to the same name with <code>.1</code> appended, replacing an older one, and a new file is
+ * started. The disk space used is therefore at most twice the maximum size.
+ */
+public class RotatingFileWriter {
+  /**
+   * Constructor.
+   *
+   * @param file File to append to; it is created if it does not exist
+   * @param maxBytes Size at which the file is rotated
+   */
+  public RotatingFileWriter(File file, long maxBytes) throws IOException {
+    m_file = file;
+    m_maxBytes = maxBytes;
+    open();
+  }
+
+  /** Appends a line. Errors are written to stderr, and further lines are ignored. */
+  public synchronized void println(String line) {
+    if (m_writer == null) return;
+    try {
+      if (m_bytes >= m_maxBytes) rotate();
+      m_writer.write(line);
+      m_writer.write('\n');
+      // Close enough for ASCII, which is what programs send.
+      m_bytes += line.length() + 1;
+    } catch (IOException e) {
+      StringUtils.printException(e);
+      close();
+    }
+  }
+
+  public synchronized void flush() {
+    if (m_writer == null) return;
+    try {
+      m_writer.flush();
+    } catch (IOException e) {
+      StringUtils.printException(e);
+      close();
+    }
+  }
+
+  public synchronized void close() {
+    if (m_writer == null) return;
+    try {
+      m_writer.close();
+    } catch (IOException e) {
+      StringUtils.printException(e);
+    }
+    m_writer = null;
+  }
+
+  private void open() throws IOException {
+    m_bytes = m_file.length();
+    m_writer =
+        new BufferedWriter(
+            new OutputStreamWriter(
+                new FileOutputStream(m_file, true), StandardCharsets.UTF_8));
+  }
+
+  private void rotate() throws IOException {
+    m_writer.close();
+    File old = new File(m_file.getPath() + ".1");
+    old.delete();
+    if (!m_file.renameTo(old)) throw new IOException("Could not rename " + m_file);
+    open();
+  }
+
+  private final File m_file;
+
+  private final long m_maxBytes;
+
+  private long m_bytes;
+
+  private Writer m_writer;
+}
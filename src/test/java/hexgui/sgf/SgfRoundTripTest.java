@@ -0,0 +1,157 @@
+// ----------------------------------------------------------------------------
+// $Id$
+// ----------------------------------------------------------------------------
+
+package hexgui.sgf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import hexgui.game.CompactGameTree;
+import hexgui.game.GameInfo;
+import hexgui.game.Node;
+import hexgui.hex.HexColor;
+import hexgui.hex.HexPoint;
+import hexgui.hex.Move;
+import java.awt.Dimension;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Vector;
+import org.junit.Test;
+
+// ----------------------------------------------------------------------------
+
+/**
+ * Writes very deep and very wide game trees with <code>SgfWriter</code> and reads them back with
+ * <code>SgfReader</code>, into <code>Node</code>s and into a <code>CompactGameTree</code> both
+ * eagerly and lazily, which must not overflow the Java call stack.
+ */
+public final class SgfRoundTripTest {
+  /** Number of nested variations of the deep tree. */
+  private static final int DEPTH = 100000;
+
+  /** Number of children of the root of the wide tree. */
+  private static final int WIDTH = 1000000;
+
+  /** Number of nodes of the main line of the bushy tree. */
+  private static final int MAIN_LINE = 100000;
+
+  /** Number of leaves that branch off each node of the main line of the bushy tree. */
+  private static final int BRANCHES = 9;
+
+  private static final int SIZE = 11;
+
+  @Test
+  public void testDeep() throws Exception {
+    // Every node has a leaf as its first child and continues with its
+    // second, so the variations are nested DEPTH levels deep.
+    Node root = new Node();
+    Node node = root;
+    for (int i = 0; i < DEPTH; i++) {
+      node.addChild(new Node(move(i)));
+      Node next = new Node(move(i + 1));
+      node.addChild(next);
+      node = next;
+    }
+    roundTrip(root, 2 * DEPTH + 1);
+  }
+
+  @Test
+  public void testWide() throws Exception {
+    Node root = new Node();
+    Node last = null;
+    for (int i = 0; i < WIDTH; i++) {
+      Node child = new Node(move(i));
+      // Linking the siblings directly keeps building the tree linear.
+      if (last == null) {
+        root.addChild(child);
+      } else {
+        child.setParent(root);
+        child.setPrev(last);
+        last.setNext(child);
+      }
+      last = child;
+    }
+    roundTrip(root, WIDTH + 1);
+  }
+
+  @Test
+  public void testDeepAndBushy() throws Exception {
+    // A main line MAIN_LINE nodes deep, with BRANCHES leaves after
+    // each of its nodes, for a tree of about a million nodes.
+    Node root = new Node();
+    Node node = root;
+    for (int i = 0; i < MAIN_LINE; i++) {
+      Node next = new Node(move(i));
+      node.addChild(next);
+      for (int j = 1; j <= BRANCHES; j++) node.addChild(new Node(move(i + j)));
+      node = next;
+    }
+    roundTrip(root, MAIN_LINE * (BRANCHES + 1) + 1);
+  }
+
+  /**
+   * Writes the tree and checks that reading it eagerly, into a compact tree, and lazily into a
+   * compact tree gives the same tree.
+   */
+  private static void roundTrip(Node root, int numNodes) throws Exception {
+    GameInfo info = new GameInfo();
+    info.setBoardSize(new Dimension(SIZE, SIZE));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new SgfWriter(out, root, info);
+    byte data[] = out.toByteArray();
+
+    SgfReader reader = new SgfReader(new ByteArrayInputStream(data));
+    assertEquals(new Dimension(SIZE, SIZE), reader.getGameInfo().getBoardSize());
+    assertSameTree(root, reader.getGameTree(), numNodes);
+
+    CompactGameTree tree = new CompactGameTree();
+    reader = new SgfReader(ByteBuffer.wrap(data), tree);
+    assertEquals(numNodes, tree.size());
+    assertSameTree(root, reader.getGameTree(), numNodes);
+
+    tree = new CompactGameTree();
+    reader = new SgfReader(ByteBuffer.wrap(data), tree, true);
+    assertEquals(1, tree.size());
+    Node lazy = reader.getGameTree();
+    lazy.loadAll();
+    assertNull(reader.getLoadError());
+    assertEquals(numNodes, tree.size());
+    assertSameTree(root, lazy, numNodes);
+  }
+
+  /** Compares the moves and the shape of two trees, without recursion. */
+  private static void assertSameTree(Node expected, Node actual, int numNodes) {
+    Vector<Node> expectedNodes = new Vector<Node>();
+    Vector<Node> actualNodes = new Vector<Node>();
+    expectedNodes.add(expected);
+    actualNodes.add(actual);
+    int count = 0;
+    while (!expectedNodes.isEmpty()) {
+      Node e = expectedNodes.remove(expectedNodes.size() - 1);
+      Node a = actualNodes.remove(actualNodes.size() - 1);
+      assertNotNull(a);
+      assertEquals(e.hasMove(), a.hasMove());
+      if (e.hasMove()) assertTrue(e.getMove().equals(a.getMove()));
+      assertEquals(e.numChildren(), a.numChildren());
+      Node ec = e.getChild();
+      Node ac = a.getChild();
+      for (; ec != null; ec = ec.getNext(), ac = ac.getNext()) {
+        expectedNodes.add(ec);
+        actualNodes.add(ac);
+      }
+      count++;
+    }
+    assertEquals(numNodes, count);
+  }
+
+  private static Move move(int i) {
+    HexColor color = (i % 2 == 0) ? HexColor.BLACK : HexColor.WHITE;
+    return new Move(HexPoint.get(i % SIZE, (i / SIZE) % SIZE), color);
+  }
+}
+
+// ----------------------------------------------------------------------------